@@ -0,0 +1,53 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量操作: batchWriteRow(整行写入)和batchGetRow(读出所有版本), 每个请求只涉及一张表.
+ * 每列的版本数固定为1, 版本数对单行操作的影响见{@link RowBenchmarks}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class BatchBenchmarks {
+
+    @Param({"10", "50"})
+    public int rowWidth;
+
+    /**
+     * 每个请求的行数, TableStore限制batchWriteRow最多200行, batchGetRow最多100行
+     */
+    @Param({"10", "100"})
+    public int batchSize;
+
+    @Param({"10000", "1000000"})
+    public int tableSize;
+
+    private InMemoryTableInstanceManager manager;
+    private BatchWriteRowRequest[] batchWriteRowRequests;
+    private BatchGetRowRequest[] batchGetRowRequests;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkTable table = new BenchmarkTable(rowWidth, 1, tableSize);
+        manager = table.manager;
+        batchWriteRowRequests = table.batchWriteRowRequests(batchSize);
+        batchGetRowRequests = table.batchGetRowRequests(batchSize);
+    }
+
+    @Benchmark
+    public BatchWriteRowResponse batchWriteRow(RowBenchmarks.Cursor cursor) {
+        return manager.batchWriteRow(batchWriteRowRequests[cursor.next()]);
+    }
+
+    @Benchmark
+    public BatchGetRowResponse batchGetRow(RowBenchmarks.Cursor cursor) {
+        return manager.batchGetRow(batchGetRowRequests[cursor.next()]);
+    }
+}
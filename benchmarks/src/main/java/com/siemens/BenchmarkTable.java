@@ -0,0 +1,165 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.*;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+
+/**
+ * 基准使用的表和预先构造好的请求.
+ * <p>
+ * 表有tableSize行, 每行rowWidth个列, 每列versions个版本(时间戳1..versions), 用bulkLoad一次加载.
+ * 请求在建表时按随机主键构造好, 基准循环使用, 测到的分配只来自存储本身, 不包括构造SDK请求对象.
+ * 写入的时间戳都在1..versions之内, 反复写入不会让版本数增长.
+ */
+final class BenchmarkTable {
+
+    static final String TABLE = "bench_table";
+
+    /**
+     * 每种请求预先构造的个数, 2的幂
+     */
+    static final int REQUESTS = 1024;
+
+    final SimpleInMemoryTableStore store = new SimpleInMemoryTableStore();
+
+    final InMemoryTableInstanceManager manager = store.inMemoryTableInstanceManager;
+
+    private final int rowWidth;
+    private final int versions;
+    private final int tableSize;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    BenchmarkTable(int rowWidth, int versions, int tableSize) {
+        this.rowWidth = rowWidth;
+        this.versions = versions;
+        this.tableSize = tableSize;
+        TableMeta meta = new TableMeta(TABLE);
+        meta.addPrimaryKeyColumn(new PrimaryKeySchema("pk1", PrimaryKeyType.INTEGER));
+        store.createTable(new CreateTableRequest(meta, new TableOptions()));
+        store.bulkLoad(TABLE, new Iterator<Row>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < tableSize;
+            }
+
+            @Override
+            public Row next() {
+                if (next >= tableSize) {
+                    throw new NoSuchElementException();
+                }
+                int key = next++;
+                Column[] columns = new Column[rowWidth * versions];
+                for (int column = 0; column < rowWidth; column++) {
+                    for (int version = 0; version < versions; version++) {
+                        columns[column * versions + version] = column(column, key, versions - version);
+                    }
+                }
+                return new Row(primaryKey(key), columns);
+            }
+        }, tableSize);
+    }
+
+    static PrimaryKey primaryKey(long key) {
+        return PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromLong(key)).build();
+    }
+
+    /**
+     * 列名co0, co1..., 值带上主键和时间戳, 长度与真实数据相近
+     */
+    private static Column column(int column, long key, long timestamp) {
+        return new Column("co" + column, ColumnValue.fromString("value-" + key + "-" + timestamp), timestamp);
+    }
+
+    private int randomKey() {
+        return random.nextInt(tableSize);
+    }
+
+    private long randomTimestamp() {
+        return 1 + random.nextInt(versions);
+    }
+
+    /**
+     * @return 覆盖整行的写入, 每列写满versions个版本
+     */
+    RowPutChange putChange() {
+        int key = randomKey();
+        RowPutChange change = new RowPutChange(TABLE, primaryKey(key));
+        for (int column = 0; column < rowWidth; column++) {
+            for (int version = versions; version > 0; version--) {
+                change.addColumn(column(column, key, version));
+            }
+        }
+        return change;
+    }
+
+    /**
+     * @return 改写一列已有版本的更新
+     */
+    RowUpdateChange updateChange() {
+        int key = randomKey();
+        RowUpdateChange change = new RowUpdateChange(TABLE, primaryKey(key));
+        change.put(column(random.nextInt(rowWidth), key, randomTimestamp()));
+        return change;
+    }
+
+    PutRowRequest[] putRowRequests() {
+        PutRowRequest[] requests = new PutRowRequest[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            requests[i] = new PutRowRequest(putChange());
+        }
+        return requests;
+    }
+
+    UpdateRowRequest[] updateRowRequests() {
+        UpdateRowRequest[] requests = new UpdateRowRequest[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            requests[i] = new UpdateRowRequest(updateChange());
+        }
+        return requests;
+    }
+
+    /**
+     * @return 读出所有版本的整行读取
+     */
+    GetRowRequest[] getRowRequests() {
+        GetRowRequest[] requests = new GetRowRequest[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            SingleRowQueryCriteria criteria = new SingleRowQueryCriteria(TABLE, primaryKey(randomKey()));
+            criteria.setMaxVersions(versions);
+            requests[i] = new GetRowRequest(criteria);
+        }
+        return requests;
+    }
+
+    BatchWriteRowRequest[] batchWriteRowRequests(int batchSize) {
+        BatchWriteRowRequest[] requests = new BatchWriteRowRequest[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            BatchWriteRowRequest request = new BatchWriteRowRequest();
+            for (int row = 0; row < batchSize; row++) {
+                request.addRowChange(putChange());
+            }
+            requests[i] = request;
+        }
+        return requests;
+    }
+
+    BatchGetRowRequest[] batchGetRowRequests(int batchSize) {
+        BatchGetRowRequest[] requests = new BatchGetRowRequest[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            MultiRowQueryCriteria criteria = new MultiRowQueryCriteria(TABLE);
+            for (int row = 0; row < batchSize; row++) {
+                criteria.addRow(primaryKey(randomKey()));
+            }
+            criteria.setMaxVersions(versions);
+            BatchGetRowRequest request = new BatchGetRowRequest();
+            request.addMultiRowQueryCriteria(criteria);
+            requests[i] = request;
+        }
+        return requests;
+    }
+}
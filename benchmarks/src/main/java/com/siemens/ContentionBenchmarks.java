@@ -0,0 +1,81 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分段锁竞争: 多个线程在同一张表上按readPercent混合随机的整行读取和整行写入.
+ * 写入的时间戳都在1..versions之内(见{@link BenchmarkTable}), 表的版本数不随写入增长, 测到的是锁和发布本身的开销.
+ * 直接用JMH运行时线程数为核数; 通过{@link StoreBenchmarks}运行时按-Dthreads依次跑每个线程数, 比较相对单线程的加速比.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Threads(Threads.MAX)
+public class ContentionBenchmarks {
+
+    /**
+     * 读操作的百分比
+     */
+    @Param({"95", "50"})
+    public int readPercent;
+
+    @Param({"10"})
+    public int rowWidth;
+
+    @Param({"100000"})
+    public int tableSize;
+
+    private InMemoryTableInstanceManager manager;
+    private PutRowRequest[] putRowRequests;
+    private GetRowRequest[] getRowRequests;
+
+    /**
+     * 第i个操作是否为读
+     */
+    private boolean[] reads;
+
+    /**
+     * 每个线程从随机的位置开始依次使用预先构造的请求, 线程之间不会总是落在同一行上
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            next = ThreadLocalRandom.current().nextInt(BenchmarkTable.REQUESTS);
+        }
+
+        int next() {
+            return next++ & (BenchmarkTable.REQUESTS - 1);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkTable table = new BenchmarkTable(rowWidth, 1, tableSize);
+        manager = table.manager;
+        putRowRequests = table.putRowRequests();
+        getRowRequests = table.getRowRequests();
+        SplittableRandom random = new SplittableRandom(42);
+        reads = new boolean[BenchmarkTable.REQUESTS];
+        for (int i = 0; i < reads.length; i++) {
+            reads[i] = random.nextInt(100) < readPercent;
+        }
+    }
+
+    @Benchmark
+    public Response readWrite(Cursor cursor) {
+        int next = cursor.next();
+        return reads[next] ? manager.noConditionGetRow(getRowRequests[next])
+                : manager.noConditionPutRow(putRowRequests[next]);
+    }
+}
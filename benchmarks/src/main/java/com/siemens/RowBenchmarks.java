@@ -0,0 +1,72 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单行操作: noConditionPutRow, noConditionUpdateRow, noConditionGetRow.
+ * 同时输出吞吐和SampleTime模式下的延迟分位数; 线程数见{@link StoreBenchmarks}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class RowBenchmarks {
+
+    /**
+     * 每行的列数
+     */
+    @Param({"1", "10", "50"})
+    public int rowWidth;
+
+    /**
+     * 每列的版本数
+     */
+    @Param({"1", "3"})
+    public int versions;
+
+    @Param({"10000", "1000000"})
+    public int tableSize;
+
+    private InMemoryTableInstanceManager manager;
+    private PutRowRequest[] putRowRequests;
+    private UpdateRowRequest[] updateRowRequests;
+    private GetRowRequest[] getRowRequests;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next() {
+            return next++ & (BenchmarkTable.REQUESTS - 1);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkTable table = new BenchmarkTable(rowWidth, versions, tableSize);
+        manager = table.manager;
+        putRowRequests = table.putRowRequests();
+        updateRowRequests = table.updateRowRequests();
+        getRowRequests = table.getRowRequests();
+    }
+
+    @Benchmark
+    public PutRowResponse putRow(Cursor cursor) {
+        return manager.noConditionPutRow(putRowRequests[cursor.next()]);
+    }
+
+    @Benchmark
+    public UpdateRowResponse updateRow(Cursor cursor) {
+        return manager.noConditionUpdateRow(updateRowRequests[cursor.next()]);
+    }
+
+    @Benchmark
+    public GetRowResponse getRow(Cursor cursor) {
+        return manager.noConditionGetRow(getRowRequests[cursor.next()]);
+    }
+}
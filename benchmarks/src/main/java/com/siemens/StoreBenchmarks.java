@@ -0,0 +1,48 @@
+package com.siemens;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.profile.ProfilerConfig;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * benchmarks.jar的入口, 参数与JMH的命令行相同, 另外:
+ * <ul>
+ * <li>没有用-t指定线程数时, 依次用-Dthreads列出的线程数各跑一遍, 默认1和核数;</li>
+ * <li>总是加上gc profiler, 输出每次操作的分配字节数(gc.alloc.rate.norm).</li>
+ * </ul>
+ * 例如只跑读: java -Dthreads=1,4,16 -jar benchmarks.jar "RowBenchmarks.getRow" -p tableSize=1000000
+ */
+public final class StoreBenchmarks {
+
+    private StoreBenchmarks() {
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListProfilers()
+                || options.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        boolean gcProfiler = false;
+        for (ProfilerConfig profiler : options.getProfilers()) {
+            gcProfiler |= profiler.getKlass().equals(GCProfiler.class.getName()) || profiler.getKlass().equals("gc");
+        }
+        String[] threadCounts = options.getThreads().hasValue() ? new String[]{String.valueOf(options.getThreads().get())}
+                : System.getProperty("threads", "1," + Runtime.getRuntime().availableProcessors()).split(",");
+        for (String threads : threadCounts) {
+            ChainedOptionsBuilder builder = new OptionsBuilder().parent(options).threads(Integer.parseInt(threads.trim()));
+            if (!gcProfiler) {
+                builder.addProfiler(GCProfiler.class);
+            }
+            new Runner(builder.build()).run();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 预写日志的开销: 同样的整行写入分别在没有日志(none), 每次写入等待组提交落盘(groupCommit, syncIntervalMillis=0)
+ * 和默认的按间隔刷盘(interval, {@link SimpleInMemoryTableStore#DEFAULT_SYNC_INTERVAL_MILLIS})下的吞吐.
+ * 日志写在java.io.tmpdir下, 需要指向真实的磁盘, tmpfs上的fsync没有开销; 线程数见{@link StoreBenchmarks}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class WriteAheadLogBenchmarks {
+
+    @Param({"none", "groupCommit", "interval"})
+    public String sync;
+
+    @Param({"10"})
+    public int rowWidth;
+
+    @Param({"100000"})
+    public int tableSize;
+
+    private Path directory;
+    private SimpleInMemoryTableStore store;
+    private InMemoryTableInstanceManager manager;
+    private PutRowRequest[] putRowRequests;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next() {
+            return next++ & (BenchmarkTable.REQUESTS - 1);
+        }
+    }
+
+    /**
+     * 表数据先bulkLoad再写成快照, 有日志的库从快照加载, 三种方式的表完全相同
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkTable table = new BenchmarkTable(rowWidth, 1, tableSize);
+        putRowRequests = table.putRowRequests();
+        if ("none".equals(sync)) {
+            store = table.store;
+        } else {
+            directory = Files.createTempDirectory("wal-benchmark");
+            Path snapshot = directory.resolve("store.snapshot");
+            table.store.checkpoint(snapshot);
+            store = new SimpleInMemoryTableStore(snapshot, directory.resolve("store.wal"),
+                    "groupCommit".equals(sync) ? 0 : SimpleInMemoryTableStore.DEFAULT_SYNC_INTERVAL_MILLIS);
+        }
+        manager = store.inMemoryTableInstanceManager;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        if (directory != null) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public PutRowResponse putRow(Cursor cursor) {
+        return manager.noConditionPutRow(putRowRequests[cursor.next()]);
+    }
+}
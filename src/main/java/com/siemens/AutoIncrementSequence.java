@@ -0,0 +1,86 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.TableStoreException;
+import com.alicloud.openservices.tablestore.model.*;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 表的自增主键列(PrimaryKeyOption.AUTO_INCREMENT)的取值.
+ * <p>
+ * 与TableStore一样, 值在同一个分区键(第一个主键列)内单调递增但不连续: 取当前时间的微秒数和上一个值加1中较大的一个.
+ * 重启后从快照和预写日志恢复的行都是已经分配好的值, 之后分配的值比它们大, 不需要扫描已有的数据;
+ * 只有持续每毫秒分配超过1000个值时才会领先时钟, 领先的部分在重启后可能重复.
+ * <p>
+ * 计数器按分区键的hash分成{@link #STRIPES}段, 每段独占一个缓存行, 分配是一次CAS, 不加锁;
+ * 只有分区键落在同一段的写者才竞争同一个计数器. 没有采用每个线程预留一段值的做法:
+ * 那样同一个分区内后写入的行可能拿到更小的值, 不再单调递增.
+ */
+final class AutoIncrementSequence {
+
+    static final int STRIPES = 64;
+
+    /**
+     * 相邻两个计数器之间隔开的long个数, 64字节
+     */
+    private static final int PADDING = 8;
+
+    private final String columnName;
+
+    private final AtomicLongArray values = new AtomicLongArray(STRIPES * PADDING);
+
+    private AutoIncrementSequence(String columnName) {
+        this.columnName = columnName;
+    }
+
+    /**
+     * @return 表没有自增列时返回null
+     */
+    static AutoIncrementSequence of(TableMeta meta) {
+        for (PrimaryKeySchema schema : meta.getPrimaryKeyList()) {
+            if (schema.hasOption() && schema.getOption() == PrimaryKeyOption.AUTO_INCREMENT) {
+                return new AutoIncrementSequence(schema.getName());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 实际写入的主键, put中自增列的AUTO_INCREMENT占位符替换成新分配的值
+     * @throws TableStoreException 占位符不在自增列上, 或者出现在update和delete中(OTSParameterInvalid)
+     */
+    PrimaryKey resolve(RowChange rowChange) {
+        PrimaryKeyColumn[] columns = rowChange.getPrimaryKey().getPrimaryKeyColumns();
+        for (int i = 1; i < columns.length; i++) {
+            if (columns[i].getValue().isPlaceHolderForAutoIncr() && columns[i].getName().equals(columnName)
+                    && rowChange instanceof RowPutChange) {
+                PrimaryKeyColumn[] resolved = columns.clone();
+                resolved[i] = new PrimaryKeyColumn(columnName, PrimaryKeyValue.fromLong(next(columns[0].getValue())));
+                return new PrimaryKey(resolved);
+            }
+        }
+        for (PrimaryKeyColumn column : columns) {
+            if (column.getValue().isPlaceHolderForAutoIncr()) {
+                throw new TableStoreException("AUTO_INCREMENT is only allowed on the column " + columnName + " of a put.",
+                        null, "OTSParameterInvalid", "0", 400);
+            }
+        }
+        return rowChange.getPrimaryKey();
+    }
+
+    /**
+     * @param partitionKey 第一个主键列的值
+     */
+    long next(PrimaryKeyValue partitionKey) {
+        int hash = partitionKey.hashCode();
+        int index = ((hash ^ (hash >>> 16)) & (STRIPES - 1)) * PADDING;
+        long now = System.currentTimeMillis() * 1000;
+        for (;;) {
+            long last = values.get(index);
+            long next = Math.max(last + 1, now);
+            if (values.compareAndSet(index, last, next)) {
+                return next;
+            }
+        }
+    }
+}
@@ -0,0 +1,490 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.core.utils.Pair;
+import com.alicloud.openservices.tablestore.model.*;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 持久化用的紧凑二进制编码: 长度和个数用varint, 字符串用UTF-8, 时间戳和INTEGER/DOUBLE用8字节小端.
+ * 只依赖SDK的公开模型类, 不依赖SDK内部的编码实现, 升级SDK不会影响已经写下的文件.
+ */
+final class BinaryCodec {
+
+    private static final byte NO_TIMESTAMP = 0;
+    private static final byte HAS_TIMESTAMP = 1;
+
+    private static final byte PK_INF_MIN = -1;
+    private static final byte PK_INF_MAX = -2;
+    private static final byte PK_AUTO_INCREMENT = -3;
+
+    /**
+     * 值类型, 不使用SDK枚举的ordinal, 文件格式不受SDK枚举顺序影响
+     */
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_INTEGER = 1;
+    private static final byte TYPE_BOOLEAN = 2;
+    private static final byte TYPE_DOUBLE = 3;
+    private static final byte TYPE_BINARY = 4;
+
+    private static final byte UPDATE_PUT = 0;
+    private static final byte UPDATE_DELETE = 1;
+    private static final byte UPDATE_DELETE_ALL = 2;
+
+    private static final byte ROW_PUT = 0;
+    private static final byte ROW_UPDATE = 1;
+    private static final byte ROW_DELETE = 2;
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * 可以增长的写缓冲, 复用同一个实例可以避免每条记录都分配内存
+     */
+    static final class Output {
+
+        private ByteBuffer buffer;
+
+        Output(int initialCapacity) {
+            buffer = ByteBuffer.allocate(initialCapacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        private ByteBuffer ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                int capacity = Math.max(buffer.capacity() * 2, buffer.position() + bytes);
+                ByteBuffer grown = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+            return buffer;
+        }
+
+        Output putByte(int value) {
+            ensure(1).put((byte) value);
+            return this;
+        }
+
+        Output putInt(int value) {
+            ensure(4).putInt(value);
+            return this;
+        }
+
+        Output putLong(long value) {
+            ensure(8).putLong(value);
+            return this;
+        }
+
+        Output putVarInt(int value) {
+            ByteBuffer target = ensure(5);
+            while ((value & ~0x7F) != 0) {
+                target.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            target.put((byte) value);
+            return this;
+        }
+
+        Output putBytes(byte[] value) {
+            putVarInt(value.length);
+            ensure(value.length).put(value);
+            return this;
+        }
+
+        /**
+         * 表名, 列名和大部分字符串值都是ASCII, 直接逐字符写入, 不分配临时的byte数组; 遇到非ASCII字符时退回getBytes
+         */
+        Output putString(String value) {
+            int length = value.length();
+            ByteBuffer target = ensure(5 + length);
+            int start = target.position();
+            putVarInt(length);
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c >= 0x80) {
+                    target.position(start);
+                    return putBytes(value.getBytes(StandardCharsets.UTF_8));
+                }
+                target.put((byte) c);
+            }
+            return this;
+        }
+
+        Output put(ByteBuffer source) {
+            ensure(source.remaining()).put(source);
+            return this;
+        }
+
+        int size() {
+            return buffer.position();
+        }
+
+        void clear() {
+            buffer.clear();
+        }
+
+        /**
+         * @return 已写入内容的只读视图, 与Output共享内存
+         */
+        ByteBuffer view() {
+            ByteBuffer view = buffer.duplicate();
+            view.flip();
+            return view.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    static int getVarInt(ByteBuffer input) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = input.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new BufferUnderflowException();
+    }
+
+    static byte[] getBytes(ByteBuffer input) {
+        byte[] value = new byte[getVarInt(input)];
+        input.get(value);
+        return value;
+    }
+
+    static String getString(ByteBuffer input) {
+        int length = getVarInt(input);
+        String value;
+        if (input.hasArray()) {
+            value = new String(input.array(), input.arrayOffset() + input.position(), length, StandardCharsets.UTF_8);
+            input.position(input.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            input.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    static void putPrimaryKey(Output output, PrimaryKey primaryKey) {
+        PrimaryKeyColumn[] columns = primaryKey.getPrimaryKeyColumns();
+        output.putVarInt(columns.length);
+        for (PrimaryKeyColumn column : columns) {
+            output.putString(column.getName());
+            PrimaryKeyValue value = column.getValue();
+            if (value.isInfMin()) {
+                output.putByte(PK_INF_MIN);
+            } else if (value.isInfMax()) {
+                output.putByte(PK_INF_MAX);
+            } else if (value.isPlaceHolderForAutoIncr()) {
+                output.putByte(PK_AUTO_INCREMENT);
+            } else {
+                switch (value.getType()) {
+                    case INTEGER:
+                        output.putByte(TYPE_INTEGER).putLong(value.asLong());
+                        break;
+                    case STRING:
+                        output.putByte(TYPE_STRING).putString(value.asString());
+                        break;
+                    default:
+                        output.putByte(TYPE_BINARY).putBytes(value.asBinary());
+                }
+            }
+        }
+    }
+
+    static PrimaryKey getPrimaryKey(ByteBuffer input) {
+        PrimaryKeyColumn[] columns = new PrimaryKeyColumn[getVarInt(input)];
+        for (int i = 0; i < columns.length; i++) {
+            String name = getString(input);
+            byte type = input.get();
+            PrimaryKeyValue value;
+            switch (type) {
+                case PK_INF_MIN:
+                    value = PrimaryKeyValue.INF_MIN;
+                    break;
+                case PK_INF_MAX:
+                    value = PrimaryKeyValue.INF_MAX;
+                    break;
+                case PK_AUTO_INCREMENT:
+                    value = PrimaryKeyValue.AUTO_INCREMENT;
+                    break;
+                case TYPE_INTEGER:
+                    value = PrimaryKeyValue.fromLong(input.getLong());
+                    break;
+                case TYPE_STRING:
+                    value = PrimaryKeyValue.fromString(getString(input));
+                    break;
+                default:
+                    value = PrimaryKeyValue.fromBinary(getBytes(input));
+            }
+            columns[i] = new PrimaryKeyColumn(name, value);
+        }
+        return new PrimaryKey(columns);
+    }
+
+    static void putColumnValue(Output output, ColumnValue value) {
+        switch (value.getType()) {
+            case STRING:
+                output.putByte(TYPE_STRING).putString(value.asString());
+                break;
+            case INTEGER:
+                output.putByte(TYPE_INTEGER).putLong(value.asLong());
+                break;
+            case BOOLEAN:
+                output.putByte(TYPE_BOOLEAN).putByte(value.asBoolean() ? 1 : 0);
+                break;
+            case DOUBLE:
+                output.putByte(TYPE_DOUBLE).putLong(Double.doubleToRawLongBits(value.asDouble()));
+                break;
+            default:
+                output.putByte(TYPE_BINARY).putBytes(value.asBinary());
+        }
+    }
+
+    static ColumnValue getColumnValue(ByteBuffer input) {
+        switch (input.get()) {
+            case TYPE_STRING:
+                return ColumnValue.fromString(getString(input));
+            case TYPE_INTEGER:
+                return ColumnValue.fromLong(input.getLong());
+            case TYPE_BOOLEAN:
+                return ColumnValue.fromBoolean(input.get() != 0);
+            case TYPE_DOUBLE:
+                return ColumnValue.fromDouble(Double.longBitsToDouble(input.getLong()));
+            default:
+                return ColumnValue.fromBinary(getBytes(input));
+        }
+    }
+
+    /**
+     * 列名, 值以及可选的时间戳
+     */
+    static void putColumn(Output output, Column column) {
+        output.putString(column.getName());
+        putColumnValue(output, column.getValue());
+        putTimestamp(output, column);
+    }
+
+    static Column getColumn(ByteBuffer input) {
+        String name = getString(input);
+        ColumnValue value = getColumnValue(input);
+        return input.get() == HAS_TIMESTAMP ? new Column(name, value, input.getLong()) : new Column(name, value);
+    }
+
+    static void putTimestamp(Output output, Column column) {
+        if (column.hasSetTimestamp()) {
+            output.putByte(HAS_TIMESTAMP).putLong(column.getTimestamp());
+        } else {
+            output.putByte(NO_TIMESTAMP);
+        }
+    }
+
+    /**
+     * 一行的所有列, 不包含主键: 列数, 每列的列名, 版本数以及按时间戳降序的(值, 时间戳)
+     */
+    static void putColumns(Output output, RowVersion row) {
+        output.putVarInt(row.columnCount());
+        for (int i = 0; i < row.columnCount(); i++) {
+            Column[] versions = row.versionsAt(i);
+            output.putString(row.nameAt(i)).putVarInt(versions.length);
+            for (Column version : versions) {
+                putColumnValue(output, version.getValue());
+                output.putLong(version.getTimestamp());
+            }
+        }
+    }
+
+    static RowVersion getRowVersion(EncodedPrimaryKey primaryKey, ByteBuffer input) {
+        int columnCount = getVarInt(input);
+        String[] names = new String[columnCount];
+        Column[][] versions = new Column[columnCount][];
+        for (int i = 0; i < columnCount; i++) {
+            String name = getString(input);
+            Column[] columnVersions = new Column[getVarInt(input)];
+            for (int j = 0; j < columnVersions.length; j++) {
+                ColumnValue value = getColumnValue(input);
+                columnVersions[j] = new Column(name, value, input.getLong());
+            }
+            names[i] = name;
+            versions[i] = columnVersions;
+        }
+        return RowVersion.of(primaryKey, names, versions);
+    }
+
+    static void putTableMeta(Output output, TableMeta meta) {
+        output.putString(meta.getTableName());
+        output.putVarInt(meta.getPrimaryKeyList().size());
+        for (PrimaryKeySchema schema : meta.getPrimaryKeyList()) {
+            output.putString(schema.getName());
+            switch (schema.getType()) {
+                case INTEGER:
+                    output.putByte(TYPE_INTEGER);
+                    break;
+                case STRING:
+                    output.putByte(TYPE_STRING);
+                    break;
+                default:
+                    output.putByte(TYPE_BINARY);
+            }
+            // 目前只有AUTO_INCREMENT一个选项
+            output.putByte(schema.hasOption() ? 1 : 0);
+        }
+    }
+
+    static TableMeta getTableMeta(ByteBuffer input) {
+        TableMeta meta = new TableMeta(getString(input));
+        int count = getVarInt(input);
+        for (int i = 0; i < count; i++) {
+            String name = getString(input);
+            byte typeCode = input.get();
+            PrimaryKeyType type = typeCode == TYPE_INTEGER ? PrimaryKeyType.INTEGER
+                    : typeCode == TYPE_STRING ? PrimaryKeyType.STRING : PrimaryKeyType.BINARY;
+            meta.addPrimaryKeyColumn(input.get() == 0 ? new PrimaryKeySchema(name, type)
+                    : new PrimaryKeySchema(name, type, PrimaryKeyOption.AUTO_INCREMENT));
+        }
+        return meta;
+    }
+
+    /**
+     * 没有设置的选项写成-1
+     */
+    static void putTableOptions(Output output, TableOptions options) {
+        output.putInt(options != null && options.hasSetTimeToLive() ? options.getTimeToLive() : -1);
+        output.putInt(options != null && options.hasSetMaxVersions() ? options.getMaxVersions() : -1);
+    }
+
+    static TableOptions getTableOptions(ByteBuffer input) {
+        TableOptions options = new TableOptions();
+        int timeToLive = input.getInt();
+        int maxVersions = input.getInt();
+        if (timeToLive != -1) {
+            options.setTimeToLive(timeToLive);
+        }
+        if (maxVersions != -1) {
+            options.setMaxVersions(maxVersions);
+        }
+        return options;
+    }
+
+    static void putReservedThroughput(Output output, ReservedThroughput reservedThroughput) {
+        CapacityUnit capacityUnit = reservedThroughput == null ? null : reservedThroughput.getCapacityUnit();
+        output.putInt(capacityUnit != null && capacityUnit.hasSetReadCapacityUnit() ? capacityUnit.getReadCapacityUnit() : 0);
+        output.putInt(capacityUnit != null && capacityUnit.hasSetWriteCapacityUnit() ? capacityUnit.getWriteCapacityUnit() : 0);
+    }
+
+    static ReservedThroughput getReservedThroughput(ByteBuffer input) {
+        return new ReservedThroughput(new CapacityUnit(input.getInt(), input.getInt()));
+    }
+
+    /**
+     * 主表主键列没有类型, 类型写成-1
+     */
+    static void putSecondaryIndexMeta(Output output, SecondaryIndexMeta meta) {
+        output.putString(meta.getIndexName());
+        output.putVarInt(meta.getPrimaryKeyNames().size());
+        for (int i = 0; i < meta.getPrimaryKeyNames().size(); i++) {
+            output.putString(meta.getPrimaryKeyNames().get(i));
+            PrimaryKeyType type = meta.getPrimaryKeyTypes().get(i);
+            output.putByte(type == null ? -1 : type == PrimaryKeyType.INTEGER ? TYPE_INTEGER
+                    : type == PrimaryKeyType.STRING ? TYPE_STRING : TYPE_BINARY);
+        }
+        output.putVarInt(meta.getDefinedColumns().size());
+        for (String name : meta.getDefinedColumns()) {
+            output.putString(name);
+        }
+    }
+
+    static SecondaryIndexMeta getSecondaryIndexMeta(ByteBuffer input) {
+        SecondaryIndexMeta meta = new SecondaryIndexMeta(getString(input));
+        int count = getVarInt(input);
+        for (int i = 0; i < count; i++) {
+            String name = getString(input);
+            byte typeCode = input.get();
+            meta.addPrimaryKeyColumn(name, typeCode == -1 ? null : typeCode == TYPE_INTEGER ? PrimaryKeyType.INTEGER
+                    : typeCode == TYPE_STRING ? PrimaryKeyType.STRING : PrimaryKeyType.BINARY);
+        }
+        count = getVarInt(input);
+        for (int i = 0; i < count; i++) {
+            meta.addDefinedColumn(getString(input));
+        }
+        return meta;
+    }
+
+    /**
+     * 行变更, 不包含条件: 条件在写日志之前已经检查过了
+     *
+     * @param primaryKey 代替rowChange中的主键写入, 自增列已经分配了值
+     */
+    static void putRowChange(Output output, RowChange rowChange, PrimaryKey primaryKey) {
+        output.putString(rowChange.getTableName());
+        putPrimaryKey(output, primaryKey);
+        if (rowChange instanceof RowPutChange) {
+            output.putByte(ROW_PUT);
+            List<Column> columns = ((RowPutChange) rowChange).getColumnsToPut();
+            output.putVarInt(columns.size());
+            for (Column column : columns) {
+                putColumn(output, column);
+            }
+        } else if (rowChange instanceof RowUpdateChange) {
+            output.putByte(ROW_UPDATE);
+            List<Pair<Column, RowUpdateChange.Type>> columns =
+                    ((RowUpdateChange) rowChange).getColumnsToUpdate();
+            output.putVarInt(columns.size());
+            for (Pair<Column, RowUpdateChange.Type> column : columns) {
+                RowUpdateChange.Type type = column.getSecond();
+                output.putByte(type == RowUpdateChange.Type.PUT ? UPDATE_PUT
+                        : type == RowUpdateChange.Type.DELETE ? UPDATE_DELETE : UPDATE_DELETE_ALL);
+                output.putString(column.getFirst().getName());
+                if (type == RowUpdateChange.Type.PUT) {
+                    putColumnValue(output, column.getFirst().getValue());
+                }
+                if (type != RowUpdateChange.Type.DELETE_ALL) {
+                    putTimestamp(output, column.getFirst());
+                }
+            }
+        } else {
+            output.putByte(ROW_DELETE);
+        }
+    }
+
+    static RowChange getRowChange(ByteBuffer input) {
+        String tableName = getString(input);
+        PrimaryKey primaryKey = getPrimaryKey(input);
+        byte type = input.get();
+        if (type == ROW_PUT) {
+            RowPutChange rowChange = new RowPutChange(tableName, primaryKey);
+            int count = getVarInt(input);
+            for (int i = 0; i < count; i++) {
+                rowChange.addColumn(getColumn(input));
+            }
+            return rowChange;
+        }
+        if (type == ROW_UPDATE) {
+            RowUpdateChange rowChange = new RowUpdateChange(tableName, primaryKey);
+            int count = getVarInt(input);
+            for (int i = 0; i < count; i++) {
+                byte updateType = input.get();
+                String name = getString(input);
+                switch (updateType) {
+                    case UPDATE_PUT:
+                        ColumnValue value = getColumnValue(input);
+                        rowChange.put(input.get() == HAS_TIMESTAMP
+                                ? new Column(name, value, input.getLong()) : new Column(name, value));
+                        break;
+                    case UPDATE_DELETE:
+                        input.get();
+                        rowChange.deleteColumn(name, input.getLong());
+                        break;
+                    default:
+                        rowChange.deleteColumns(name);
+                }
+            }
+            return rowChange;
+        }
+        return new RowDeleteChange(tableName, primaryKey);
+    }
+}
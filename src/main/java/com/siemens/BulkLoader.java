@@ -0,0 +1,386 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.*;
+import com.google.common.io.BaseEncoding;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * 批量加载: 不经过PutRowRequest和写锁, 直接把输入解析成RowVersion, 在旁边建好整张表, 最后一次性替换.
+ * <p>
+ * 输入按批读取, 每批在ForkJoinPool.commonPool上解析, 读取与解析重叠; 同时在解析的批数有上限, 解析跟不上时读取等待.
+ * 输入已经按主键严格升序时(导出的测试数据通常如此)直接按输入的顺序拼接; 否则整体并行排序,
+ * 主键相同的行按输入顺序合并, 与依次putRow的结果一致: 列的多个版本都保留, 时间戳相同的版本后写的覆盖先写的.
+ * 结果是有序的{@link SortedRows}, 由表按自己的存储方式建表(见{@link InMemoryTableInstance#prepare}), 这里不建跳表.
+ */
+final class BulkLoader<T> {
+
+    /**
+     * 每批的行数
+     */
+    static final int BATCH_SIZE = 4096;
+
+    private static final Comparator<RowVersion> BY_PRIMARY_KEY = (a, b) -> a.getPrimaryKey().compareTo(b.getPrimaryKey());
+
+    /**
+     * 解析一批输入, 第二个参数是这批第一行在输入中的行号, 用于错误信息
+     */
+    interface BatchParser<T> {
+        RowVersion[] parse(List<T> batch, long firstRow);
+    }
+
+    private final BatchParser<T> parser;
+
+    BulkLoader(BatchParser<T> parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * @param source       输入
+     * @param rowCountHint 预计的行数, 只用于预分配, 不准确也没有关系
+     * @return 按主键严格升序的行
+     */
+    SortedRows load(Iterator<T> source, int rowCountHint) {
+        boolean parallel = ForkJoinPool.getCommonPoolParallelism() > 1;
+        int maxInFlight = ForkJoinPool.getCommonPoolParallelism() * 4;
+        List<CompletableFuture<RowVersion[]>> futures = new ArrayList<>(Math.max(rowCountHint, 0) / BATCH_SIZE + 1);
+        ArrayDeque<CompletableFuture<RowVersion[]>> inFlight = new ArrayDeque<>();
+        long row = 0;
+        while (source.hasNext()) {
+            List<T> batch = new ArrayList<>(BATCH_SIZE);
+            while (batch.size() < BATCH_SIZE && source.hasNext()) {
+                batch.add(source.next());
+            }
+            long firstRow = row;
+            row += batch.size();
+            CompletableFuture<RowVersion[]> future;
+            if (parallel) {
+                future = CompletableFuture.supplyAsync(() -> parser.parse(batch, firstRow), ForkJoinPool.commonPool());
+                inFlight.add(future);
+                if (inFlight.size() > maxInFlight) {
+                    inFlight.poll().join();
+                }
+            } else {
+                future = CompletableFuture.completedFuture(parser.parse(batch, firstRow));
+            }
+            futures.add(future);
+        }
+        List<RowVersion[]> chunks = new ArrayList<>(futures.size());
+        try {
+            for (CompletableFuture<RowVersion[]> future : futures) {
+                chunks.add(future.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        if (!isStrictlyAscending(chunks)) {
+            chunks = Arrays.<RowVersion[]>asList(sortAndMerge(chunks, (int) row));
+        }
+        return new SortedRows(chunks);
+    }
+
+    private static boolean isStrictlyAscending(List<RowVersion[]> chunks) {
+        RowVersion previous = null;
+        for (RowVersion[] rows : chunks) {
+            for (RowVersion version : rows) {
+                if (previous != null && BY_PRIMARY_KEY.compare(previous, version) >= 0) {
+                    return false;
+                }
+                previous = version;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 稳定的并行排序之后, 主键相同的行相邻且保持输入顺序, 按顺序合并
+     */
+    private static RowVersion[] sortAndMerge(List<RowVersion[]> chunks, int rowCount) {
+        RowVersion[] rows = new RowVersion[rowCount];
+        int offset = 0;
+        for (RowVersion[] chunk : chunks) {
+            System.arraycopy(chunk, 0, rows, offset, chunk.length);
+            offset += chunk.length;
+        }
+        Arrays.parallelSort(rows, BY_PRIMARY_KEY);
+        int size = 0;
+        for (int i = 0; i < rows.length; i++) {
+            if (size > 0 && BY_PRIMARY_KEY.compare(rows[size - 1], rows[i]) == 0) {
+                RowVersion.Builder merged = rows[size - 1].toBuilder();
+                for (int c = 0; c < rows[i].columnCount(); c++) {
+                    for (Column column : rows[i].versionsAt(c)) {
+                        merged.put(column);
+                    }
+                }
+                rows[size - 1] = merged.build();
+            } else {
+                rows[size++] = rows[i];
+            }
+        }
+        return size == rows.length ? rows : Arrays.copyOf(rows, size);
+    }
+
+    /**
+     * SDK的Row转成RowVersion, 没有时间戳的列使用timestamp. 主键列的列名, 顺序和类型必须与表结构一致,
+     * 不能是AUTO_INCREMENT占位符或者INF_MIN/INF_MAX, 否则以IllegalArgumentException报告出错的行号(从1开始)
+     */
+    static BatchParser<Row> rowParser(TableMeta meta, long timestamp) {
+        List<PrimaryKeySchema> schemas = meta.getPrimaryKeyList();
+        String[] primaryKeyNames = EncodedPrimaryKey.names(meta);
+        return (batch, firstRow) -> {
+            RowVersion[] versions = new RowVersion[batch.size()];
+            for (int i = 0; i < versions.length; i++) {
+                Row row = batch.get(i);
+                try {
+                    checkPrimaryKey(schemas, row.getPrimaryKey());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("row " + (firstRow + i + 1) + ": " + e.getMessage(), e);
+                }
+                RowVersion.Builder builder = new RowVersion.Builder(
+                        EncodedPrimaryKey.of(row.getPrimaryKey().getPrimaryKeyColumns(), primaryKeyNames));
+                for (Column column : row.getColumns()) {
+                    builder.put(column.hasSetTimestamp() ? column
+                            : new Column(column.getName(), column.getValue(), timestamp));
+                }
+                versions[i] = builder.build();
+            }
+            return versions;
+        };
+    }
+
+    private static void checkPrimaryKey(List<PrimaryKeySchema> schemas, PrimaryKey primaryKey) {
+        PrimaryKeyColumn[] columns = primaryKey.getPrimaryKeyColumns();
+        if (columns.length != schemas.size()) {
+            throw new IllegalArgumentException("expect " + schemas.size() + " primary key columns but found "
+                    + columns.length);
+        }
+        for (int i = 0; i < columns.length; i++) {
+            PrimaryKeySchema schema = schemas.get(i);
+            PrimaryKeyValue value = columns[i].getValue();
+            if (!schema.getName().equals(columns[i].getName())) {
+                throw new IllegalArgumentException("expect primary key column " + schema.getName() + " but found "
+                        + columns[i].getName());
+            }
+            if (value.isPlaceHolderForAutoIncr() || value.isInfMin() || value.isInfMax()) {
+                throw new IllegalArgumentException("primary key column " + schema.getName() + " is " + value);
+            }
+            if (value.getType() != schema.getType()) {
+                throw new IllegalArgumentException("primary key column " + schema.getName() + " should be "
+                        + schema.getType() + " but found " + value.getType());
+            }
+        }
+    }
+
+    /**
+     * CSV的每一行转成RowVersion.
+     * <p>
+     * 第一行是列名, 主键列必须全部出现, 类型取自表结构; 属性列可以写成"列名:类型", 类型是STRING, INTEGER, DOUBLE,
+     * BOOLEAN或BINARY(base64), 默认STRING. 空的属性值表示该行没有这一列. 字段可以用双引号括起来, 引号内的双引号写两遍,
+     * 不支持字段内换行. 所有列使用同一个时间戳.
+     *
+     * @param header 第一行
+     */
+    static BatchParser<String> csvParser(TableMeta meta, String header, long timestamp) {
+        return new CsvParser(meta, header, timestamp);
+    }
+
+    private static final class CsvParser implements BatchParser<String> {
+
+        private final long timestamp;
+        private final int fieldCount;
+
+        /**
+         * 主键列在CSV中的位置和类型, 按表结构的顺序
+         */
+        private final String[] primaryKeyNames;
+        private final int[] primaryKeyFields;
+        private final PrimaryKeyType[] primaryKeyTypes;
+
+        /**
+         * 属性列按列名升序, 与RowVersion的列索引顺序一致
+         */
+        private final String[] columnNames;
+        private final int[] columnFields;
+        private final Function<String, ColumnValue>[] columnParsers;
+
+        @SuppressWarnings("unchecked")
+        CsvParser(TableMeta meta, String header, long timestamp) {
+            this.timestamp = timestamp;
+            List<String> fields = split(header, 0);
+            fieldCount = fields.size();
+            Map<String, Integer> positions = new HashMap<>();
+            for (int i = 0; i < fields.size(); i++) {
+                positions.put(fields.get(i), i);
+            }
+            List<PrimaryKeySchema> schemas = meta.getPrimaryKeyList();
+            primaryKeyNames = new String[schemas.size()];
+            primaryKeyFields = new int[schemas.size()];
+            primaryKeyTypes = new PrimaryKeyType[schemas.size()];
+            for (int i = 0; i < schemas.size(); i++) {
+                Integer position = positions.remove(schemas.get(i).getName());
+                if (position == null) {
+                    throw new IllegalArgumentException("the header of the csv has no primary key column "
+                            + schemas.get(i).getName());
+                }
+                primaryKeyNames[i] = schemas.get(i).getName();
+                primaryKeyFields[i] = position;
+                primaryKeyTypes[i] = schemas.get(i).getType();
+            }
+            String[] columns = positions.keySet().toArray(new String[0]);
+            Arrays.sort(columns, Comparator.comparing(CsvParser::columnName));
+            columnNames = new String[columns.length];
+            columnFields = new int[columns.length];
+            columnParsers = new Function[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                columnNames[i] = columnName(columns[i]);
+                columnFields[i] = positions.get(columns[i]);
+                columnParsers[i] = valueParser(columns[i]);
+                if (i > 0 && columnNames[i].equals(columnNames[i - 1])) {
+                    throw new IllegalArgumentException("duplicated column " + columnNames[i]);
+                }
+            }
+        }
+
+        private static String columnName(String field) {
+            int colon = field.lastIndexOf(':');
+            return colon < 0 ? field : field.substring(0, colon);
+        }
+
+        private static Function<String, ColumnValue> valueParser(String field) {
+            int colon = field.lastIndexOf(':');
+            String type = colon < 0 ? "STRING" : field.substring(colon + 1);
+            switch (type) {
+                case "STRING":
+                    return ColumnValue::fromString;
+                case "INTEGER":
+                    return value -> ColumnValue.fromLong(Long.parseLong(value));
+                case "DOUBLE":
+                    return value -> ColumnValue.fromDouble(Double.parseDouble(value));
+                case "BOOLEAN":
+                    return value -> ColumnValue.fromBoolean(Boolean.parseBoolean(value));
+                case "BINARY":
+                    return value -> ColumnValue.fromBinary(BaseEncoding.base64().decode(value));
+                default:
+                    throw new IllegalArgumentException("unknown column type " + type + " of " + field);
+            }
+        }
+
+        @Override
+        public RowVersion[] parse(List<String> batch, long firstRow) {
+            RowVersion[] versions = new RowVersion[batch.size()];
+            for (int i = 0; i < versions.length; i++) {
+                // 第一行是列名, 数据从第2行开始
+                long line = firstRow + i + 2;
+                try {
+                    versions[i] = parseLine(batch.get(i));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("line " + line + " of the csv: " + e.getMessage(), e);
+                }
+            }
+            return versions;
+        }
+
+        private RowVersion parseLine(String line) {
+            List<String> fields = split(line, fieldCount);
+            if (fields.size() != fieldCount) {
+                throw new IllegalArgumentException("expect " + fieldCount + " fields but found " + fields.size());
+            }
+            PrimaryKeyColumn[] primaryKeyColumns = new PrimaryKeyColumn[primaryKeyFields.length];
+            for (int i = 0; i < primaryKeyColumns.length; i++) {
+                String value = fields.get(primaryKeyFields[i]);
+                if (value.isEmpty()) {
+                    throw new IllegalArgumentException("empty primary key column " + primaryKeyNames[i]);
+                }
+                PrimaryKeyValue primaryKeyValue;
+                switch (primaryKeyTypes[i]) {
+                    case INTEGER:
+                        primaryKeyValue = PrimaryKeyValue.fromLong(Long.parseLong(value));
+                        break;
+                    case STRING:
+                        primaryKeyValue = PrimaryKeyValue.fromString(value);
+                        break;
+                    default:
+                        primaryKeyValue = PrimaryKeyValue.fromBinary(BaseEncoding.base64().decode(value));
+                }
+                primaryKeyColumns[i] = new PrimaryKeyColumn(primaryKeyNames[i], primaryKeyValue);
+            }
+            int present = 0;
+            for (int field : columnFields) {
+                if (!fields.get(field).isEmpty()) {
+                    present++;
+                }
+            }
+            String[] names = new String[present];
+            Column[][] versions = new Column[present][];
+            int index = 0;
+            for (int i = 0; i < columnFields.length; i++) {
+                String value = fields.get(columnFields[i]);
+                if (!value.isEmpty()) {
+                    names[index] = columnNames[i];
+                    versions[index++] = new Column[]{
+                            new Column(columnNames[i], columnParsers[i].apply(value), timestamp)};
+                }
+            }
+            return RowVersion.of(EncodedPrimaryKey.of(primaryKeyColumns, primaryKeyNames), names, versions);
+        }
+
+        /**
+         * 按逗号切分一行, 处理双引号
+         */
+        private static List<String> split(String line, int expectedFields) {
+            List<String> fields = new ArrayList<>(Math.max(expectedFields, 4));
+            int length = line.length();
+            int start = 0;
+            while (true) {
+                if (start < length && line.charAt(start) == '"') {
+                    StringBuilder value = new StringBuilder();
+                    int i = start + 1;
+                    while (true) {
+                        int quote = line.indexOf('"', i);
+                        if (quote < 0) {
+                            throw new IllegalArgumentException("unclosed quote");
+                        }
+                        value.append(line, i, quote);
+                        if (quote + 1 < length && line.charAt(quote + 1) == '"') {
+                            value.append('"');
+                            i = quote + 2;
+                        } else {
+                            i = quote + 1;
+                            break;
+                        }
+                    }
+                    fields.add(value.toString());
+                    if (i == length) {
+                        return fields;
+                    }
+                    if (line.charAt(i) != ',') {
+                        throw new IllegalArgumentException("unexpected character after a quoted field");
+                    }
+                    start = i + 1;
+                } else {
+                    int comma = line.indexOf(',', start);
+                    if (comma < 0) {
+                        fields.add(line.substring(start));
+                        return fields;
+                    }
+                    fields.add(line.substring(start, comma));
+                    start = comma + 1;
+                }
+            }
+        }
+    }
+}
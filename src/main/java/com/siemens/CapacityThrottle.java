@@ -0,0 +1,109 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.TableStoreException;
+import com.alicloud.openservices.tablestore.model.CapacityUnit;
+import com.alicloud.openservices.tablestore.model.ReservedThroughput;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按表的预留读写吞吐量模拟服务端限流, 读和写各一个令牌桶.
+ * <p>
+ * 桶按每秒预留CU的速度补充, 最多积攒一秒的量. 桶里还有令牌时请求放行, 按实际消耗扣除, 可以扣成负数,
+ * 之后的请求要等欠下的量补回来; 桶空时请求失败, 错误码为OTSCapacityUnitExhausted, 用于测试客户端的退避.
+ * 预留为0的一侧不限流. 每个桶只是一个记录"桶被扣空的时刻"的AtomicLong, 放行和扣除都不加锁.
+ */
+final class CapacityThrottle {
+
+    static final CapacityThrottle UNLIMITED = new CapacityThrottle(0, 0);
+
+    private static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Bucket read;
+    private final Bucket write;
+
+    private CapacityThrottle(int readCapacityUnit, int writeCapacityUnit) {
+        this.read = readCapacityUnit > 0 ? new Bucket(readCapacityUnit) : null;
+        this.write = writeCapacityUnit > 0 ? new Bucket(writeCapacityUnit) : null;
+    }
+
+    static CapacityThrottle of(ReservedThroughput reservedThroughput) {
+        CapacityUnit capacityUnit = reservedThroughput == null ? null : reservedThroughput.getCapacityUnit();
+        if (capacityUnit == null) {
+            return UNLIMITED;
+        }
+        int read = capacityUnit.hasSetReadCapacityUnit() ? capacityUnit.getReadCapacityUnit() : 0;
+        int write = capacityUnit.hasSetWriteCapacityUnit() ? capacityUnit.getWriteCapacityUnit() : 0;
+        return read > 0 || write > 0 ? new CapacityThrottle(read, write) : UNLIMITED;
+    }
+
+    /**
+     * 读之前检查, 读完之后用{@link #consumeRead}扣除实际消耗
+     *
+     * @throws TableStoreException OTSCapacityUnitExhausted
+     */
+    void checkRead() {
+        if (read != null && !read.hasCapacity()) {
+            throw capacityUnitExhausted();
+        }
+    }
+
+    void consumeRead(int capacityUnit) {
+        if (read != null) {
+            read.take(capacityUnit);
+        }
+    }
+
+    /**
+     * 写操作的消耗事先就知道, 检查通过后立即扣除; 条件写还需要读CU
+     *
+     * @throws TableStoreException OTSCapacityUnitExhausted
+     */
+    void acquireWrite(CapacityUnit consumed) {
+        if (write != null && !write.hasCapacity()
+                || consumed.getReadCapacityUnit() > 0 && read != null && !read.hasCapacity()) {
+            throw capacityUnitExhausted();
+        }
+        if (write != null) {
+            write.take(consumed.getWriteCapacityUnit());
+        }
+        consumeRead(consumed.getReadCapacityUnit());
+    }
+
+    static TableStoreException capacityUnitExhausted() {
+        return new TableStoreException("Too frequent table operations.", null, "OTSCapacityUnitExhausted", "0", 403);
+    }
+
+    private static final class Bucket {
+
+        private final long nanosPerUnit;
+
+        /**
+         * 令牌数 = (now - emptyAt) / nanosPerUnit, emptyAt不早于now - BURST_NANOS
+         */
+        private final AtomicLong emptyAt;
+
+        Bucket(int capacityUnitPerSecond) {
+            this.nanosPerUnit = Math.max(1, BURST_NANOS / capacityUnitPerSecond);
+            this.emptyAt = new AtomicLong(System.nanoTime() - BURST_NANOS);
+        }
+
+        boolean hasCapacity() {
+            return emptyAt.get() - System.nanoTime() < 0;
+        }
+
+        void take(int capacityUnit) {
+            long now = System.nanoTime();
+            long cost = capacityUnit * nanosPerUnit;
+            for (;;) {
+                long current = emptyAt.get();
+                long full = now - BURST_NANOS;
+                long next = (current - full < 0 ? full : current) + cost;
+                if (emptyAt.compareAndSet(current, next)) {
+                    return;
+                }
+            }
+        }
+    }
+}
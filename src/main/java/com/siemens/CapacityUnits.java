@@ -0,0 +1,137 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.core.utils.Pair;
+import com.alicloud.openservices.tablestore.model.*;
+
+/**
+ * 按TableStore的规则计算一次操作消耗的读写CU.
+ * <p>
+ * 数据大小是列名和列值的大小之和: 列名和STRING按UTF-8字节数, INTEGER和DOUBLE为8字节, BOOLEAN为1字节, BINARY按字节数,
+ * 时间戳不计入. 每4KB计1个CU, 不足4KB按4KB, 每次操作至少1个CU:
+ * PutRow按主键和写入的列计写CU; UpdateRow相同, 删除的列只计列名; DeleteRow按主键计写CU;
+ * 写操作带行存在性期望或者列条件时需要先读这一行, 额外按主键计读CU.
+ * GetRow, BatchGetRow和GetRange按返回的主键和列计读CU, 没有读到数据时计1个读CU.
+ * <p>
+ * 只遍历请求和响应中已有的对象, 不分配内存, 表内主键的大小由{@link EncodedPrimaryKey#dataSize}直接从编码中算出.
+ */
+final class CapacityUnits {
+
+    static final int UNIT_SIZE = 4 * 1024;
+
+    private CapacityUnits() {
+    }
+
+    /**
+     * @return 读写size字节消耗的CU, 至少为1
+     */
+    static int of(long size) {
+        return (int) Math.max(1, (size + UNIT_SIZE - 1) / UNIT_SIZE);
+    }
+
+    /**
+     * @return 写操作消耗的读写CU
+     */
+    static CapacityUnit write(RowChange rowChange) {
+        Condition condition = rowChange.getCondition();
+        boolean conditional = condition != null && (condition.getColumnCondition() != null
+                || (condition.getRowExistenceExpectation() != null
+                && condition.getRowExistenceExpectation() != RowExistenceExpectation.IGNORE));
+        return new CapacityUnit(conditional ? of(size(rowChange.getPrimaryKey())) : 0, of(size(rowChange)));
+    }
+
+    /**
+     * @return 行变更写入的数据大小
+     */
+    static long size(RowChange rowChange) {
+        long size = size(rowChange.getPrimaryKey());
+        if (rowChange instanceof RowPutChange) {
+            for (Column column : ((RowPutChange) rowChange).getColumnsToPut()) {
+                size += size(column);
+            }
+        } else if (rowChange instanceof RowUpdateChange) {
+            for (Pair<Column, RowUpdateChange.Type> column : ((RowUpdateChange) rowChange).getColumnsToUpdate()) {
+                size += column.getSecond() == RowUpdateChange.Type.PUT ? size(column.getFirst())
+                        : utf8Length(column.getFirst().getName());
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return 行的主键和所有列版本的大小, null为0
+     */
+    static long size(Row row) {
+        if (row == null) {
+            return 0;
+        }
+        long size = size(row.getPrimaryKey());
+        for (Column column : row.getColumns()) {
+            size += size(column);
+        }
+        return size;
+    }
+
+    static long size(PrimaryKey primaryKey) {
+        return size(primaryKey.getPrimaryKeyColumns());
+    }
+
+    static int size(PrimaryKeyColumn[] columns) {
+        int size = 0;
+        for (PrimaryKeyColumn column : columns) {
+            size += utf8Length(column.getName());
+            PrimaryKeyValue value = column.getValue();
+            if (value.isInfMin() || value.isInfMax() || value.isPlaceHolderForAutoIncr()) {
+                continue;
+            }
+            switch (value.getType()) {
+                case INTEGER:
+                    size += 8;
+                    break;
+                case STRING:
+                    size += utf8Length(value.asString());
+                    break;
+                default:
+                    size += value.asBinary().length;
+            }
+        }
+        return size;
+    }
+
+    static long size(Column column) {
+        return utf8Length(column.getName()) + size(column.getValue());
+    }
+
+    static int size(ColumnValue value) {
+        if (value.getType() == null) {
+            return 0;
+        }
+        switch (value.getType()) {
+            case INTEGER:
+            case DOUBLE:
+                return 8;
+            case BOOLEAN:
+                return 1;
+            case STRING:
+                return utf8Length(value.asString());
+            default:
+                return value.asBinary().length;
+        }
+    }
+
+    /**
+     * @return 字符串UTF-8编码后的字节数, 不做编码
+     */
+    static int utf8Length(String s) {
+        int length = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x800) {
+                // 代理对的两个char合起来是4字节, 其余是3字节
+                length += Character.isSurrogate(c) ? 1 : 2;
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+}
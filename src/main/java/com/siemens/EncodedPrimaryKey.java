@@ -0,0 +1,299 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.PrimaryKey;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyColumn;
+import com.alicloud.openservices.tablestore.model.PrimaryKeySchema;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyValue;
+import com.alicloud.openservices.tablestore.model.TableMeta;
+import com.google.common.primitives.UnsignedBytes;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 表内部使用的主键: 只有一份按字节可比较的编码, 预先算好的hash, 以及表结构中的主键列名.
+ * <p>
+ * 编码的无符号字节序与TableStore的主键顺序一致: 逐列比较, INF_MIN最小, INF_MAX最大, 类型不同时按INTEGER, STRING, BINARY排序,
+ * 短的主键排在它的延长之前. 每列是一个类型字节加值:
+ * INTEGER是翻转符号位的8字节大端; STRING(UTF-8)和BINARY中的0x00写成0x00 0xFF, 以0x00 0x01结束, 这样前缀一定排在前面.
+ * 只编码主键值, 不编码列名, 与PrimaryKeyComparator一样列名不参与比较, equals和hashCode也只看编码.
+ * <p>
+ * 存储层在入口处把请求中的主键编码一次, 之后跳表中的比较只是一次无符号字节比较, 分段也直接使用编码时算好的hash.
+ * 每行在堆上只有这个对象和一个字节数组, 不保留SDK的PrimaryKeyColumn和PrimaryKeyValue; 列名数组是整张表共用的,
+ * 只在放进响应时才用编码和列名还原出SDK的PrimaryKey({@link #toPrimaryKey}).
+ */
+final class EncodedPrimaryKey implements Comparable<EncodedPrimaryKey> {
+
+    static final String[] NO_NAMES = new String[0];
+
+    private static final byte INF_MIN = 0x00;
+    private static final byte AUTO_INCREMENT = 0x01;
+    private static final byte INTEGER = 0x02;
+    private static final byte STRING = 0x03;
+    private static final byte BINARY = 0x04;
+    private static final byte INF_MAX = (byte) 0xFF;
+
+    private static final Comparator<byte[]> BYTES = UnsignedBytes.lexicographicalComparator();
+
+    private final byte[] bytes;
+    private final int hash;
+
+    /**
+     * 每一列的列名, 与表结构一致时是表上共用的数组
+     */
+    private final String[] names;
+
+    private EncodedPrimaryKey(byte[] bytes, String[] names) {
+        this.bytes = bytes;
+        this.hash = Arrays.hashCode(bytes);
+        this.names = names;
+    }
+
+    /**
+     * @return 表结构中按顺序的主键列名, 作为这张表上所有主键共用的列名数组
+     */
+    static String[] names(TableMeta meta) {
+        List<PrimaryKeySchema> schemas = meta.getPrimaryKeyList();
+        String[] names = new String[schemas.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = schemas.get(i).getName();
+        }
+        return names;
+    }
+
+    /**
+     * @param schemaNames 表结构中的主键列名, 与主键的列名一致时直接引用它, 否则为这个主键单独保存列名
+     */
+    static EncodedPrimaryKey of(PrimaryKeyColumn[] columns, String[] schemaNames) {
+        return new EncodedPrimaryKey(encode(columns), names(columns, schemaNames));
+    }
+
+    /**
+     * 列名取自主键本身, 用于没有表结构的场合
+     */
+    static EncodedPrimaryKey of(PrimaryKey primaryKey) {
+        return of(primaryKey.getPrimaryKeyColumns(), NO_NAMES);
+    }
+
+    /**
+     * 按编码比较两个SDK的主键, 只编码不构造EncodedPrimaryKey
+     */
+    static int compare(PrimaryKey a, PrimaryKey b) {
+        return BYTES.compare(encode(a.getPrimaryKeyColumns()), encode(b.getPrimaryKeyColumns()));
+    }
+
+    private static String[] names(PrimaryKeyColumn[] columns, String[] schemaNames) {
+        if (columns.length == schemaNames.length) {
+            int i = 0;
+            while (i < columns.length && columns[i].getName().equals(schemaNames[i])) {
+                i++;
+            }
+            if (i == columns.length) {
+                return schemaNames;
+            }
+        }
+        String[] names = new String[columns.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = columns[i].getName();
+        }
+        return names;
+    }
+
+    private static byte[] encode(PrimaryKeyColumn[] columns) {
+        int size = 0;
+        for (PrimaryKeyColumn column : columns) {
+            size += 10;
+            PrimaryKeyValue value = column.getValue();
+            if (!value.isInfMin() && !value.isInfMax() && !value.isPlaceHolderForAutoIncr()) {
+                switch (value.getType()) {
+                    case STRING:
+                        size += value.asString().length() * 3;
+                        break;
+                    case BINARY:
+                        size += value.asBinary().length * 2;
+                        break;
+                    default:
+                }
+            }
+        }
+        byte[] output = new byte[size];
+        int position = 0;
+        for (PrimaryKeyColumn column : columns) {
+            PrimaryKeyValue value = column.getValue();
+            if (value.isInfMin()) {
+                output[position++] = INF_MIN;
+            } else if (value.isInfMax()) {
+                output[position++] = INF_MAX;
+            } else if (value.isPlaceHolderForAutoIncr()) {
+                output[position++] = AUTO_INCREMENT;
+            } else {
+                switch (value.getType()) {
+                    case INTEGER:
+                        output[position++] = INTEGER;
+                        long sortable = value.asLong() ^ Long.MIN_VALUE;
+                        for (int shift = 56; shift >= 0; shift -= 8) {
+                            output[position++] = (byte) (sortable >>> shift);
+                        }
+                        break;
+                    case STRING:
+                        output[position++] = STRING;
+                        position = putEscaped(output, position, value.asString().getBytes(StandardCharsets.UTF_8));
+                        break;
+                    default:
+                        output[position++] = BINARY;
+                        position = putEscaped(output, position, value.asBinary());
+                }
+            }
+        }
+        return position == output.length ? output : Arrays.copyOf(output, position);
+    }
+
+    private static int putEscaped(byte[] output, int position, byte[] value) {
+        for (byte b : value) {
+            output[position++] = b;
+            if (b == 0) {
+                output[position++] = (byte) 0xFF;
+            }
+        }
+        output[position++] = 0x00;
+        output[position++] = 0x01;
+        return position;
+    }
+
+    /**
+     * @return 从position开始的转义值的结束标记0x00 0x01的位置
+     */
+    private int terminator(int position) {
+        while (bytes[position] != 0 || bytes[position + 1] != 0x01) {
+            position += bytes[position] == 0 ? 2 : 1;
+        }
+        return position;
+    }
+
+    /**
+     * @return [from, to)中转义的值还原后的字节
+     */
+    private byte[] unescape(int from, int to) {
+        byte[] value = new byte[unescapedLength(from, to)];
+        for (int i = from, j = 0; i < to; i++) {
+            value[j++] = bytes[i];
+            if (bytes[i] == 0) {
+                i++;
+            }
+        }
+        return value;
+    }
+
+    private int unescapedLength(int from, int to) {
+        int length = to - from;
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == 0) {
+                length--;
+                i++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return 用编码和列名还原出的SDK主键, 每次调用都构造新的对象, 只在放进响应或者写入文件时使用
+     */
+    PrimaryKey toPrimaryKey() {
+        PrimaryKeyColumn[] columns = new PrimaryKeyColumn[names.length];
+        int position = 0;
+        for (int i = 0; i < columns.length; i++) {
+            PrimaryKeyValue value;
+            switch (bytes[position++]) {
+                case INF_MIN:
+                    value = PrimaryKeyValue.INF_MIN;
+                    break;
+                case INF_MAX:
+                    value = PrimaryKeyValue.INF_MAX;
+                    break;
+                case AUTO_INCREMENT:
+                    value = PrimaryKeyValue.AUTO_INCREMENT;
+                    break;
+                case INTEGER:
+                    long sortable = 0;
+                    for (int j = 0; j < 8; j++) {
+                        sortable = (sortable << 8) | (bytes[position++] & 0xFF);
+                    }
+                    value = PrimaryKeyValue.fromLong(sortable ^ Long.MIN_VALUE);
+                    break;
+                default:
+                    int end = terminator(position);
+                    byte[] raw = unescape(position, end);
+                    value = bytes[position - 1] == STRING
+                            ? PrimaryKeyValue.fromString(new String(raw, StandardCharsets.UTF_8))
+                            : PrimaryKeyValue.fromBinary(raw);
+                    position = end + 2;
+            }
+            columns[i] = new PrimaryKeyColumn(names[i], value);
+        }
+        return new PrimaryKey(columns);
+    }
+
+    /**
+     * @return 主键列数
+     */
+    int size() {
+        return names.length;
+    }
+
+    String nameAt(int index) {
+        return names[index];
+    }
+
+    /**
+     * @return 主键列名和值的大小之和, 见{@link CapacityUnits}, 直接从编码中算出
+     */
+    int dataSize() {
+        int size = 0;
+        int position = 0;
+        for (String name : names) {
+            size += CapacityUnits.utf8Length(name);
+            byte type = bytes[position++];
+            if (type == INTEGER) {
+                size += 8;
+                position += 8;
+            } else if (type == STRING || type == BINARY) {
+                int end = terminator(position);
+                size += unescapedLength(position, end);
+                position = end + 2;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public int compareTo(EncodedPrimaryKey other) {
+        return BYTES.compare(bytes, other.bytes);
+    }
+
+    /**
+     * @return 只由主键值决定的hash, 与PrimaryKeyComparator认为相等的主键hash相同
+     */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof EncodedPrimaryKey)) {
+            return false;
+        }
+        EncodedPrimaryKey other = (EncodedPrimaryKey) o;
+        return hash == other.hash && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public String toString() {
+        return toPrimaryKey().toString();
+    }
+}
@@ -1,21 +1,542 @@
 package com.siemens;
 
 import com.alicloud.openservices.tablestore.model.*;
+import com.google.common.collect.Iterators;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
 
 
 public class InMemoryTableInstance {
 
-    Map<PrimaryKey, Row> dataInstance = new HashMap<>();
+    /**
+     * 锁分段数, 必须是2的幂, 不能超过64(snapshot用一个long记录涉及的分段)
+     */
+    static final int LOCK_STRIPES = 64;
 
+    private static final SecondaryIndex[] NO_INDEXES = new SecondaryIndex[0];
 
-    Map<PrimaryKey, Row> getDataInstance() {
+    /**
+     * 按主键顺序存放每一行的当前版本, getRange直接在上面取子视图, 不需要每次排序.
+     * 批量加载时整体替换, 写者都在分段锁内访问, 替换时持有所有分段锁
+     */
+    volatile ConcurrentNavigableMap<EncodedPrimaryKey, RowVersion> rows = new ConcurrentSkipListMap<>();
+
+    /**
+     * 以SDK主键访问的只读视图, 迭代时才还原主键, 用于测试和调试
+     */
+    final Map<PrimaryKey, RowVersion> dataInstance = new PrimaryKeyView();
+
+    /**
+     * 表结构中的主键列名, 这张表上编码的主键共用这个数组
+     */
+    volatile String[] primaryKeyNames = EncodedPrimaryKey.NO_NAMES;
+
+    /**
+     * 按主键hash分段的写锁, 只用于串行化同一分段上的写操作, 读操作不加锁
+     */
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+
+    /**
+     * 每个分段上插入和删除行的次数, 在分段锁内发布之后增加, 整表替换时所有分段都增加.
+     * 更新已有的行不修改它, snapshot用它发现两次都读不到的行在中间出现过
+     */
+    private final AtomicLongArray membership = new AtomicLongArray(LOCK_STRIPES);
+
+    /**
+     * 建表时指定的选项
+     */
+    volatile TableOptions tableOptions = new TableOptions();
+    volatile ReservedThroughput reservedThroughput = new ReservedThroughput();
+
+    /**
+     * 按tableOptions中的timeToLive和maxVersions过滤版本
+     */
+    volatile VersionRetention retention = VersionRetention.UNLIMITED;
+
+    /**
+     * 自增主键列的取值, 表没有自增列时为null
+     */
+    volatile AutoIncrementSequence autoIncrement;
+
+    /**
+     * 按reservedThroughput限流的令牌桶, 只在开启限流时使用
+     */
+    volatile CapacityThrottle throttle = CapacityThrottle.UNLIMITED;
+
+    /**
+     * 这张表上的二级索引, 每次发布新版本时同步更新, 整表替换时重新构造. 只在持有所有分段锁时替换
+     */
+    volatile SecondaryIndex[] indexes = NO_INDEXES;
+
+    /**
+     * 这张表是二级索引表时为对应的索引, 索引表只能由主表的写入更新, 不能直接写入
+     */
+    volatile SecondaryIndex secondaryIndex;
+
+    /**
+     * 行数和数据量, 每次发布新版本时增量维护, 整表替换时重新统计
+     */
+    private final LongAdder rowCount = new LongAdder();
+    private final LongAdder dataBytes = new LongAdder();
+
+    /**
+     * 主键抽样, 插入新行时更新, 整表替换时重新抽样
+     */
+    volatile KeySample keySample = new KeySample();
+
+    /**
+     * 没能立即拿到分段锁时的等待时间
+     */
+    final LatencyHistogram lockWait = new LatencyHistogram();
+
+    public InMemoryTableInstance() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @param rows 直接作为表的存储
+     */
+    InMemoryTableInstance(ConcurrentNavigableMap<EncodedPrimaryKey, RowVersion> rows) {
+        this();
+        this.rows = rows;
+        apply(new Replacement(rows, NO_INDEXES));
+    }
+
+    void setTableOptions(TableOptions tableOptions) {
+        this.tableOptions = tableOptions;
+        this.retention = VersionRetention.of(tableOptions);
+    }
+
+    void setReservedThroughput(ReservedThroughput reservedThroughput) {
+        this.reservedThroughput = reservedThroughput;
+        this.throttle = CapacityThrottle.of(reservedThroughput);
+    }
+
+    /**
+     * @return 按主键排序的所有行, 弱一致的只读视图, getRange和快照在上面迭代
+     */
+    NavigableMap<EncodedPrimaryKey, RowVersion> getRows() {
+        return rows;
+    }
+
+    /**
+     * @return 以SDK主键访问的只读视图, 见{@link #dataInstance}
+     */
+    Map<PrimaryKey, RowVersion> getDataInstance() {
         return dataInstance;
     }
 
-    void clear(){
-        dataInstance.clear();
+    /**
+     * @return 按这张表的主键列名编码的主键
+     */
+    EncodedPrimaryKey key(PrimaryKey primaryKey) {
+        return key(primaryKey.getPrimaryKeyColumns());
+    }
+
+    EncodedPrimaryKey key(PrimaryKeyColumn[] columns) {
+        return EncodedPrimaryKey.of(columns, primaryKeyNames);
+    }
+
+    /**
+     * @param primaryKey 行主键
+     * @return 该行当前的版本, 不存在时返回null
+     */
+    RowVersion get(PrimaryKey primaryKey) {
+        return get(key(primaryKey));
+    }
+
+    RowVersion get(EncodedPrimaryKey primaryKey) {
+        return rows.get(primaryKey);
+    }
+
+    /**
+     * @param version 存储中的版本, 可以为null
+     * @return 去掉过期和超出maxVersions的版本之后的行, 整行都不可见时返回null
+     */
+    RowVersion visible(RowVersion version) {
+        VersionRetention retention = this.retention;
+        return retention.isUnlimited() ? version : retention.visible(version, System.currentTimeMillis());
+    }
+
+    /**
+     * 把mutation计算出的新版本发布出去. 调用方必须持有该行的分段锁: 同一行的写操作由分段锁串行化,
+     * 这里直接读当前版本再写入, 不需要CAS重试; 读操作不加锁, 总是读到某个完整发布的版本.
+     * mutation只调用一次, 返回null表示删除该行, 返回原对象表示不修改.
+     *
+     * @param primaryKey 行主键, 新版本也应该使用同一个主键对象
+     * @param mutation   当前版本(不存在时为null) -> 新版本
+     * @return 发布的新版本
+     */
+    RowVersion compute(EncodedPrimaryKey primaryKey, UnaryOperator<RowVersion> mutation) {
+        ConcurrentNavigableMap<EncodedPrimaryKey, RowVersion> rows = this.rows;
+        RowVersion current = rows.get(primaryKey);
+        RowVersion next = mutation.apply(current);
+        if (next == current) {
+            return current;
+        }
+        if (next == null) {
+            rows.remove(primaryKey);
+        } else {
+            rows.put(primaryKey, next);
+        }
+        published(current, next);
+        return next;
+    }
+
+    /**
+     * 更新行数和数据量, 主键抽样以及二级索引, 调用方持有该行的分段锁
+     */
+    final void published(RowVersion current, RowVersion next) {
+        if ((current == null) != (next == null)) {
+            membership.incrementAndGet(stripe((current == null ? next : current).getPrimaryKey()));
+        }
+        if (current == null) {
+            rowCount.increment();
+            if (next != null) {
+                keySample.add(stripe(next.getPrimaryKey()), next.getPrimaryKey(), next.dataSize());
+            }
+        } else {
+            dataBytes.add(-current.dataSize());
+        }
+        if (next == null) {
+            rowCount.decrement();
+        } else {
+            dataBytes.add(next.dataSize());
+        }
+        for (SecondaryIndex index : indexes) {
+            index.update(current, next);
+        }
+    }
+
+    /**
+     * 整表替换的新数据, 以及在锁外预先算好的行数, 数据量, 主键抽样和每个二级索引的新数据
+     */
+    static class Replacement {
+
+        /**
+         * 按主键升序的新数据; 堆上的表直接用它作为存储, 由{@link #prepare}保证是ConcurrentNavigableMap
+         */
+        final SortedMap<EncodedPrimaryKey, RowVersion> data;
+        final long rows;
+        final long bytes;
+        final KeySample keySample = new KeySample();
+
+        /**
+         * 准备时表上的二级索引和对应的新数据, 持锁时索引已经变化的按当时的索引补算
+         */
+        final SecondaryIndex[] indexes;
+        final Replacement[] indexData;
+
+        Replacement(SortedMap<EncodedPrimaryKey, RowVersion> data, SecondaryIndex[] indexes) {
+            this.data = data;
+            long rows = 0;
+            long bytes = 0;
+            for (Map.Entry<EncodedPrimaryKey, RowVersion> entry : data.entrySet()) {
+                rows++;
+                bytes += entry.getValue().dataSize();
+                keySample.add(stripe(entry.getKey()), entry.getKey(), entry.getValue().dataSize());
+            }
+            this.rows = rows;
+            this.bytes = bytes;
+            this.indexes = indexes;
+            this.indexData = new Replacement[indexes.length];
+            for (int i = 0; i < indexes.length; i++) {
+                indexData[i] = indexes[i].prepare(data);
+            }
+        }
+
+        Replacement indexData(SecondaryIndex index) {
+            for (int i = 0; i < indexes.length; i++) {
+                if (indexes[i] == index) {
+                    return indexData[i];
+                }
+            }
+            return index.prepare(data);
+        }
+    }
+
+    /**
+     * 不加锁地为整表替换做准备, 遍历新数据统计并构造二级索引的新数据, 耗时与表的大小成正比.
+     * 新数据不是ConcurrentNavigableMap时(批量加载和快照的{@link SortedRows})按有序输入O(n)建跳表
+     */
+    Replacement prepare(SortedMap<EncodedPrimaryKey, RowVersion> data) {
+        return new Replacement(data instanceof ConcurrentNavigableMap ? data : new ConcurrentSkipListMap<>(data), indexes);
+    }
+
+    /**
+     * 换上准备好的数据, 调用方持有所有分段锁
+     */
+    void install(Replacement replacement) {
+        rows = (ConcurrentNavigableMap<EncodedPrimaryKey, RowVersion>) replacement.data;
+        apply(replacement);
+    }
+
+    /**
+     * 换上准备好的统计和抽样, 并替换每个二级索引表的数据; 先持有主表的分段锁再获取索引表的分段锁.
+     * 调用方持有所有分段锁或者表还没有发布
+     */
+    final void apply(Replacement replacement) {
+        keySample = replacement.keySample;
+        rowCount.reset();
+        rowCount.add(replacement.rows);
+        dataBytes.reset();
+        dataBytes.add(replacement.bytes);
+        for (SecondaryIndex index : indexes) {
+            index.table.replace(replacement.indexData(index));
+        }
+    }
+
+    /**
+     * 添加一个二级索引, 持有所有分段锁, 之前开始的写操作都已经结束, 之后的写操作都会更新索引
+     *
+     * @param backfill 是否用现有的数据构造索引; 从快照加载时索引表已经有数据, 不需要回填
+     */
+    void addIndex(SecondaryIndex index, boolean backfill) {
+        lockAll();
+        try {
+            if (backfill) {
+                index.rebuild(getRows());
+            }
+            SecondaryIndex[] current = indexes;
+            SecondaryIndex[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = index;
+            indexes = updated;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    void removeIndex(SecondaryIndex index) {
+        lockAll();
+        try {
+            List<SecondaryIndex> updated = new ArrayList<>(Arrays.asList(indexes));
+            updated.remove(index);
+            indexes = updated.toArray(NO_INDEXES);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    long rowCount() {
+        return rowCount.sum();
+    }
+
+    /**
+     * @return 所有行的数据大小之和, 见{@link RowVersion#dataSize()}
+     */
+    long dataBytes() {
+        return dataBytes.sum();
+    }
+
+    /**
+     * 获取分段锁, 没能立即拿到时记录等待时间. 没有竞争时只是一次tryLock
+     */
+    final void lock(Lock lock) {
+        if (!lock.tryLock()) {
+            long start = System.nanoTime();
+            lock.lock();
+            lockWait.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param primaryKey 行主键
+     * @return 该行所在分段的写锁
+     */
+    Lock lockFor(EncodedPrimaryKey primaryKey) {
+        return lockAt(stripe(primaryKey));
+    }
+
+    /**
+     * @param stripe {@link #stripe(EncodedPrimaryKey)}的返回值
+     * @return 该分段的写锁
+     */
+    Lock lockAt(int stripe) {
+        return locks[stripe];
+    }
+
+    /**
+     * 只用主键值的编码计算分段, 与PrimaryKeyComparator认为相等的主键一定落在同一个分段
+     */
+    static int stripe(EncodedPrimaryKey primaryKey) {
+        int hash = primaryKey.hashCode();
+        hash ^= (hash >>> 16);
+        return hash & (LOCK_STRIPES - 1);
+    }
+
+    /**
+     * 读取一组行在同一时刻的版本, 不会读到一个写请求之前的一行和之后的另一行.
+     * 先不加锁读一遍每行发布的引用, 再读一遍比较: 每次写入都发布新的对象, 引用都没变并且涉及的分段上没有插入和删除时,
+     * 两遍之间这些行都没有被写过, 第一遍读完时就是一个一致的快照. 有变化时才按分段号升序获取涉及的所有分段写锁,
+     * 全部持有后一次性读完再释放. 写者在一张表上一次只持有一个分段锁, 更新二级索引时在持有主表分段锁的情况下再获取索引表的分段锁,
+     * 加锁顺序总是先主表后索引表; 读者只在一张表上按升序加锁, 不会与写者形成环, 不会死锁. 持锁期间只做跳表查找, 投影在锁外进行.
+     *
+     * @param primaryKeys 行主键
+     * @return 与primaryKeys一一对应的版本, 不存在的行为null
+     */
+    RowVersion[] snapshot(List<PrimaryKey> primaryKeys) {
+        EncodedPrimaryKey[] keys = new EncodedPrimaryKey[primaryKeys.size()];
+        long stripeMask = 0;
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = key(primaryKeys.get(i));
+            stripeMask |= 1L << stripe(keys[i]);
+        }
+        long[] stamps = new long[Long.bitCount(stripeMask)];
+        int s = 0;
+        for (long mask = stripeMask; mask != 0; mask &= mask - 1) {
+            stamps[s++] = membership.get(Long.numberOfTrailingZeros(mask));
+        }
+        Object[] references = new Object[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            references[i] = reference(keys[i]);
+        }
+        boolean unchanged = true;
+        for (int i = 0; i < keys.length && unchanged; i++) {
+            unchanged = reference(keys[i]) == references[i];
+        }
+        s = 0;
+        for (long mask = stripeMask; mask != 0 && unchanged; mask &= mask - 1) {
+            unchanged = membership.get(Long.numberOfTrailingZeros(mask)) == stamps[s++];
+        }
+        if (!unchanged) {
+            return lockedSnapshot(keys, stripeMask);
+        }
+        RowVersion[] versions = new RowVersion[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            versions[i] = version(keys[i], references[i]);
+        }
+        return versions;
+    }
+
+    /**
+     * @return 该行当前发布的引用, 每次写入都换成新的对象, 不存在时为null
+     */
+    Object reference(EncodedPrimaryKey primaryKey) {
+        return rows.get(primaryKey);
+    }
+
+    /**
+     * @param reference {@link #reference}的返回值
+     * @return 这个引用对应的版本
+     */
+    RowVersion version(EncodedPrimaryKey primaryKey, Object reference) {
+        return (RowVersion) reference;
+    }
+
+    /**
+     * 持有keys涉及的所有分段锁读取, 见{@link #snapshot}
+     */
+    private RowVersion[] lockedSnapshot(EncodedPrimaryKey[] keys, long stripeMask) {
+        RowVersion[] versions = new RowVersion[keys.length];
+        int locked = 0;
+        try {
+            for (long mask = stripeMask; mask != 0; mask &= mask - 1) {
+                lock(locks[Long.numberOfTrailingZeros(mask)]);
+                locked++;
+            }
+            for (int i = 0; i < versions.length; i++) {
+                versions[i] = get(keys[i]);
+            }
+        } finally {
+            for (long mask = stripeMask; locked > 0; mask &= mask - 1, locked--) {
+                locks[Long.numberOfTrailingZeros(mask)].unlock();
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * 按分段号升序获取所有分段写锁, 持有期间该表没有任何写入
+     */
+    void lockAll() {
+        for (Lock lock : locks) {
+            lock.lock();
+        }
+    }
+
+    void unlockAll() {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    /**
+     * 用另外构造好的数据替换整个表. 统计, 抽样和二级索引在锁外先准备好, 只在持有所有分段锁时交换引用,
+     * 替换之前开始的写操作都已经结束, 之后的写操作都作用在新数据上; 正在进行的读操作继续读旧数据.
+     * 准备期间的写入作用在旧数据上, 替换后丢失, 与替换前完成的写入一样
+     */
+    final void replaceData(SortedMap<EncodedPrimaryKey, RowVersion> data) {
+        replace(prepare(data));
+    }
+
+    final void replace(Replacement replacement) {
+        lockAll();
+        try {
+            install(replacement);
+            for (int i = 0; i < LOCK_STRIPES; i++) {
+                membership.incrementAndGet(i);
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    void clear() {
+        replaceData(new ConcurrentSkipListMap<>());
+    }
+
+    /**
+     * 按SDK主键查找和迭代当前的数据, 每次都读取当前的存储, 整表替换之后看到的是新数据
+     */
+    private final class PrimaryKeyView extends AbstractMap<PrimaryKey, RowVersion> {
+
+        @Override
+        public RowVersion get(Object key) {
+            return key instanceof PrimaryKey ? InMemoryTableInstance.this.get((PrimaryKey) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return getRows().size();
+        }
+
+        @Override
+        public Set<Entry<PrimaryKey, RowVersion>> entrySet() {
+            return new AbstractSet<Entry<PrimaryKey, RowVersion>>() {
+                @Override
+                public Iterator<Entry<PrimaryKey, RowVersion>> iterator() {
+                    return Iterators.transform(getRows().entrySet().iterator(),
+                            entry -> new SimpleImmutableEntry<>(entry.getKey().toPrimaryKey(), entry.getValue()));
+                }
+
+                @Override
+                public int size() {
+                    return PrimaryKeyView.this.size();
+                }
+            };
+        }
     }
 }
@@ -6,20 +6,66 @@ import com.alicloud.openservices.tablestore.core.utils.Pair;
 import com.alicloud.openservices.tablestore.core.utils.Preconditions;
 import com.alicloud.openservices.tablestore.model.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 public class InMemoryTableInstanceManager {
 
-    Map<String, InMemoryTableInstance> inMemoryTableInstanceMap = new HashMap<>();
+    Map<String, InMemoryTableInstance> inMemoryTableInstanceMap = new ConcurrentHashMap<>();
+
+    /**
+     * 预写日志, 为null时不持久化
+     */
+    volatile WriteAheadLog writeAheadLog;
+
+    private static final ThreadLocal<BinaryCodec.Output> LOG_BUFFER = ThreadLocal.withInitial(() -> new BinaryCodec.Output(256));
+
+    /**
+     * 之后创建的表的存放方式
+     */
+    volatile StorageMode storageMode = StorageMode.HEAP;
+
+    /**
+     * 为true时按每张表的ReservedThroughput限流, 见{@link CapacityThrottle}
+     */
+    volatile boolean throttling;
+
+    final StoreMetrics metrics = new StoreMetrics(inMemoryTableInstanceMap);
+
+    /**
+     * 回收过期和超出maxVersions的版本, 第一张设置了这两个选项的表创建时才启动
+     */
+    final RetentionCompactor compactor = new RetentionCompactor(inMemoryTableInstanceMap,
+            metrics.operation(RetentionCompactor.OPERATION));
+
+    private final StoreMetrics.Operation putRowMetrics = metrics.operation("putRow");
+    private final StoreMetrics.Operation updateRowMetrics = metrics.operation("updateRow");
+    private final StoreMetrics.Operation deleteRowMetrics = metrics.operation("deleteRow");
+    private final StoreMetrics.Operation getRowMetrics = metrics.operation("getRow");
+    private final StoreMetrics.Operation getRangeMetrics = metrics.operation("getRange");
+    private final StoreMetrics.Operation batchWriteRowMetrics = metrics.operation("batchWriteRow");
+    private final StoreMetrics.Operation batchGetRowMetrics = metrics.operation("batchGetRow");
 
     public void addInstance(String tableName){
-        inMemoryTableInstanceMap.put(tableName, new InMemoryTableInstance());
+        inMemoryTableInstanceMap.put(tableName, newInstance());
+    }
+
+    InMemoryTableInstance newInstance() {
+        return storageMode == StorageMode.OFF_HEAP ? new OffHeapTableInstance() : new InMemoryTableInstance();
+    }
+
+    void addInstance(String tableName, InMemoryTableInstance instance){
+        inMemoryTableInstanceMap.put(tableName, instance);
     }
 
     public InMemoryTableInstance getInstance(String tableName){
@@ -40,151 +86,430 @@ public class InMemoryTableInstanceManager {
         this.inMemoryTableInstanceMap.clear();
     }
 
+    /**
+     * @param tableName 表名
+     * @return 表对应的内存实例
+     * @throws TableStoreException 表不存在
+     */
+    InMemoryTableInstance getTable(String tableName) {
+        InMemoryTableInstance memoryStore = inMemoryTableInstanceMap.get(tableName);
+        if (memoryStore == null) {
+            throw new TableStoreException("Requested table does not exist.", null, "OTSObjectNotExist", "0", 404);
+        }
+        return memoryStore;
+    }
+
+    /**
+     * @param tableName 表名
+     * @return 表对应的内存实例
+     * @throws TableStoreException 表不存在, 或者是二级索引表(OTSParameterInvalid), 索引表只能由主表的写入更新
+     */
+    InMemoryTableInstance getWritableTable(String tableName) {
+        InMemoryTableInstance memoryStore = getTable(tableName);
+        if (memoryStore.secondaryIndex != null) {
+            throw new TableStoreException("Can not write to the index table " + tableName + " directly.", null,
+                    "OTSParameterInvalid", "0", 400);
+        }
+        return memoryStore;
+    }
 
-    private Lock lock = new ReentrantLock();
     /**
      * 无条件更新, 如果该列不存在，则创建该列
      * RowUpdateChange put row into InMemoryTableStore
+     * 所有的列变更一次性作用在当前版本上, 生成新版本后在分段锁内发布
      *
      * @param updateRowRequest
      * @return
      */
     public UpdateRowResponse noConditionUpdateRow(UpdateRowRequest updateRowRequest) {
+        return updateRow((RowUpdateChange) updateRowRequest.getRowChange(), RowCondition.IGNORE);
+    }
+
+    /**
+     * 条件更新, 在该行的分段写锁内检查RowExistenceExpectation和ColumnCondition, 检查和写入是原子的
+     *
+     * @param updateRowRequest
+     * @return
+     * @throws TableStoreException 条件检查失败时错误码为OTSConditionCheckFail
+     */
+    public UpdateRowResponse updateRow(UpdateRowRequest updateRowRequest) {
         RowUpdateChange rowUpdate = (RowUpdateChange) updateRowRequest.getRowChange();
-        PrimaryKey primaryKey = rowUpdate.getPrimaryKey();
-        String tableName = rowUpdate.getTableName();
+        return updateRow(rowUpdate, RowCondition.of(rowUpdate.getCondition()));
+    }
+
+    private UpdateRowResponse updateRow(RowUpdateChange rowUpdate, RowCondition condition) {
+        long start = updateRowMetrics.start();
         try {
-            lock.lock();
-            InMemoryTableInstance memoryStore = inMemoryTableInstanceMap.get(tableName);
-            Map<PrimaryKey, Row> dataInstance = memoryStore.getDataInstance();
-            if (!dataInstance.containsKey(primaryKey)) {
-                return new UpdateRowResponse(new Response(), null, new ConsumedCapacity(
-                        new CapacityUnit()
-                ));
-            }
+            CapacityUnit consumed = CapacityUnits.write(rowUpdate);
+            RowVersion updated = write(rowUpdate, condition, consumed);
+            return new UpdateRowResponse(new Response(), updated == null ? null : updated.getRow(),
+                    new ConsumedCapacity(consumed));
+        } catch (RuntimeException e) {
+            updateRowMetrics.failed();
+            throw e;
+        } finally {
+            updateRowMetrics.record(start);
+        }
+    }
 
-            for (Pair<Column, RowUpdateChange.Type> columnTypePair : rowUpdate.getColumnsToUpdate()) {
-                RowUpdateChange.Type type = columnTypePair.getSecond();
-                Column columnTarget = columnTypePair.getFirst();
-                switch (type) {
-                    case DELETE_ALL:
-                        Row row = dataInstance.get(primaryKey);
-                        List<Column> columnsToExclude = row.getColumn(columnTarget.getName());
-                        List<Column> remainColumns = getFilterColumns(row.getColumns(), columnsToExclude.toArray(new Column[0]));
-                        dataInstance.put(primaryKey, new Row(primaryKey, remainColumns));
-                        break;
-                    case DELETE:
-                        row = dataInstance.get(primaryKey);
-                        remainColumns = Arrays.stream(row.getColumns()).filter(
-                                x -> !x.getName().equals(columnTarget.getName()) &&
-                                        !(x.getTimestamp() == columnTarget.getTimestamp())).collect(Collectors.toList());
-                        dataInstance.put(primaryKey, new Row(primaryKey, remainColumns));
-                        break;
-                    case PUT:
-                        row = dataInstance.get(primaryKey);
-                        List<Column> columns = row.getColumn(columnTarget.getName());
-                        if(!columnTarget.hasSetTimestamp()){ //没有设置时间戳表示更新最新时间戳的数据
-                            Column latestColumn = row.getLatestColumn(columnTarget.getName());
-                            if(row.getLatestColumn(columnTarget.getName()) != null){
-                                List<Column> remains = getFilterColumns(row.getColumns(), new Column[]{latestColumn});
-                                remains.add(new Column(columnTarget.getName(), columnTarget.getValue(),
-                                        columnTarget.hasSetTimestamp()?columnTarget.getTimestamp(): System.nanoTime()));
-                                dataInstance.put(primaryKey, new Row(primaryKey, remains));
-                            }
-                        }
-                        else {
-
-                            columns.stream().filter(x -> x.getTimestamp() == columnTarget.getTimestamp() && x.getName().equals(columnTarget.getName())).findFirst().ifPresent(
-                                    x -> {
-                                        List<Column> remains = getFilterColumns(row.getColumns(), new Column[]{x});
-                                        remains.add(new Column(columnTarget.getName(), columnTarget.getValue(),
-                                                columnTarget.hasSetTimestamp() ? columnTarget.getTimestamp() : System.nanoTime()));
-                                        dataInstance.put(primaryKey, new Row(primaryKey, remains));
-                                    }
-                            );
-                        }
-                        break;
-                }
+    /**
+     * 在当前版本的列索引上依次执行更新, 只生成一个新版本. 每个列操作都是O(log v)的查找
+     */
+    private RowVersion applyUpdate(RowVersion current, RowUpdateChange rowUpdate, long timestamp) {
+        RowVersion.Builder builder = current.toBuilder();
+        for (Pair<Column, RowUpdateChange.Type> columnTypePair : rowUpdate.getColumnsToUpdate()) {
+            Column columnTarget = columnTypePair.getFirst();
+            switch (columnTypePair.getSecond()) {
+                case DELETE_ALL:
+                    builder.deleteAll(columnTarget.getName());
+                    break;
+                case DELETE:
+                    builder.delete(columnTarget.getName(), columnTarget.getTimestamp());
+                    break;
+                case PUT:
+                    if (!columnTarget.hasSetTimestamp()) { //没有设置时间戳表示更新最新时间戳的数据
+                        builder.putLatest(columnTarget.getName(), columnTarget.getValue(), timestamp);
+                    } else {
+                        builder.put(columnTarget);
+                    }
+                    break;
             }
-            return new UpdateRowResponse(new Response(), dataInstance.get(primaryKey), new ConsumedCapacity(
-                    new CapacityUnit()));
-
-        } finally {
-            lock.unlock();
         }
+        return builder.build();
     }
 
 
     /**
      * 简易版无条件插入
      * RowPutChange put row into InMemoryTableStore
+     * 已存在的行追加新的列版本(相同时间戳的版本被覆盖), 新的列集合只构造一次
      *
      * @param putRowRequest
      * @return
      */
     public PutRowResponse noConditionPutRow(PutRowRequest putRowRequest) {
+        return putRow((RowPutChange) putRowRequest.getRowChange(), RowCondition.IGNORE);
+    }
+
+    /**
+     * 条件插入, 在该行的分段写锁内检查RowExistenceExpectation和ColumnCondition, 检查和写入是原子的
+     *
+     * @param putRowRequest
+     * @return
+     * @throws TableStoreException 条件检查失败时错误码为OTSConditionCheckFail
+     */
+    public PutRowResponse putRow(PutRowRequest putRowRequest) {
         RowPutChange rowChange = (RowPutChange) putRowRequest.getRowChange();
-        PrimaryKey primaryKey = rowChange.getPrimaryKey();
-        String tableName = rowChange.getTableName();
+        return putRow(rowChange, RowCondition.of(rowChange.getCondition()));
+    }
+
+    private PutRowResponse putRow(RowPutChange rowChange, RowCondition condition) {
+        long start = putRowMetrics.start();
         try {
-            lock.lock();
-            InMemoryTableInstance memoryStore = inMemoryTableInstanceMap.get(tableName);
-            Map<PrimaryKey, Row> dataInstance = memoryStore.getDataInstance();
-            if (!dataInstance.containsKey(primaryKey)) {
-                List<Column> columnWithTimestamp = withTimestamp(rowChange, System.nanoTime());
-                Row row = new Row(primaryKey, columnWithTimestamp);
-
-                dataInstance.put(primaryKey, row);
-                return new PutRowResponse(new Response(), dataInstance.get(primaryKey), new ConsumedCapacity(
-                        new CapacityUnit()
-                ));
-            } else {
-                List<Column> columnWithTimestamp = withTimestamp(rowChange, System.nanoTime());
-                Row oldRow = dataInstance.get(primaryKey);
-
-                for (Column column : columnWithTimestamp) {
-                    //copy on write
-                    Column[] columns = oldRow.getColumns();
-                    int len = columns.length;
-                    Column[] newElements = Arrays.copyOf(columns, len + 1);
-                    newElements[len] = column;
-                    dataInstance.put(primaryKey, new Row(primaryKey, newElements));
-                }
-                return new PutRowResponse(new Response(), dataInstance.get(primaryKey), new ConsumedCapacity(
-                        new CapacityUnit()
-                ));
-            }
+            CapacityUnit consumed = CapacityUnits.write(rowChange);
+            RowVersion put = write(rowChange, condition, consumed);
+            return new PutRowResponse(new Response(), put == null ? null : put.getRow(), new ConsumedCapacity(consumed));
+        } catch (RuntimeException e) {
+            putRowMetrics.failed();
+            throw e;
+        } finally {
+            putRowMetrics.record(start);
         }
-        finally {
+    }
+
+
+    /**
+     * 删除一行, 在该行的分段写锁内检查条件后直接把行从跳表中摘除, 不留墓碑, 内存立即可以回收.
+     * 正在读该行的请求持有的是不可变的旧版本, 正在迭代的getRange子视图是弱一致的, 都不会受影响.
+     *
+     * @param deleteRowRequest
+     * @return
+     * @throws TableStoreException 条件检查失败时错误码为OTSConditionCheckFail
+     */
+    public DeleteRowResponse deleteRow(DeleteRowRequest deleteRowRequest) {
+        RowDeleteChange rowDelete = deleteRowRequest.getRowChange();
+        return deleteRow(rowDelete, RowCondition.of(rowDelete.getCondition()));
+    }
+
+    private DeleteRowResponse deleteRow(RowDeleteChange rowDelete, RowCondition condition) {
+        long start = deleteRowMetrics.start();
+        try {
+            CapacityUnit consumed = CapacityUnits.write(rowDelete);
+            write(rowDelete, condition, consumed);
+            return new DeleteRowResponse(new Response(), null, new ConsumedCapacity(consumed));
+        } catch (RuntimeException e) {
+            deleteRowMetrics.failed();
+            throw e;
+        } finally {
+            deleteRowMetrics.record(start);
+        }
+    }
+
+    /**
+     * 单行写入: 限流检查通过后获取该行的分段写锁执行行变更, 释放锁之后等待预写日志落盘
+     *
+     * @param consumed 这次写入消耗的CU
+     * @throws TableStoreException 超过预留吞吐量时错误码为OTSCapacityUnitExhausted
+     */
+    private RowVersion write(RowChange rowChange, RowCondition condition, CapacityUnit consumed) {
+        InMemoryTableInstance memoryStore = getWritableTable(rowChange.getTableName());
+        throttle(memoryStore).acquireWrite(consumed);
+        return write(memoryStore, rowChange, condition, System.currentTimeMillis(), false);
+    }
+
+    /**
+     * @return 开启限流时为表的令牌桶, 否则不限流
+     */
+    private CapacityThrottle throttle(InMemoryTableInstance memoryStore) {
+        return throttling ? memoryStore.throttle : CapacityThrottle.UNLIMITED;
+    }
+
+    /**
+     * @param replay 是否在回放日志, 见{@link #apply}
+     */
+    private RowVersion write(InMemoryTableInstance memoryStore, RowChange rowChange, RowCondition condition,
+                             long timestamp, boolean replay) {
+        EncodedPrimaryKey primaryKey = primaryKey(memoryStore, rowChange);
+        Lock lock = memoryStore.lockFor(primaryKey);
+        RowVersion written;
+        try {
+            memoryStore.lock(lock);
+            written = apply(memoryStore, rowChange, primaryKey, condition, timestamp, replay);
+        } finally {
             lock.unlock();
         }
+        syncLog();
+        return written;
     }
 
+    /**
+     * @return 编码后的主键, 表有自增列时put中的AUTO_INCREMENT占位符替换成新分配的值, 见{@link AutoIncrementSequence}
+     */
+    private static EncodedPrimaryKey primaryKey(InMemoryTableInstance memoryStore, RowChange rowChange) {
+        AutoIncrementSequence sequence = memoryStore.autoIncrement;
+        return memoryStore.key(sequence == null ? rowChange.getPrimaryKey() : sequence.resolve(rowChange));
+    }
 
     /**
-     * 简易版获取一条Row的记录(读取出完整的Column以及版本记录)
-     * RowPutChange put row into InMemoryTableStore
+     * 在已经持有该行分段写锁的情况下检查条件并执行一个行变更, 新版本由{@link InMemoryTableInstance#compute}发布.
+     * put在已存在的行上追加列版本(copy on write, 只复制被写入的列的版本数组);
+     * update只作用在已存在的行上; delete直接把行从跳表中摘除.
+     * 条件检查和新版本都只基于可见的版本(见{@link VersionRetention}), 过期和超出maxVersions的版本在写入时一起去掉.
+     * 条件满足且会修改数据时, 在发布新版本之前把行变更和本次使用的时间戳追加到预写日志.
+     *
+     * @param primaryKey rowChange的主键编码后的结果
+     * @param timestamp  没有指定时间戳的列使用的时间戳, 毫秒, 见{@link #rowTimestamp}
+     * @param replay     回放日志时timestamp是第一次写入时记录下来的时间戳, 原样使用, 不再经过rowTimestamp
+     * @return 发布的新版本, 行被删除或者更新的行不存在时返回null
+     * @throws TableStoreException 条件检查失败时错误码为OTSConditionCheckFail
+     */
+    private RowVersion apply(InMemoryTableInstance memoryStore, RowChange rowChange, EncodedPrimaryKey primaryKey,
+                             RowCondition condition, long timestamp, boolean replay) {
+        if (rowChange instanceof RowPutChange) {
+            RowPutChange rowPut = (RowPutChange) rowChange;
+            return memoryStore.compute(primaryKey, current -> {
+                RowVersion visible = memoryStore.visible(current);
+                condition.check(visible);
+                long rowTimestamp = replay ? timestamp : rowTimestamp(current, timestamp);
+                log(memoryStore, rowChange, primaryKey, rowTimestamp);
+                return memoryStore.visible((visible == null ? new RowVersion.Builder(primaryKey) : visible.toBuilder())
+                        .putAll(withTimestamp(rowPut, rowTimestamp))
+                        .build());
+            });
+        }
+        if (rowChange instanceof RowUpdateChange) {
+            RowUpdateChange rowUpdate = (RowUpdateChange) rowChange;
+            return memoryStore.compute(primaryKey, current -> {
+                RowVersion visible = memoryStore.visible(current);
+                condition.check(visible);
+                if (visible == null) {
+                    return null;
+                }
+                long rowTimestamp = replay ? timestamp : rowTimestamp(current, timestamp);
+                log(memoryStore, rowChange, primaryKey, rowTimestamp);
+                return memoryStore.visible(applyUpdate(visible, rowUpdate, rowTimestamp));
+            });
+        }
+        if (rowChange instanceof RowDeleteChange) {
+            return memoryStore.compute(primaryKey, current -> {
+                condition.check(memoryStore.visible(current));
+                if (current != null) {
+                    log(memoryStore, rowChange, primaryKey, timestamp);
+                }
+                return null;
+            });
+        }
+        throw new UnsupportedOperationException("operation unimplement yet.");
+    }
+
+    /**
+     * 自动时间戳最多领先系统时钟的毫秒数
+     */
+    static final long MAX_TIMESTAMP_LEAD_MILLIS = 1000;
+
+    /**
+     * 自动时间戳与TableStore一样是毫秒. 同一行在同一毫秒内的多次写入依次加1毫秒, 后写入的版本不会覆盖先写入的版本;
+     * 该行已有的时间戳领先系统时钟超过{@link #MAX_TIMESTAMP_LEAD_MILLIS}时(通常是显式指定的时间戳)直接使用系统时钟.
+     * 日志中记录的是这里算出的时间戳, 回放时原样使用, 不再调用这个方法: 该行可能已经包含这次写入(快照期间的写入),
+     * 再算一次会得到latest + 1, 给每个自动时间戳的列多写一个版本
+     *
+     * @param current   该行当前的版本, 不存在时为null
+     * @param timestamp 写入时读取的系统时钟
+     */
+    private static long rowTimestamp(RowVersion current, long timestamp) {
+        if (current == null) {
+            return timestamp;
+        }
+        long latest = current.latestTimestamp();
+        return latest >= timestamp && latest - timestamp < MAX_TIMESTAMP_LEAD_MILLIS ? latest + 1 : timestamp;
+    }
+
+    /**
+     * 追加一条行变更日志. 在compute的mutation中调用, mutation只执行一次, 每个变更只记录一次
+     *
+     * @param primaryKey 实际写入的主键, 自增列已经分配了值, 回放时不再分配
+     */
+    private void log(InMemoryTableInstance memoryStore, RowChange rowChange, EncodedPrimaryKey primaryKey,
+                     long timestamp) {
+        WriteAheadLog log = writeAheadLog;
+        if (log != null) {
+            BinaryCodec.Output output = LOG_BUFFER.get();
+            output.clear();
+            output.putByte(WriteAheadLog.ROW_CHANGE).putLong(timestamp);
+            // 只有分配了自增列的值时主键才与请求中的不同, 其余情况直接写请求中的主键, 不需要从编码还原
+            BinaryCodec.putRowChange(output, rowChange,
+                    memoryStore.autoIncrement == null ? rowChange.getPrimaryKey() : primaryKey.toPrimaryKey());
+            log.append(output.view());
+        }
+    }
+
+    private void syncLog() {
+        WriteAheadLog log = writeAheadLog;
+        if (log != null) {
+            log.sync();
+        }
+    }
+
+    /**
+     * 回放预写日志中的一条行变更, 原样使用记录下来的时间戳, 不检查条件, 不限流.
+     * 写入的都是确定的(列, 时间戳)版本, 该行已经包含这次写入时(写在快照中)再写一遍不会改变结果
+     */
+    void replay(RowChange rowChange, long timestamp) {
+        write(getTable(rowChange.getTableName()), rowChange, RowCondition.IGNORE, timestamp, true);
+    }
+
+    /**
+     * 简易版获取一条Row的记录
+     * 直接读取该行当前发布的版本, 不加锁; 只返回columnsToGet, maxVersions, timeRange以及列范围选中的数据
      *
      * @param getRowRequest
      * @return
      */
     public GetRowResponse noConditionGetRow(GetRowRequest getRowRequest) {
-        SingleRowQueryCriteria singleRowQueryCriteria = getRowRequest.getRowQueryCriteria();
-        PrimaryKey primaryKey = singleRowQueryCriteria.getPrimaryKey();
+        long start = getRowMetrics.start();
         try {
-            lock.lock();
-            InMemoryTableInstance memoryStore = inMemoryTableInstanceMap.get(singleRowQueryCriteria.getTableName());
-            Map<PrimaryKey, Row> dataInstance = memoryStore.getDataInstance();
-            return new GetRowResponse(new Response(), dataInstance.get(primaryKey), new ConsumedCapacity(
-                    new CapacityUnit()
-            ));
+            return getRow(getRowRequest.getRowQueryCriteria());
+        } catch (RuntimeException e) {
+            getRowMetrics.failed();
+            throw e;
         } finally {
-            lock.unlock();
+            getRowMetrics.record(start);
+        }
+    }
+
+    private GetRowResponse getRow(SingleRowQueryCriteria singleRowQueryCriteria) {
+        InMemoryTableInstance memoryStore = getTable(singleRowQueryCriteria.getTableName());
+        CapacityThrottle throttle = throttle(memoryStore);
+        throttle.checkRead();
+        Row row = RowProjection.of(singleRowQueryCriteria)
+                .project(memoryStore.visible(memoryStore.get(singleRowQueryCriteria.getPrimaryKey())));
+        int consumed = CapacityUnits.of(CapacityUnits.size(row));
+        throttle.consumeRead(consumed);
+        return new GetRowResponse(new Response(), row, new ConsumedCapacity(new CapacityUnit(consumed, 0)));
+    }
+
+    /**
+     * 单次GetRange最多返回的行数, 与TableStore服务端一致, 超过后通过nextStartPrimaryKey翻页
+     */
+    static final int GET_RANGE_MAX_ROWS = 5000;
+
+    /**
+     * 范围读取, 支持FORWARD/BACKWARD, INF_MIN/INF_MAX, limit以及与getRow相同的列投影.
+     * 直接在有序存储的子视图上迭代, 每页的开销是O(log n + 页大小)
+     *
+     * @param getRangeRequest
+     * @return 本页数据, 如果还有数据没有读完则设置nextStartPrimaryKey
+     */
+    public GetRangeResponse getRange(GetRangeRequest getRangeRequest) {
+        Preconditions.checkNotNull(getRangeRequest);
+        long start = getRangeMetrics.start();
+        try {
+            return getRange(getRangeRequest.getRangeRowQueryCriteria());
+        } catch (RuntimeException e) {
+            getRangeMetrics.failed();
+            throw e;
+        } finally {
+            getRangeMetrics.record(start);
+        }
+    }
+
+    private GetRangeResponse getRange(RangeRowQueryCriteria criteria) {
+        Preconditions.checkArgument(criteria.getInclusiveStartPrimaryKey() != null
+                        && criteria.getExclusiveEndPrimaryKey() != null,
+                "The inclusive start primary key and the exclusive end primary key should not be null.");
+        InMemoryTableInstance memoryStore = getTable(criteria.getTableName());
+        EncodedPrimaryKey start = memoryStore.key(criteria.getInclusiveStartPrimaryKey());
+        EncodedPrimaryKey end = memoryStore.key(criteria.getExclusiveEndPrimaryKey());
+        boolean forward = criteria.getDirection() != Direction.BACKWARD;
+        int order = start.compareTo(end);
+        if (forward ? order > 0 : order < 0) {
+            throw new TableStoreException("The start primary key must be " + (forward ? "less" : "greater")
+                    + " than the end primary key in " + criteria.getDirection() + " direction.",
+                    null, "OTSParameterInvalid", "0", 400);
+        }
+        int limit = criteria.getLimit() > 0 ? Math.min(criteria.getLimit(), GET_RANGE_MAX_ROWS) : GET_RANGE_MAX_ROWS;
+        // 跳表的子视图是弱一致的, 每一行都是不可变的版本, 范围读不需要加锁
+        CapacityThrottle throttle = throttle(memoryStore);
+        throttle.checkRead();
+        NavigableMap<EncodedPrimaryKey, RowVersion> range = forward
+                ? memoryStore.getRows().subMap(start, true, end, false)
+                : memoryStore.getRows().subMap(end, false, start, true).descendingMap();
+
+        RowProjection projection = RowProjection.of(criteria);
+        List<Row> rows = new ArrayList<>(Math.min(limit, 64));
+        PrimaryKey nextStartPrimaryKey = null;
+        long size = 0;
+        for (Map.Entry<EncodedPrimaryKey, RowVersion> kvs : range.entrySet()) {
+            if (rows.size() == limit) {
+                nextStartPrimaryKey = kvs.getKey().toPrimaryKey();
+                break;
+            }
+            Row row = projection.project(memoryStore.visible(kvs.getValue()));
+            if (row != null) {
+                rows.add(row);
+                size += CapacityUnits.size(row);
+            }
         }
+        int consumed = CapacityUnits.of(size);
+        throttle.consumeRead(consumed);
+        GetRangeResponse response = new GetRangeResponse(new Response(),
+                new ConsumedCapacity(new CapacityUnit(consumed, 0)));
+        response.setRows(rows);
+        response.setNextStartPrimaryKey(nextStartPrimaryKey);
+        return response;
     }
 
+    /**
+     * 一个批量请求里超过这个行数时并行执行, 行数太少或者只有一个核时fork-join的调度开销比读写本身还大
+     */
+    static final int PARALLEL_BATCH_THRESHOLD = 64;
+
     /**
      * batch write rows into memory
+     * 按表和分段写锁把行变更分组, 每组只加一次锁并按请求中的顺序执行, 不同的组互不依赖, 行数较多时在fork-join池上并行执行.
+     * 每一行单独检查条件和限流, 失败只影响这一行, RowResult的index是该行在所属表的变更列表中的位置;
+     * 与TableStore一样, 只有ReturnType为RT_PK时成功的RowResult才带上主键. 所有组执行完后等待一次预写日志落盘.
+     *
      * @param batchWriteRowRequest
      * @return
      * @throws TableStoreException
@@ -194,49 +519,275 @@ public class InMemoryTableInstanceManager {
             throws TableStoreException, ClientException
     {
         Preconditions.checkNotNull(batchWriteRowRequest);
-        Map<String, List<RowChange>> batchWriteRow = batchWriteRowRequest.getRowChange();
-        BatchWriteRowResponse response = new BatchWriteRowResponse(new Response());
+        long start = batchWriteRowMetrics.start();
+        try {
+            return batchWriteRow(batchWriteRowRequest.getRowChange());
+        } catch (RuntimeException e) {
+            batchWriteRowMetrics.failed();
+            throw e;
+        } finally {
+            batchWriteRowMetrics.record(start);
+        }
+    }
 
+    private BatchWriteRowResponse batchWriteRow(Map<String, List<RowChange>> batchWriteRow) {
+        Map<String, BatchWriteRowResponse.RowResult[]> results = new LinkedHashMap<>();
+        List<StripeBatch> batches = new ArrayList<>();
+        int rowCount = 0;
         for (Map.Entry<String, List<RowChange>> kvs: batchWriteRow.entrySet()) {
             String tableName = kvs.getKey();
             List<RowChange> rowChanges = kvs.getValue();
-            for (RowChange rowChange : rowChanges) {
-                int index = 0;
-                if(rowChange instanceof RowUpdateChange){
-                    UpdateRowResponse response0 = noConditionUpdateRow(new UpdateRowRequest((RowUpdateChange) rowChange));
-                    response.addRowResult(new BatchWriteRowResponse.RowResult(tableName, response0.getRow(),  new ConsumedCapacity(new CapacityUnit()), index++));
+            BatchWriteRowResponse.RowResult[] tableResults = new BatchWriteRowResponse.RowResult[rowChanges.size()];
+            results.put(tableName, tableResults);
+            rowCount += rowChanges.size();
+            InMemoryTableInstance memoryStore;
+            try {
+                memoryStore = getWritableTable(tableName);
+            } catch (TableStoreException e) {
+                for (int index = 0; index < tableResults.length; index++) {
+                    tableResults[index] = failedRowResult(tableName, e, index);
                 }
-                else if(rowChange instanceof RowPutChange){
-                    PutRowResponse response0 = noConditionPutRow(new PutRowRequest((RowPutChange) rowChange));
-                    response.addRowResult(new BatchWriteRowResponse.RowResult(tableName, response0.getRow(),  new ConsumedCapacity(new CapacityUnit()), index++));
+                continue;
+            }
+            TableBatch table = new TableBatch(tableName, memoryStore, rowChanges, tableResults);
+            StripeBatch[] stripes = new StripeBatch[InMemoryTableInstance.LOCK_STRIPES];
+            for (int index = 0; index < tableResults.length; index++) {
+                try {
+                    table.prepare(index);
+                } catch (TableStoreException e) {
+                    tableResults[index] = failedRowResult(tableName, e, index);
+                    continue;
                 }
-                //todo 添加DeleteRow 操作
-                else{
-                    throw new UnsupportedOperationException("operation unimplement yet.");
+                int stripe = InMemoryTableInstance.stripe(table.primaryKeys[index]);
+                if (stripes[stripe] == null) {
+                    stripes[stripe] = new StripeBatch(table, stripe);
+                    batches.add(stripes[stripe]);
                 }
+                stripes[stripe].add(index);
+            }
+        }
+        // 整个批量请求使用同一个时间戳, 同一行的多次写入由rowTimestamp依次加1
+        long timestamp = System.currentTimeMillis();
+        try {
+            if (rowCount >= PARALLEL_BATCH_THRESHOLD && batches.size() > 1
+                    && ForkJoinPool.getCommonPoolParallelism() > 1) {
+                batches.parallelStream().forEach(batch -> batch.run(timestamp));
+            } else {
+                for (StripeBatch batch : batches) {
+                    batch.run(timestamp);
+                }
+            }
+        } finally {
+            // 已经写入的行即使后面的行失败也要落盘
+            syncLog();
+        }
+
+        BatchWriteRowResponse response = new BatchWriteRowResponse(new Response());
+        for (BatchWriteRowResponse.RowResult[] tableResults : results.values()) {
+            for (BatchWriteRowResponse.RowResult rowResult : tableResults) {
+                response.addRowResult(rowResult);
             }
         }
         return response;
     }
 
+    private static BatchWriteRowResponse.RowResult failedRowResult(String tableName, TableStoreException e, int index) {
+        return new BatchWriteRowResponse.RowResult(tableName,
+                new com.alicloud.openservices.tablestore.model.Error(e.getErrorCode(), e.getMessage()), index);
+    }
+
+    /**
+     * 批量写入中一张表的行变更. 主键编码, 条件编译和CU计算在加锁之前完成, 持锁期间只执行行变更
+     */
+    private static final class TableBatch {
+
+        private final String tableName;
+        private final InMemoryTableInstance memoryStore;
+        private final List<RowChange> rowChanges;
+        private final BatchWriteRowResponse.RowResult[] tableResults;
+        private final EncodedPrimaryKey[] primaryKeys;
+        private final RowCondition[] conditions;
+        private final CapacityUnit[] consumed;
+
+        /**
+         * 上一行的条件和编译结果, 相邻的行共用同一个Condition对象时只编译一次
+         */
+        private Condition lastCondition;
+        private RowCondition lastCompiled = RowCondition.IGNORE;
+
+        TableBatch(String tableName, InMemoryTableInstance memoryStore, List<RowChange> rowChanges,
+                   BatchWriteRowResponse.RowResult[] tableResults) {
+            this.tableName = tableName;
+            this.memoryStore = memoryStore;
+            this.rowChanges = rowChanges;
+            this.tableResults = tableResults;
+            this.primaryKeys = new EncodedPrimaryKey[tableResults.length];
+            this.conditions = new RowCondition[tableResults.length];
+            this.consumed = new CapacityUnit[tableResults.length];
+        }
+
+        /**
+         * @throws TableStoreException 主键或者条件不合法, 只影响这一行
+         */
+        void prepare(int index) {
+            RowChange rowChange = rowChanges.get(index);
+            primaryKeys[index] = primaryKey(memoryStore, rowChange);
+            Condition condition = rowChange.getCondition();
+            if (condition != lastCondition) {
+                lastCompiled = RowCondition.of(condition);
+                lastCondition = condition;
+            }
+            conditions[index] = lastCompiled;
+            consumed[index] = CapacityUnits.write(rowChange);
+        }
+
+        /**
+         * @return 写入成功的结果, 只有要求返回主键时才带上只有主键的行, 不构造整行
+         */
+        BatchWriteRowResponse.RowResult succeeded(int index, RowVersion written) {
+            RowChange rowChange = rowChanges.get(index);
+            Row row = written != null && rowChange.getReturnType() == ReturnType.RT_PK
+                    ? new Row(written.getPrimaryKey().toPrimaryKey(), new Column[0]) : null;
+            return new BatchWriteRowResponse.RowResult(tableName, row, new ConsumedCapacity(consumed[index]), index);
+        }
+    }
+
+    /**
+     * 同一张表同一个分段上的行变更, 持有一次分段写锁全部执行完
+     */
+    private final class StripeBatch {
+
+        private final TableBatch table;
+        private final int stripe;
+        /**
+         * 属于该分段的行在rowChanges中的位置, 升序
+         */
+        private int[] indexes = new int[4];
+        private int size;
+
+        StripeBatch(TableBatch table, int stripe) {
+            this.table = table;
+            this.stripe = stripe;
+        }
+
+        void add(int index) {
+            if (size == indexes.length) {
+                indexes = Arrays.copyOf(indexes, size * 2);
+            }
+            indexes[size++] = index;
+        }
+
+        /**
+         * 每一行的失败都只影响这一行: 条件检查失败和限流返回对应的错误码, 其他异常返回OTSInternalServerError
+         *
+         * @param timestamp 没有指定时间戳的列使用的时间戳
+         */
+        void run(long timestamp) {
+            InMemoryTableInstance memoryStore = table.memoryStore;
+            CapacityThrottle throttle = throttle(memoryStore);
+            Lock lock = memoryStore.lockAt(stripe);
+            try {
+                memoryStore.lock(lock);
+                for (int i = 0; i < size; i++) {
+                    int index = indexes[i];
+                    try {
+                        throttle.acquireWrite(table.consumed[index]);
+                        RowVersion written = apply(memoryStore, table.rowChanges.get(index), table.primaryKeys[index],
+                                table.conditions[index], timestamp, false);
+                        table.tableResults[index] = table.succeeded(index, written);
+                    } catch (TableStoreException e) {
+                        // 条件检查失败或者被限流
+                        table.tableResults[index] = failedRowResult(table.tableName, e, index);
+                    } catch (RuntimeException e) {
+                        table.tableResults[index] = new BatchWriteRowResponse.RowResult(table.tableName,
+                                new com.alicloud.openservices.tablestore.model.Error("OTSInternalServerError",
+                                        e.toString()), index);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 批量读取. 每张表的所有行在一个一致的快照上一次读完(见{@link InMemoryTableInstance#snapshot}),
+     * MultiRowQueryCriteria的投影只编译一次; 行数较多且有多张表时各表在fork-join池上并行读取.
+     * 限流按表检查, 被限流时该表的每一行都返回错误.
+     *
+     * @param batchGetRowRequest
+     * @return 每一行的结果, 表不存在时该表的每一行都返回错误
+     * @throws TableStoreException
+     * @throws ClientException
+     */
     public BatchGetRowResponse batchGetRow(final BatchGetRowRequest batchGetRowRequest)
             throws TableStoreException, ClientException
     {
         Preconditions.checkNotNull(batchGetRowRequest);
+        long start = batchGetRowMetrics.start();
+        try {
+            return batchGetRow(new ArrayList<>(batchGetRowRequest.getCriteriasByTable().values()));
+        } catch (RuntimeException e) {
+            batchGetRowMetrics.failed();
+            throw e;
+        } finally {
+            batchGetRowMetrics.record(start);
+        }
+    }
+
+    private BatchGetRowResponse batchGetRow(List<MultiRowQueryCriteria> tables) {
+        int rowCount = 0;
+        for (MultiRowQueryCriteria criterias : tables) {
+            rowCount += criterias.getRowKeys().size();
+        }
+        List<BatchGetRowResponse.RowResult[]> results;
+        if (rowCount >= PARALLEL_BATCH_THRESHOLD && tables.size() > 1
+                && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            results = tables.parallelStream().map(this::batchGetRow).collect(Collectors.toList());
+        } else {
+            results = tables.stream().map(this::batchGetRow).collect(Collectors.toList());
+        }
+
         BatchGetRowResponse response = new BatchGetRowResponse(new Response());
-        for (Map.Entry<String, MultiRowQueryCriteria> kvs:  batchGetRowRequest.getCriteriasByTable().entrySet()) {
-            String tableName = kvs.getKey();
-            MultiRowQueryCriteria criterias = kvs.getValue();
-            for (int i = 0; i < criterias.getRowKeys().size(); i++) {
-                GetRowRequest request = new GetRowRequest();
-                request.setRowQueryCriteria(new SingleRowQueryCriteria(tableName, criterias.get(i)));
-                GetRowResponse response0 = noConditionGetRow(request);
-                response.addResult(new BatchGetRowResponse.RowResult(tableName, response0.getRow(),  new ConsumedCapacity(new CapacityUnit()), i));
+        for (BatchGetRowResponse.RowResult[] tableResults : results) {
+            for (BatchGetRowResponse.RowResult rowResult : tableResults) {
+                response.addResult(rowResult);
             }
         }
         return response;
     }
 
+    private BatchGetRowResponse.RowResult[] batchGetRow(MultiRowQueryCriteria criterias) {
+        String tableName = criterias.getTableName();
+        List<PrimaryKey> rowKeys = criterias.getRowKeys();
+        BatchGetRowResponse.RowResult[] tableResults = new BatchGetRowResponse.RowResult[rowKeys.size()];
+        InMemoryTableInstance memoryStore;
+        CapacityThrottle throttle;
+        try {
+            memoryStore = getTable(tableName);
+            throttle = throttle(memoryStore);
+            throttle.checkRead();
+        } catch (TableStoreException e) {
+            for (int i = 0; i < tableResults.length; i++) {
+                tableResults[i] = new BatchGetRowResponse.RowResult(tableName,
+                        new com.alicloud.openservices.tablestore.model.Error(e.getErrorCode(), e.getMessage()), i);
+            }
+            return tableResults;
+        }
+        RowVersion[] snapshot = memoryStore.snapshot(rowKeys);
+        RowProjection projection = RowProjection.of(criterias);
+        int consumedTotal = 0;
+        for (int i = 0; i < tableResults.length; i++) {
+            Row row = projection.project(memoryStore.visible(snapshot[i]));
+            int consumed = CapacityUnits.of(CapacityUnits.size(row));
+            consumedTotal += consumed;
+            tableResults[i] = new BatchGetRowResponse.RowResult(tableName, row,
+                    new ConsumedCapacity(new CapacityUnit(consumed, 0)), i);
+        }
+        throttle.consumeRead(consumedTotal);
+        return tableResults;
+    }
+
 
 
     /**
@@ -247,9 +798,7 @@ public class InMemoryTableInstanceManager {
      * @return remain elements
      */
     public List<Column> getFilterColumns(Column[] columns, Column[] elementsToRemove) {
-        return Arrays.stream(columns).filter(x ->
-                Arrays.stream(elementsToRemove).noneMatch(y -> y.equals(x)
-                )).collect(Collectors.toList());
+        return getFilterColumns(Arrays.asList(columns), Arrays.asList(elementsToRemove));
     }
 
     /**
@@ -258,9 +807,8 @@ public class InMemoryTableInstanceManager {
      * @return remain elements
      */
     public List<Column> getFilterColumns(List<Column> columns, List<Column> elementsToRemove) {
-        return columns.stream().filter(x ->
-                elementsToRemove.stream().noneMatch(y -> y.equals(x)
-                )).collect(Collectors.toList());
+        Set<Column> excluded = new HashSet<>(elementsToRemove);
+        return columns.stream().filter(x -> !excluded.contains(x)).collect(Collectors.toList());
     }
 
     /**
@@ -0,0 +1,90 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.PrimaryKey;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 表的主键抽样, computeSplitsBySize用它按数据量切分主键范围, 不需要遍历整张表.
+ * <p>
+ * 每个分段一个容量为{@link #SLOTS}的蓄水池(Algorithm R), 插入新行时在该行的分段锁内更新, 不同分段之间没有竞争,
+ * 写入只多一次随机数; 分段按主键hash划分, 所有分段的样本合起来是整张表的均匀样本.
+ * 每个样本同时记下插入时的行大小, 切分时按大小加权. 删除不更新样本, 被删除的主键仍然可以作为切分边界;
+ * 整表替换时随重新统计一起重新抽样. 读取样本不加锁, 可能看到正在被替换的样本, 只影响边界的精度.
+ */
+final class KeySample {
+
+    static final int SLOTS = 16;
+
+    private final EncodedPrimaryKey[][] keys = new EncodedPrimaryKey[InMemoryTableInstance.LOCK_STRIPES][SLOTS];
+    private final long[][] sizes = new long[InMemoryTableInstance.LOCK_STRIPES][SLOTS];
+
+    /**
+     * 每个分段插入过的行数
+     */
+    private final long[] inserted = new long[InMemoryTableInstance.LOCK_STRIPES];
+
+    /**
+     * 调用方持有该分段的写锁
+     *
+     * @param stripe {@link InMemoryTableInstance#stripe}
+     */
+    void add(int stripe, EncodedPrimaryKey primaryKey, long size) {
+        long seen = inserted[stripe]++;
+        long slot = seen < SLOTS ? seen : ThreadLocalRandom.current().nextLong(seen + 1);
+        if (slot < SLOTS) {
+            keys[stripe][(int) slot] = primaryKey;
+            sizes[stripe][(int) slot] = size;
+        }
+    }
+
+    /**
+     * @param count 切分的份数
+     * @return 升序的切分边界, 相邻两个边界之间样本的大小之和大致相等; 最多count-1个, 样本不够时更少
+     */
+    List<PrimaryKey> boundaries(int count) {
+        List<EncodedPrimaryKey> sampledKeys = new ArrayList<>();
+        List<Long> sampledSizes = new ArrayList<>();
+        for (int stripe = 0; stripe < keys.length; stripe++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                EncodedPrimaryKey primaryKey = keys[stripe][slot];
+                if (primaryKey != null) {
+                    sampledKeys.add(primaryKey);
+                    sampledSizes.add(sizes[stripe][slot]);
+                }
+            }
+        }
+        Integer[] order = new Integer[sampledKeys.size()];
+        long total = 0;
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            total += sampledSizes.get(i);
+        }
+        Arrays.sort(order, (a, b) -> sampledKeys.get(a).compareTo(sampledKeys.get(b)));
+
+        List<EncodedPrimaryKey> result = new ArrayList<>();
+        long accumulated = 0;
+        int next = 1;
+        for (int i = 0; i < order.length && next < count; i++) {
+            EncodedPrimaryKey primaryKey = sampledKeys.get(order[i]);
+            // 边界是下一份的起点, 这个样本自己算在下一份
+            if (accumulated * count >= total * next) {
+                if (result.isEmpty() || result.get(result.size() - 1).compareTo(primaryKey) < 0) {
+                    result.add(primaryKey);
+                }
+                while (next < count && accumulated * count >= total * next) {
+                    next++;
+                }
+            }
+            accumulated += sampledSizes.get(order[i]);
+        }
+        List<PrimaryKey> boundaries = new ArrayList<>(result.size());
+        for (EncodedPrimaryKey primaryKey : result) {
+            boundaries.add(primaryKey.toPrimaryKey());
+        }
+        return boundaries;
+    }
+}
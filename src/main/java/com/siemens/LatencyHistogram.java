@@ -0,0 +1,146 @@
+package com.siemens;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 并发记录的延迟直方图, 单位纳秒.
+ * <p>
+ * 桶按2的幂分组, 每组再等分成8个子桶, 任何值的相对误差不超过12.5%; 16ns以下每个值一个桶, 2^40ns(约18分钟)以上都计入最后一个桶.
+ * 每个桶是一个LongAdder, 记录只是一次计算桶号和一次无竞争的累加, 多个线程同时记录也不会争用同一个缓存行.
+ * {@link #snapshot()}得到不可变的快照, 快照之间可以合并, 例如把多个进程或者多次运行的结果合在一起计算分位数.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos 延迟, 负数按0计
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[bucket(value)].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS
+                + (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @return 桶中最大的值
+     */
+    static long upperBound(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width - 1;
+    }
+
+    /**
+     * 不与记录同步, 并发记录时快照中的计数, 总和和最大值可能相差几个样本
+     */
+    public Snapshot snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts[i].sum();
+        }
+        return new Snapshot(snapshot, sum.sum(), max.get());
+    }
+
+    public void reset() {
+        for (LongAdder count : counts) {
+            count.reset();
+        }
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * 直方图的不可变快照
+     */
+    public static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(new long[BUCKETS], 0, 0);
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            this.count = Arrays.stream(counts).sum();
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param quantile 0到1之间, 例如0.99
+         * @return 至少quantile比例的样本不超过的值(所在桶的上界, 不超过最大值), 没有样本时为0
+         */
+        public long getValueAtQuantile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        public Snapshot merge(Snapshot other) {
+            long[] merged = counts.clone();
+            for (int i = 0; i < merged.length; i++) {
+                merged[i] += other.counts[i];
+            }
+            return new Snapshot(merged, sum + other.sum, Math.max(max, other.max));
+        }
+    }
+}
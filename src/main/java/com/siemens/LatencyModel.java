@@ -0,0 +1,65 @@
+package com.siemens;
+
+/**
+ * MockSyncClient和MockAsyncClient的服务端耗时和错误模型, 用于按真实的延迟调试调用方的批量, 超时和重试策略.
+ * <p>
+ * 每个请求先调用{@link #fault}决定是否注入错误, 注入错误时请求默认不执行, 调用方在指定的耗时之后收到该错误;
+ * {@link Fault#executed}的错误先执行请求再丢弃结果, 模拟服务端已经生效但调用方超时的情况. 否则执行请求, 再用{@link #latencyNanos}计算这次请求的耗时, 执行本身已经花掉的时间计入其中.
+ * operation是客户端接口的方法名, 例如getRow, batchWriteRow. 两个方法都可能被多个线程并发调用.
+ * 内置的实现见{@link SimulatedLatency}.
+ */
+public interface LatencyModel {
+
+    /**
+     * 不模拟, 请求立即返回
+     */
+    LatencyModel NONE = (operation, request, response) -> 0;
+
+    /**
+     * @param request 请求对象, 没有参数的方法为null
+     * @return 注入的错误, null表示正常执行
+     */
+    default Fault fault(String operation, Object request) {
+        return null;
+    }
+
+    /**
+     * @param request  请求对象, 没有参数的方法为null
+     * @param response 响应, 请求失败时为null
+     * @return 这次请求在服务端的耗时, 纳秒
+     */
+    long latencyNanos(String operation, Object request, Object response);
+
+    /**
+     * 注入的错误: 经过delayNanos之后把exception抛给调用方
+     */
+    final class Fault {
+
+        final RuntimeException exception;
+        final long delayNanos;
+
+        /**
+         * 请求是否照常执行, 执行的结果和异常都被丢弃
+         */
+        final boolean executed;
+
+        /**
+         * @param exception  抛给调用方的异常, 通常是TableStoreException或者ClientException, 每次调用都应该是新对象
+         * @param delayNanos 调用方收到错误之前的耗时
+         */
+        public Fault(RuntimeException exception, long delayNanos) {
+            this(exception, delayNanos, false);
+        }
+
+        /**
+         * @param exception  抛给调用方的异常, 通常是TableStoreException或者ClientException, 每次调用都应该是新对象
+         * @param delayNanos 调用方收到错误之前的耗时, 包括执行请求的时间
+         * @param executed   为true时请求照常执行, 调用方仍然收到exception, 用于验证重试是否幂等
+         */
+        public Fault(RuntimeException exception, long delayNanos, boolean executed) {
+            this.exception = exception;
+            this.delayNanos = delayNanos;
+            this.executed = executed;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.AsyncClientInterface;
+import com.alicloud.openservices.tablestore.ClientException;
+import com.alicloud.openservices.tablestore.SyncClientInterface;
+import com.alicloud.openservices.tablestore.TableStoreException;
+import com.alicloud.openservices.tablestore.model.*;
+
+/**
+ * 直接调用内存数据库的同步客户端, 可以在需要SyncClientInterface的地方代替SyncClient.
+ * 不经过动态代理, 没有Object[]装箱, 字符串匹配和强制转换, JIT可以直接内联到存储层,
+ * 基准测试应该直接使用这个类, 测得的是存储本身的开销.
+ * 还没有支持的操作抛出错误码为{@link #UNSUPPORTED}的TableStoreException.
+ * <p>
+ * MockSyncClient和MockAsyncClient也把请求分发到这里.
+ */
+public class LocalSyncClient implements SyncClientInterface {
+
+    static final String UNSUPPORTED = "OTSUnsupportOperation";
+
+    private final SimpleInMemoryTableStore store;
+
+    public LocalSyncClient(SimpleInMemoryTableStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public CreateTableResponse createTable(CreateTableRequest createTableRequest)
+            throws TableStoreException, ClientException {
+        return store.createTable(createTableRequest);
+    }
+
+    @Override
+    public DeleteTableResponse deleteTable(DeleteTableRequest deleteTableRequest)
+            throws TableStoreException, ClientException {
+        return store.deleteTable(deleteTableRequest);
+    }
+
+    @Override
+    public GetRowResponse getRow(GetRowRequest getRowRequest)
+            throws TableStoreException, ClientException {
+        return store.inMemoryTableInstanceManager.noConditionGetRow(getRowRequest);
+    }
+
+    @Override
+    public PutRowResponse putRow(PutRowRequest putRowRequest)
+            throws TableStoreException, ClientException {
+        return store.inMemoryTableInstanceManager.putRow(putRowRequest);
+    }
+
+    @Override
+    public UpdateRowResponse updateRow(UpdateRowRequest updateRowRequest)
+            throws TableStoreException, ClientException {
+        return store.inMemoryTableInstanceManager.updateRow(updateRowRequest);
+    }
+
+    @Override
+    public DeleteRowResponse deleteRow(DeleteRowRequest deleteRowRequest)
+            throws TableStoreException, ClientException {
+        return store.inMemoryTableInstanceManager.deleteRow(deleteRowRequest);
+    }
+
+    @Override
+    public BatchGetRowResponse batchGetRow(BatchGetRowRequest batchGetRowRequest)
+            throws TableStoreException, ClientException {
+        return store.inMemoryTableInstanceManager.batchGetRow(batchGetRowRequest);
+    }
+
+    @Override
+    public BatchWriteRowResponse batchWriteRow(BatchWriteRowRequest batchWriteRowRequest)
+            throws TableStoreException, ClientException {
+        return store.inMemoryTableInstanceManager.batchWriteRow(batchWriteRowRequest);
+    }
+
+    @Override
+    public GetRangeResponse getRange(GetRangeRequest getRangeRequest)
+            throws TableStoreException, ClientException {
+        return store.inMemoryTableInstanceManager.getRange(getRangeRequest);
+    }
+
+    @Override
+    public ComputeSplitsBySizeResponse computeSplitsBySize(ComputeSplitsBySizeRequest computeSplitsBySizeRequest)
+            throws TableStoreException, ClientException {
+        return store.computeSplitsBySize(computeSplitsBySizeRequest);
+    }
+
+    /**
+     * 内存数据库由调用方管理, 关闭客户端不影响它
+     */
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public ListTableResponse listTable() throws TableStoreException, ClientException {
+        throw unsupported("listTable");
+    }
+
+    @Override
+    public DescribeTableResponse describeTable(DescribeTableRequest describeTableRequest)
+            throws TableStoreException, ClientException {
+        throw unsupported("describeTable");
+    }
+
+    @Override
+    public UpdateTableResponse updateTable(UpdateTableRequest updateTableRequest)
+            throws TableStoreException, ClientException {
+        throw unsupported("updateTable");
+    }
+
+    @Override
+    public RowIterator createRangeIterator(RangeIteratorParameter rangeIteratorParameter)
+            throws TableStoreException, ClientException {
+        throw unsupported("createRangeIterator");
+    }
+
+    @Override
+    public ListStreamResponse listStream(ListStreamRequest listStreamRequest)
+            throws TableStoreException, ClientException {
+        throw unsupported("listStream");
+    }
+
+    @Override
+    public DescribeStreamResponse describeStream(DescribeStreamRequest describeStreamRequest)
+            throws TableStoreException, ClientException {
+        throw unsupported("describeStream");
+    }
+
+    @Override
+    public GetShardIteratorResponse getShardIterator(GetShardIteratorRequest getShardIteratorRequest)
+            throws TableStoreException, ClientException {
+        throw unsupported("getShardIterator");
+    }
+
+    @Override
+    public GetStreamRecordResponse getStreamRecord(GetStreamRecordRequest getStreamRecordRequest)
+            throws TableStoreException, ClientException {
+        throw unsupported("getStreamRecord");
+    }
+
+    @Override
+    public AsyncClientInterface asAsyncClient() {
+        throw unsupported("asAsyncClient");
+    }
+
+    static TableStoreException unsupported(String operation) {
+        return new TableStoreException("The operation " + operation + " is not supported.", null, UNSUPPORTED, "0", 400);
+    }
+}
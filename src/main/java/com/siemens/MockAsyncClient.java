@@ -0,0 +1,265 @@
+package com.siemens;
+
+
+import com.alicloud.openservices.tablestore.AsyncClientInterface;
+import com.alicloud.openservices.tablestore.ClientException;
+import com.alicloud.openservices.tablestore.SyncClientInterface;
+import com.alicloud.openservices.tablestore.TableStoreCallback;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AsyncClientInterface的mock, 与MockSyncClient共用同一个SimpleInMemoryTableStore.
+ * 每个异步请求作为一个任务提交到executor上, 在executor的线程里执行LocalSyncClient上的同步操作, 然后回调TableStoreCallback并完成Future,
+ * 与SDK一样, 回调先于Future完成, 失败时Future.get()抛出包装了TableStoreException/ClientException的ExecutionException.
+ * <p>
+ * 默认的executor是固定线程数加有界队列, 队列满时请求直接以ClientException失败, 可以用来压测调用方的流水线和背压.
+ * <pre>
+ * AsyncClientInterface asyncClient = (AsyncClientInterface) Proxy.newProxyInstance(ClassLoader.getSystemClassLoader(),
+ *         new Class[]{AsyncClientInterface.class}, new MockAsyncClient(store, 8, 1024));
+ * </pre>
+ * 指定{@link LatencyModel}时, executor的线程执行完请求后立即返回, 回调和Future的完成由一个定时线程在模拟的耗时到期后进行,
+ * 等待中的请求只是定时队列中的一个任务, 不占用executor的线程, 少量线程就能模拟成千上万个同时进行的请求.
+ * 注入的错误不经过executor, 直接在到期后失败. 回调在定时线程上执行, 应该尽快返回.
+ */
+public class MockAsyncClient implements InvocationHandler {
+
+    private final ExecutorService executor;
+
+    private final LocalSyncClient localClient;
+
+    private final SyncClientInterface syncClient;
+
+    private final LatencyModel latencyModel;
+
+    /**
+     * 到期后完成请求的定时线程, 没有模拟耗时时为null
+     */
+    private final ScheduledExecutorService timer;
+
+    /**
+     * 异步方法 -> LocalSyncClient上同名的同步方法, 类型为(请求)响应
+     */
+    private final Map<Method, MethodHandle> syncMethods = new ConcurrentHashMap<>();
+
+    /**
+     * @param store         内存数据库
+     * @param parallelism   执行请求的线程数
+     * @param queueCapacity 等待执行的请求数上限
+     */
+    public MockAsyncClient(SimpleInMemoryTableStore store, int parallelism, int queueCapacity) {
+        this(store, newExecutor(parallelism, queueCapacity));
+    }
+
+    /**
+     * @param store         内存数据库
+     * @param parallelism   执行请求的线程数
+     * @param queueCapacity 等待执行的请求数上限, 不包括已经执行完正在等待模拟耗时的请求
+     * @param latencyModel  模拟的服务端耗时和错误, asSyncClient返回的同步客户端也使用这个模型
+     */
+    public MockAsyncClient(SimpleInMemoryTableStore store, int parallelism, int queueCapacity,
+                           LatencyModel latencyModel) {
+        this(store, newExecutor(parallelism, queueCapacity), latencyModel);
+    }
+
+    /**
+     * @param store    内存数据库
+     * @param executor 执行请求的线程池, shutdown时一起关闭
+     */
+    public MockAsyncClient(SimpleInMemoryTableStore store, ExecutorService executor) {
+        this(store, executor, LatencyModel.NONE);
+    }
+
+    /**
+     * @param store        内存数据库
+     * @param executor     执行请求的线程池, shutdown时一起关闭
+     * @param latencyModel 模拟的服务端耗时和错误, asSyncClient返回的同步客户端也使用这个模型
+     */
+    public MockAsyncClient(SimpleInMemoryTableStore store, ExecutorService executor, LatencyModel latencyModel) {
+        this.executor = executor;
+        this.latencyModel = latencyModel;
+        this.timer = latencyModel == LatencyModel.NONE ? null : newTimer();
+        MockSyncClient mockSyncClient = new MockSyncClient(store, latencyModel);
+        this.localClient = mockSyncClient.getLocalClient();
+        this.syncClient = (SyncClientInterface) Proxy.newProxyInstance(SyncClientInterface.class.getClassLoader(),
+                new Class[]{SyncClientInterface.class}, mockSyncClient);
+    }
+
+    private static ExecutorService newExecutor(int parallelism, int queueCapacity) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        return new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "mock-tablestore-async-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * shutdown之后已经排期的完成任务仍然会按时执行
+     */
+    private static ScheduledExecutorService newTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "mock-tablestore-latency");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "asSyncClient":
+                return syncClient;
+            case "shutdown":
+                executor.shutdown();
+                if (timer != null) {
+                    timer.shutdown();
+                }
+                return null;
+        }
+        if (Object.class.equals(method.getDeclaringClass())) {
+            return method.invoke(this, args);
+        }
+        if (method.getReturnType() == Future.class && args != null && args.length == 2) {
+            TableStoreCallback<Object, Object> callback = (TableStoreCallback<Object, Object>) args[1];
+            if (timer == null) {
+                return submit(syncMethod(method), args[0], callback);
+            }
+            return submitWithLatency(method.getName(), syncMethod(method), args[0], callback);
+        }
+        throw LocalSyncClient.unsupported(method.getName());
+    }
+
+    private MethodHandle syncMethod(Method asyncMethod) {
+        return syncMethods.computeIfAbsent(asyncMethod, method -> {
+            Method local = MockSyncClient.findMethod(LocalSyncClient.class, method.getName(), method.getParameterTypes()[0]);
+            if (local == null) {
+                throw LocalSyncClient.unsupported(method.getName());
+            }
+            try {
+                return MethodHandles.publicLookup().unreflect(local).bindTo(localClient)
+                        .asType(MethodType.methodType(Object.class, Object.class));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("can not resolve " + method, e);
+            }
+        });
+    }
+
+    private CompletableFuture<Object> submit(MethodHandle syncMethod, Object request, TableStoreCallback<Object, Object> callback) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                Object response;
+                try {
+                    response = (Object) syncMethod.invokeExact(request);
+                } catch (Throwable t) {
+                    fail(request, callback, future, t);
+                    return;
+                }
+                complete(request, response, callback, future);
+            });
+        } catch (RejectedExecutionException e) {
+            throw new ClientException("The request queue of the async client is full or the client is shut down.", e);
+        }
+        return future;
+    }
+
+    /**
+     * 请求在executor上执行完后, 把回调和Future的完成排期到模拟的耗时到期时, executor的线程立即返回
+     */
+    private CompletableFuture<Object> submitWithLatency(String operation, MethodHandle syncMethod, Object request,
+                                                       TableStoreCallback<Object, Object> callback) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        LatencyModel.Fault fault = latencyModel.fault(operation, request);
+        long start = System.nanoTime();
+        if (fault != null && !fault.executed) {
+            schedule(() -> fail(request, callback, future, fault.exception), fault.delayNanos);
+            return future;
+        }
+        try {
+            executor.execute(() -> {
+                Object response;
+                Throwable failure = null;
+                try {
+                    response = (Object) syncMethod.invokeExact(request);
+                } catch (Throwable t) {
+                    response = null;
+                    failure = t;
+                }
+                if (fault != null) {
+                    // 请求已经执行, 调用方只看到注入的错误
+                    schedule(() -> fail(request, callback, future, fault.exception),
+                            fault.delayNanos - (System.nanoTime() - start));
+                } else if (failure != null) {
+                    Throwable cause = failure;
+                    schedule(() -> fail(request, callback, future, cause), latencyModel.latencyNanos(operation, request, null)
+                            - (System.nanoTime() - start));
+                } else {
+                    Object result = response;
+                    schedule(() -> complete(request, result, callback, future),
+                            latencyModel.latencyNanos(operation, request, response) - (System.nanoTime() - start));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new ClientException("The request queue of the async client is full or the client is shut down.", e);
+        }
+        return future;
+    }
+
+    private void schedule(Runnable completion, long delayNanos) {
+        if (delayNanos <= 0) {
+            completion.run();
+            return;
+        }
+        try {
+            timer.schedule(completion, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // 已经shutdown, 不再等待
+            completion.run();
+        }
+    }
+
+    private static void complete(Object request, Object response, TableStoreCallback<Object, Object> callback,
+                                 CompletableFuture<Object> future) {
+        try {
+            if (callback != null) {
+                callback.onCompleted(request, response);
+            }
+        } finally {
+            future.complete(response);
+        }
+    }
+
+    private static void fail(Object request, TableStoreCallback<Object, Object> callback,
+                             CompletableFuture<Object> future, Throwable cause) {
+        Exception exception = cause instanceof Exception ? (Exception) cause : new ClientException(cause.getMessage(), cause);
+        try {
+            if (callback != null) {
+                callback.onFailed(request, exception);
+            }
+        } finally {
+            future.completeExceptionally(exception);
+        }
+    }
+}
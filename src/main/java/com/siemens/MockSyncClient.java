@@ -1,51 +1,193 @@
 package com.siemens;
 
 
-import com.alicloud.openservices.tablestore.model.*;
+import com.alicloud.openservices.tablestore.ClientException;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * SyncClientInterface的动态代理, 把请求分发到{@link LocalSyncClient}, 在它之上加上模拟的耗时, 错误和调用统计.
+ * 每个接口方法第一次被调用时解析成一个MethodHandle并缓存, 之后的调用不再按方法名匹配和反射调用.
+ * LocalSyncClient实现了SyncClientInterface, 每个方法都能直接找到; 按方法名查找不到时调用接口自己的default实现,
+ * 仍然没有时抛出不支持的错误, 这两条只是为运行时SDK的接口比编译时多出来的方法保留的后备.
+ * 对性能敏感的代码可以直接使用LocalSyncClient, 完全绕过代理.
+ * <p>
+ * 指定{@link LatencyModel}时调用线程按模型给出的耗时等待后才返回, 注入的错误也在等待之后抛出.
+ * 每次调用的次数, 失败和耗时(包括模拟的耗时)以"client."加方法名记录到store的{@link StoreMetrics}中.
+ */
 public class MockSyncClient implements InvocationHandler {
 
+    private static final Object[] NO_ARGS = new Object[0];
+
+    /**
+     * 统一的分发类型: (代理对象, 参数) -> 返回值
+     */
+    private static final MethodType DISPATCH_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
     SimpleInMemoryTableStore store;
 
+    private final LocalSyncClient localClient;
+
+    private final Map<Method, MethodHandle> handlers = new ConcurrentHashMap<>();
+
+    private final LatencyModel latencyModel;
+
+    private final Map<Method, StoreMetrics.Operation> operations = new ConcurrentHashMap<>();
+
     public MockSyncClient(SimpleInMemoryTableStore store) {
+        this(store, LatencyModel.NONE);
+    }
+
+    /**
+     * @param latencyModel 模拟的服务端耗时和错误
+     */
+    public MockSyncClient(SimpleInMemoryTableStore store, LatencyModel latencyModel) {
         this.store = store;
+        this.localClient = new LocalSyncClient(store);
+        this.latencyModel = latencyModel;
     }
 
+    public LocalSyncClient getLocalClient() {
+        return localClient;
+    }
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        switch (method.getName()) {
-            case "getRow":
-                return store.inMemoryTableInstanceManager.noConditionGetRow((GetRowRequest) args[0]);
-            case "putRow":
-                return store.inMemoryTableInstanceManager.noConditionPutRow((PutRowRequest) args[0]);
-            case "updateRow":
-                return store.inMemoryTableInstanceManager.noConditionUpdateRow((UpdateRowRequest) args[0]);
-            case "createTable":
-                return store.createTable((CreateTableRequest) args[0]);
-            case "deleteTable":
-                return store.deleteTable((DeleteTableRequest) args[0]);
-            case "batchGetRow":
-                return store.inMemoryTableInstanceManager.batchGetRow((BatchGetRowRequest) args[0]);
-            case "batchWriteRow":
-                return store.inMemoryTableInstanceManager.batchWriteRow((BatchWriteRowRequest) args[0]);
-        }
-        if (((method.getModifiers() & (Modifier.ABSTRACT | Modifier.PUBLIC | Modifier.STATIC)) ==
-                Modifier.PUBLIC) && method.getDeclaringClass().isInterface()) {
-            return method.invoke(args);
-        }
         if (Object.class.equals(method.getDeclaringClass())) {
-            try {
-                return method.invoke(this, args);
-            } catch (Throwable t) {
-                throw t;
+            return method.invoke(this, args);
+        }
+        MethodHandle handler = handlers.get(method);
+        if (handler == null) {
+            handler = handlers.computeIfAbsent(method, this::resolve);
+        }
+        StoreMetrics.Operation operation = operations.get(method);
+        if (operation == null) {
+            operation = operations.computeIfAbsent(method, key ->
+                    store.inMemoryTableInstanceManager.metrics.operation(StoreMetrics.CLIENT_PREFIX + key.getName()));
+        }
+        long start = operation.start();
+        try {
+            return dispatch(handler, proxy, method, args == null ? NO_ARGS : args);
+        } catch (Throwable t) {
+            operation.failed();
+            throw t;
+        } finally {
+            operation.record(start);
+        }
+    }
+
+    private Object dispatch(MethodHandle handler, Object proxy, Method method, Object[] arguments) throws Throwable {
+        if (latencyModel == LatencyModel.NONE) {
+            return (Object) handler.invokeExact(proxy, arguments);
+        }
+        String operation = method.getName();
+        Object request = arguments.length == 0 ? null : arguments[0];
+        LatencyModel.Fault fault = latencyModel.fault(operation, request);
+        long start = System.nanoTime();
+        if (fault != null) {
+            if (fault.executed) {
+                try {
+                    Object ignored = (Object) handler.invokeExact(proxy, arguments);
+                } catch (Throwable t) {
+                    // 请求已经执行, 调用方只看到注入的错误
+                }
+            }
+            sleep(fault.delayNanos - (System.nanoTime() - start));
+            throw fault.exception;
+        }
+        Object response = null;
+        Throwable failure = null;
+        try {
+            response = (Object) handler.invokeExact(proxy, arguments);
+        } catch (Throwable t) {
+            failure = t;
+        }
+        sleep(latencyModel.latencyNanos(operation, request, response) - (System.nanoTime() - start));
+        if (failure != null) {
+            throw failure;
+        }
+        return response;
+    }
+
+    /**
+     * 等待模拟的耗时, 被中断时以ClientException结束
+     */
+    private static void sleep(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientException("Interrupted while waiting for the simulated latency.", e);
+        }
+    }
+
+    private MethodHandle resolve(Method method) {
+        try {
+            Method local = findMethod(LocalSyncClient.class, method.getName(), method.getParameterTypes());
+            if (local != null) {
+                return dispatcher(localClient, local, method.getParameterCount());
             }
+            if (((method.getModifiers() & (Modifier.ABSTRACT | Modifier.PUBLIC | Modifier.STATIC)) ==
+                    Modifier.PUBLIC) && method.getDeclaringClass().isInterface()) {
+                return defaultMethod(method);
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("can not resolve " + method, e);
+        }
+        throw LocalSyncClient.unsupported(method.getName());
+    }
+
+    static Method findMethod(Class<?> clazz, String name, Class<?>... parameterTypes) {
+        try {
+            return clazz.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return target.method(args), 类型为{@link #DISPATCH_TYPE}, 忽略代理对象
+     */
+    static MethodHandle dispatcher(Object target, Method method, int parameterCount) throws IllegalAccessException {
+        MethodHandle handle = MethodHandles.publicLookup().unreflect(method).bindTo(target);
+        handle = handle.asType(MethodType.genericMethodType(parameterCount))
+                .asSpreader(Object[].class, parameterCount);
+        return MethodHandles.dropArguments(handle, 0, Object.class).asType(DISPATCH_TYPE);
+    }
+
+    /**
+     * 调用接口自己的default实现, 而不是代理上的同名方法(那样会再次进入invoke)
+     */
+    private static MethodHandle defaultMethod(Method method) throws ReflectiveOperationException {
+        Class<?> declaringClass = method.getDeclaringClass();
+        MethodHandles.Lookup lookup;
+        Method privateLookupIn = findMethod(MethodHandles.class, "privateLookupIn", Class.class, MethodHandles.Lookup.class);
+        if (privateLookupIn != null) {
+            // java 9+
+            lookup = (MethodHandles.Lookup) privateLookupIn.invoke(null, declaringClass, MethodHandles.lookup());
         } else {
-            throw new UnsupportedOperationException("operation not support yet");
+            // java 8只能通过私有构造函数拿到有private权限的Lookup
+            Constructor<MethodHandles.Lookup> constructor =
+                    MethodHandles.Lookup.class.getDeclaredConstructor(Class.class, int.class);
+            constructor.setAccessible(true);
+            lookup = constructor.newInstance(declaringClass, MethodHandles.Lookup.PRIVATE);
         }
+        MethodHandle handle = lookup.unreflectSpecial(method, declaringClass);
+        int parameterCount = method.getParameterCount();
+        return handle.asType(MethodType.genericMethodType(parameterCount + 1))
+                .asSpreader(Object[].class, parameterCount)
+                .asType(DISPATCH_TYPE);
     }
 }
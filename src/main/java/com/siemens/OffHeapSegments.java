@@ -0,0 +1,141 @@
+package com.siemens;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 堆外存放已编码行的段分配器.
+ * <p>
+ * 每个段是一块direct ByteBuffer, 只在末尾追加, 写入的记录不会被覆盖, 更新和删除只把旧记录计为垃圾.
+ * 引用({@link Ref})持有它所在的段, 正在读旧记录的读者让段保持可达, 段不再被任何引用持有时由GC回收堆外内存,
+ * 因此读操作不需要加锁也不需要和释放协调. 活数据低于一半的段由表逐行搬到当前段, 搬完后整段被回收.
+ * <p>
+ * 堆外内存受-XX:MaxDirectMemorySize限制, 默认与-Xmx相同.
+ */
+final class OffHeapSegments {
+
+    static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * 一条记录在段中的位置, 是主键索引中唯一的堆上对象
+     */
+    static final class Ref {
+        final Segment segment;
+        final int offset;
+        final int length;
+
+        Ref(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * @return 只包含这条记录的小端视图
+         */
+        ByteBuffer read() {
+            ByteBuffer record = segment.buffer.duplicate();
+            record.limit(offset + length).position(offset);
+            return record.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    static final class Segment {
+        private final ByteBuffer buffer;
+        private int used;
+        private int live;
+
+        Segment(int capacity) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+    }
+
+    private Segment current = new Segment(SEGMENT_SIZE);
+
+    /**
+     * 已经写满的段中还有活数据的段
+     */
+    private final Set<Segment> sealed = new HashSet<>();
+
+    private long allocatedBytes = SEGMENT_SIZE;
+    private long liveBytes;
+
+    /**
+     * 把一条记录复制到当前段, 当前段放不下时换一个新段, 超过段大小的记录单独占一个段
+     */
+    synchronized Ref write(ByteBuffer record) {
+        int length = record.remaining();
+        Segment segment = current;
+        if (segment.used + length > segment.buffer.capacity()) {
+            segment = new Segment(Math.max(SEGMENT_SIZE, length));
+            allocatedBytes += segment.buffer.capacity();
+            seal(current);
+            current = segment;
+        }
+        int offset = segment.used;
+        ByteBuffer target = segment.buffer.duplicate();
+        target.position(offset);
+        target.put(record);
+        segment.used += length;
+        segment.live += length;
+        liveBytes += length;
+        return new Ref(segment, offset, length);
+    }
+
+    /**
+     * 复制一条已有的记录, 用于搬迁
+     */
+    Ref copy(Ref ref) {
+        return write(ref.read());
+    }
+
+    /**
+     * 记录被新版本取代或者被删除, 整段都是垃圾时不再持有该段
+     */
+    synchronized void free(Ref ref) {
+        Segment segment = ref.segment;
+        segment.live -= ref.length;
+        liveBytes -= ref.length;
+        if (segment.live == 0 && segment != current && sealed.remove(segment)) {
+            allocatedBytes -= segment.buffer.capacity();
+        }
+    }
+
+    private void seal(Segment segment) {
+        if (segment.live > 0) {
+            sealed.add(segment);
+        } else {
+            allocatedBytes -= segment.buffer.capacity();
+        }
+    }
+
+    /**
+     * @return 已经写满并且活数据不到一半的段, 应该把其中的记录搬走
+     */
+    synchronized boolean isSparse(Segment segment) {
+        return segment != current && segment.live * 2 < segment.buffer.capacity();
+    }
+
+    /**
+     * @return 写满的段中垃圾超过一半
+     */
+    synchronized boolean needsCompaction() {
+        return (liveBytes - current.live) * 2 < allocatedBytes - current.buffer.capacity();
+    }
+
+    /**
+     * @return 持有的堆外内存字节数
+     */
+    synchronized long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return 活记录的字节数
+     */
+    synchronized long liveBytes() {
+        return liveBytes;
+    }
+}
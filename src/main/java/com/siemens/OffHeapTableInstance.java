@@ -0,0 +1,160 @@
+package com.siemens;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.function.UnaryOperator;
+
+/**
+ * 行数据存放在堆外的表({@link StorageMode#OFF_HEAP}).
+ * <p>
+ * 主键索引仍然是按主键排序的跳表, 但值只是一个指向堆外段中已编码行的引用, 每行在堆上只剩编码的主键, 跳表节点和这个引用,
+ * 列名, 列值和版本都以{@link BinaryCodec#putColumns}的格式放在{@link OffHeapSegments}中, 读取时才解码成RowVersion.
+ * 写操作在分段锁内编码新版本, 追加到段中后替换索引中的引用; 读操作与堆上的表一样不加锁.
+ * <p>
+ * 写满的段中垃圾超过一半时, 在ForkJoinPool.commonPool上逐行把稀疏段中的活记录搬到当前段,
+ * 每次只持有一行的分段锁, 不会长时间阻塞写者.
+ */
+final class OffHeapTableInstance extends InMemoryTableInstance {
+
+    private static final ThreadLocal<BinaryCodec.Output> ENCODE_BUFFER =
+            ThreadLocal.withInitial(() -> new BinaryCodec.Output(256));
+
+    /**
+     * 索引和段一起替换, 写者和搬迁都在分段锁内访问
+     */
+    private volatile ConcurrentSkipListMap<EncodedPrimaryKey, OffHeapSegments.Ref> index = new ConcurrentSkipListMap<>();
+    private volatile OffHeapSegments segments = new OffHeapSegments();
+
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    @Override
+    NavigableMap<EncodedPrimaryKey, RowVersion> getRows() {
+        return Maps.transformEntries(index, OffHeapTableInstance::decode);
+    }
+
+    private static RowVersion decode(EncodedPrimaryKey primaryKey, OffHeapSegments.Ref ref) {
+        return BinaryCodec.getRowVersion(primaryKey, ref.read());
+    }
+
+    @Override
+    RowVersion get(EncodedPrimaryKey primaryKey) {
+        OffHeapSegments.Ref ref = index.get(primaryKey);
+        return ref == null ? null : decode(primaryKey, ref);
+    }
+
+    @Override
+    Object reference(EncodedPrimaryKey primaryKey) {
+        return index.get(primaryKey);
+    }
+
+    @Override
+    RowVersion version(EncodedPrimaryKey primaryKey, Object reference) {
+        return reference == null ? null : decode(primaryKey, (OffHeapSegments.Ref) reference);
+    }
+
+    /**
+     * 调用方必须持有该行的分段锁, 同一行没有并发的写者, 替换引用一定成功
+     */
+    @Override
+    RowVersion compute(EncodedPrimaryKey primaryKey, UnaryOperator<RowVersion> mutation) {
+        ConcurrentSkipListMap<EncodedPrimaryKey, OffHeapSegments.Ref> index = this.index;
+        OffHeapSegments segments = this.segments;
+        OffHeapSegments.Ref ref = index.get(primaryKey);
+        RowVersion current = ref == null ? null : decode(primaryKey, ref);
+        RowVersion next = mutation.apply(current);
+        if (next == current) {
+            return current;
+        }
+        if (next == null) {
+            index.remove(primaryKey);
+        } else {
+            index.put(primaryKey, write(segments, next));
+        }
+        published(current, next);
+        if (ref != null) {
+            segments.free(ref);
+            if (segments.needsCompaction() && compacting.compareAndSet(false, true)) {
+                ForkJoinPool.commonPool().execute(() -> {
+                    try {
+                        compact();
+                    } finally {
+                        compacting.set(false);
+                    }
+                });
+            }
+        }
+        return next;
+    }
+
+    private static OffHeapSegments.Ref write(OffHeapSegments segments, RowVersion version) {
+        BinaryCodec.Output buffer = ENCODE_BUFFER.get();
+        buffer.clear();
+        BinaryCodec.putColumns(buffer, version);
+        return segments.write(buffer.view());
+    }
+
+    /**
+     * 把稀疏段中的活记录逐行搬到当前段, 搬完后稀疏段不再被索引引用
+     */
+    void compact() {
+        for (Map.Entry<EncodedPrimaryKey, OffHeapSegments.Ref> entry : index.entrySet()) {
+            if (!segments.isSparse(entry.getValue().segment)) {
+                continue;
+            }
+            Lock lock = lockFor(entry.getKey());
+            lock(lock);
+            try {
+                OffHeapSegments segments = this.segments;
+                OffHeapSegments.Ref ref = index.get(entry.getKey());
+                if (ref != null && segments.isSparse(ref.segment)) {
+                    index.put(entry.getKey(), segments.copy(ref));
+                    segments.free(ref);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 堆外的新数据, 新段和指向其中的索引. 行按顺序直接编码到新段中, 堆上只按有序输入O(n)建主键到引用的索引,
+     * 不再先建一份堆上的整表; 批量加载和快照的行在换上之后就不再被引用
+     */
+    private static final class OffHeapReplacement extends Replacement {
+
+        final OffHeapSegments segments = new OffHeapSegments();
+        final ConcurrentSkipListMap<EncodedPrimaryKey, OffHeapSegments.Ref> index;
+
+        OffHeapReplacement(SortedMap<EncodedPrimaryKey, RowVersion> data, SecondaryIndex[] indexes) {
+            super(data, indexes);
+            index = new ConcurrentSkipListMap<>(Maps.transformValues(data, version -> write(segments, version)));
+        }
+    }
+
+    @Override
+    Replacement prepare(SortedMap<EncodedPrimaryKey, RowVersion> data) {
+        return new OffHeapReplacement(data, indexes);
+    }
+
+    @Override
+    void install(Replacement replacement) {
+        OffHeapReplacement offHeap = (OffHeapReplacement) replacement;
+        index = offHeap.index;
+        segments = offHeap.segments;
+        apply(replacement);
+    }
+
+    /**
+     * @return 持有的堆外内存字节数
+     */
+    long offHeapBytes() {
+        return segments.allocatedBytes();
+    }
+}
@@ -0,0 +1,23 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.PrimaryKey;
+
+import java.util.Comparator;
+
+/**
+ * 按TableStore的主键顺序比较主键: 逐列比较主键值, INF_MIN最小, INF_MAX最大.
+ * 与PrimaryKey.compareTo不同, 列数不同或者列类型不同时不会抛异常(短的主键排在前面, 类型按枚举顺序),
+ * 这样同一张表中schema不一致的数据也能放进有序Map中.
+ * <p>
+ * 比较的是{@link EncodedPrimaryKey}的字节编码, 字符串按UTF-8字节序, 与服务端一致. 每次比较都要先编码两边,
+ * 只适合偶尔的调用; 存储层的key都是EncodedPrimaryKey, 按它自己的字节序比较.
+ */
+public class PrimaryKeyComparator implements Comparator<PrimaryKey> {
+
+    public static final PrimaryKeyComparator INSTANCE = new PrimaryKeyComparator();
+
+    @Override
+    public int compare(PrimaryKey o1, PrimaryKey o2) {
+        return EncodedPrimaryKey.compare(o1, o2);
+    }
+}
@@ -0,0 +1,141 @@
+package com.siemens;
+
+import java.io.Closeable;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 在后台逐步回收过期和超出maxVersions的版本, 见{@link VersionRetention}.
+ * <p>
+ * 读和写只是看不到这些版本, 没有再被写到的行仍然占着内存; 后台线程每隔{@link #INTERVAL_MILLIS}醒来一次,
+ * 在设置了timeToLive或maxVersions的表上轮流从上次停下的主键继续扫描, 每片最多{@link #SLICE_ROWS}行,
+ * 一次最多占用{@link #BUDGET_NANOS}, 用完后留到下一次, 每张表扫完一遍后等下一次醒来再从头开始.
+ * 扫描不加锁, 发现有不可见的版本时才获取这一行的分段锁, 在最新的版本上重新计算后发布,
+ * 每次只持有一个分段锁, 不会长时间阻塞写者. 行数和数据量的统计随compute一起更新. 回收不写预写日志, 回放后的版本照样不可见.
+ * <p>
+ * 每回收一行在{@link StoreMetrics}中以{@link #OPERATION}记一次; 回收某一行失败时记为失败并跳过这一行继续扫描,
+ * 下一遍扫描时再重试, 一直失败的行不会让后台线程停在同一个位置.
+ */
+final class RetentionCompactor implements Closeable {
+
+    static final long INTERVAL_MILLIS = 100;
+
+    static final int SLICE_ROWS = 256;
+
+    static final long BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    static final String OPERATION = "retentionCompaction";
+
+    private final Map<String, InMemoryTableInstance> tables;
+
+    private final StoreMetrics.Operation metrics;
+
+    /**
+     * 每张表上一片扫描到的最后一个主键, 扫完一遍后移除
+     */
+    private final Map<InMemoryTableInstance, EncodedPrimaryKey> cursors = new IdentityHashMap<>();
+
+    private ScheduledExecutorService sweeper;
+
+    RetentionCompactor(Map<String, InMemoryTableInstance> tables, StoreMetrics.Operation metrics) {
+        this.tables = tables;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 启动后台线程, 已经启动时什么也不做. 在第一张设置了timeToLive或maxVersions的表创建时调用
+     */
+    synchronized void start() {
+        if (sweeper == null) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "mock-tablestore-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            sweeper.scheduleWithFixedDelay(() -> {
+                try {
+                    sweep();
+                } catch (RuntimeException e) {
+                    // 不让一次失败终止后台线程
+                    metrics.failed();
+                }
+            }, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 在所有表上轮流扫描, 直到每张表都扫完一遍或者用完{@link #BUDGET_NANOS}
+     */
+    synchronized void sweep() {
+        long deadline = System.nanoTime() + BUDGET_NANOS;
+        cursors.keySet().retainAll(tables.values());
+        boolean more = true;
+        while (more) {
+            more = false;
+            for (InMemoryTableInstance table : tables.values()) {
+                if (table.retention.isUnlimited()) {
+                    continue;
+                }
+                more |= sweep(table);
+                if (System.nanoTime() - deadline >= 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 扫描一片
+     *
+     * @return 这张表还没有扫完一遍
+     */
+    private boolean sweep(InMemoryTableInstance table) {
+        VersionRetention retention = table.retention;
+        long now = System.currentTimeMillis();
+        EncodedPrimaryKey cursor = cursors.get(table);
+        NavigableMap<EncodedPrimaryKey, RowVersion> data = table.getRows();
+        NavigableMap<EncodedPrimaryKey, RowVersion> rest = cursor == null ? data : data.tailMap(cursor, false);
+        EncodedPrimaryKey last = null;
+        int scanned = 0;
+        for (Map.Entry<EncodedPrimaryKey, RowVersion> entry : rest.entrySet()) {
+            if (scanned++ == SLICE_ROWS) {
+                cursors.put(table, last);
+                return true;
+            }
+            last = entry.getKey();
+            RowVersion version = entry.getValue();
+            if (retention.visible(version, now) != version) {
+                reclaim(table, last);
+            }
+        }
+        cursors.remove(table);
+        return false;
+    }
+
+    private void reclaim(InMemoryTableInstance table, EncodedPrimaryKey primaryKey) {
+        long start = metrics.start();
+        Lock lock = table.lockFor(primaryKey);
+        table.lock(lock);
+        try {
+            table.compute(primaryKey, table::visible);
+        } catch (RuntimeException e) {
+            metrics.failed();
+        } finally {
+            lock.unlock();
+            metrics.record(start);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+    }
+}
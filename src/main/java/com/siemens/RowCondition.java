@@ -0,0 +1,58 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.TableStoreException;
+import com.alicloud.openservices.tablestore.model.Condition;
+import com.alicloud.openservices.tablestore.model.RowExistenceExpectation;
+
+/**
+ * 编译后的写条件: 行存在性期望 + 列条件.
+ * 在持有该行分段写锁的情况下对当前版本求值, 因此检查和写入对同一行是原子的, 不会串行化其他行.
+ */
+final class RowCondition {
+
+    static final RowCondition IGNORE = new RowCondition(RowExistenceExpectation.IGNORE, RowFilter.ACCEPT_ALL);
+
+    private final RowExistenceExpectation expectation;
+    private final RowFilter columnCondition;
+
+    private RowCondition(RowExistenceExpectation expectation, RowFilter columnCondition) {
+        this.expectation = expectation;
+        this.columnCondition = columnCondition;
+    }
+
+    static RowCondition of(Condition condition) {
+        if (condition == null) {
+            return IGNORE;
+        }
+        RowExistenceExpectation expectation = condition.getRowExistenceExpectation() == null
+                ? RowExistenceExpectation.IGNORE : condition.getRowExistenceExpectation();
+        RowFilter columnCondition = RowFilter.compile(condition.getColumnCondition());
+        if (expectation == RowExistenceExpectation.IGNORE && columnCondition == RowFilter.ACCEPT_ALL) {
+            return IGNORE;
+        }
+        return new RowCondition(expectation, columnCondition);
+    }
+
+    /**
+     * @param current 该行当前的版本, 不存在时为null
+     * @throws TableStoreException OTSConditionCheckFail
+     */
+    void check(RowVersion current) {
+        if (this == IGNORE) {
+            return;
+        }
+        if (expectation == RowExistenceExpectation.EXPECT_EXIST && current == null) {
+            throw conditionCheckFail("Condition check failed: the row does not exist.");
+        }
+        if (expectation == RowExistenceExpectation.EXPECT_NOT_EXIST && current != null) {
+            throw conditionCheckFail("Condition check failed: the row already exists.");
+        }
+        if (!columnCondition.accept(current == null ? RowVersion.EMPTY : current)) {
+            throw conditionCheckFail("Condition check failed: the column condition is not satisfied.");
+        }
+    }
+
+    static TableStoreException conditionCheckFail(String message) {
+        return new TableStoreException(message, null, "OTSConditionCheckFail", "0", 403);
+    }
+}
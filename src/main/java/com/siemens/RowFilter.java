@@ -0,0 +1,217 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.Column;
+import com.alicloud.openservices.tablestore.model.ColumnValue;
+import com.alicloud.openservices.tablestore.model.condition.ColumnCondition;
+import com.alicloud.openservices.tablestore.model.condition.CompositeColumnValueCondition;
+import com.alicloud.openservices.tablestore.model.condition.SingleColumnValueCondition;
+import com.alicloud.openservices.tablestore.model.filter.ColumnPaginationFilter;
+import com.alicloud.openservices.tablestore.model.filter.ColumnValueFilter;
+import com.alicloud.openservices.tablestore.model.filter.CompositeColumnValueFilter;
+import com.alicloud.openservices.tablestore.model.filter.Filter;
+import com.alicloud.openservices.tablestore.model.filter.SingleColumnValueFilter;
+
+import java.util.List;
+
+/**
+ * 行过滤器. 每个请求把SDK的过滤器树编译一次, 之后直接在RowVersion的列索引上求值,
+ * 求值过程只做二分查找和ColumnValue比较, 不分配对象.
+ * ColumnPaginationFilter是列级别的分页, 由RowProjection处理, 在这里相当于不过滤.
+ */
+abstract class RowFilter {
+
+    /**
+     * 不过滤任何行
+     */
+    static final RowFilter ACCEPT_ALL = new RowFilter() {
+        @Override
+        boolean accept(RowVersion row) {
+            return true;
+        }
+    };
+
+    /**
+     * @param row 当前版本, 不能为null
+     * @return 该行是否满足过滤条件
+     */
+    abstract boolean accept(RowVersion row);
+
+    static RowFilter compile(Filter filter) {
+        if (filter == null || filter instanceof ColumnPaginationFilter) {
+            return ACCEPT_ALL;
+        }
+        if (filter instanceof SingleColumnValueFilter) {
+            SingleColumnValueFilter single = (SingleColumnValueFilter) filter;
+            return new SingleColumn(single.getColumnName(), Operator.valueOf(single.getOperator().name()),
+                    single.getColumnValue(), single.isPassIfMissing(), single.isLatestVersionsOnly());
+        }
+        if (filter instanceof CompositeColumnValueFilter) {
+            CompositeColumnValueFilter composite = (CompositeColumnValueFilter) filter;
+            List<ColumnValueFilter> subFilters = composite.getSubFilters();
+            RowFilter[] children = new RowFilter[subFilters.size()];
+            for (int i = 0; i < children.length; i++) {
+                children[i] = compile(subFilters.get(i));
+            }
+            return logic(composite.getOperationType().name(), children);
+        }
+        throw new UnsupportedOperationException("filter " + filter.getFilterType() + " not support yet");
+    }
+
+    /**
+     * 条件写入的列条件与过滤器结构相同, 编译成同一套谓词
+     */
+    static RowFilter compile(ColumnCondition condition) {
+        if (condition == null) {
+            return ACCEPT_ALL;
+        }
+        if (condition instanceof SingleColumnValueCondition) {
+            SingleColumnValueCondition single = (SingleColumnValueCondition) condition;
+            return new SingleColumn(single.getColumnName(), Operator.valueOf(single.getOperator().name()),
+                    single.getColumnValue(), single.isPassIfMissing(), single.isLatestVersionsOnly());
+        }
+        if (condition instanceof CompositeColumnValueCondition) {
+            CompositeColumnValueCondition composite = (CompositeColumnValueCondition) condition;
+            List<ColumnCondition> subConditions = composite.getSubConditions();
+            RowFilter[] children = new RowFilter[subConditions.size()];
+            for (int i = 0; i < children.length; i++) {
+                children[i] = compile(subConditions.get(i));
+            }
+            return logic(composite.getOperationType().name(), children);
+        }
+        throw new UnsupportedOperationException("column condition " + condition.getConditionType() + " not support yet");
+    }
+
+    /**
+     * 组合过滤条件, 条件更新(ColumnCondition)与过滤器共用同一套求值
+     */
+    static RowFilter logic(String operator, RowFilter[] children) {
+        switch (operator) {
+            case "AND":
+                return new And(children);
+            case "OR":
+                return new Or(children);
+            case "NOT":
+                if (children.length != 1) {
+                    throw new IllegalArgumentException("NOT should have exactly one sub filter.");
+                }
+                return new Not(children[0]);
+            default:
+                throw new UnsupportedOperationException("logic operator " + operator + " not support yet");
+        }
+    }
+
+    enum Operator {
+        EQUAL, NOT_EQUAL, GREATER_THAN, GREATER_EQUAL, LESS_THAN, LESS_EQUAL;
+
+        boolean test(int compared) {
+            switch (this) {
+                case EQUAL:
+                    return compared == 0;
+                case NOT_EQUAL:
+                    return compared != 0;
+                case GREATER_THAN:
+                    return compared > 0;
+                case GREATER_EQUAL:
+                    return compared >= 0;
+                case LESS_THAN:
+                    return compared < 0;
+                default:
+                    return compared <= 0;
+            }
+        }
+    }
+
+    static final class SingleColumn extends RowFilter {
+
+        private final String columnName;
+        private final Operator operator;
+        private final ColumnValue value;
+        private final boolean passIfMissing;
+        private final boolean latestVersionsOnly;
+
+        SingleColumn(String columnName, Operator operator, ColumnValue value, boolean passIfMissing,
+                     boolean latestVersionsOnly) {
+            this.columnName = columnName;
+            this.operator = operator;
+            this.value = value;
+            this.passIfMissing = passIfMissing;
+            this.latestVersionsOnly = latestVersionsOnly;
+        }
+
+        @Override
+        boolean accept(RowVersion row) {
+            Column[] versions = row.versionsOf(columnName);
+            if (versions == null) {
+                return passIfMissing;
+            }
+            if (latestVersionsOnly) {
+                return matches(versions[0].getValue());
+            }
+            for (Column version : versions) {
+                if (matches(version.getValue())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 类型不同的值不可比较, 视为不满足
+         */
+        private boolean matches(ColumnValue actual) {
+            return actual.getType() == value.getType() && operator.test(actual.compareTo(value));
+        }
+    }
+
+    static final class And extends RowFilter {
+
+        private final RowFilter[] children;
+
+        And(RowFilter[] children) {
+            this.children = children;
+        }
+
+        @Override
+        boolean accept(RowVersion row) {
+            for (RowFilter child : children) {
+                if (!child.accept(row)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static final class Or extends RowFilter {
+
+        private final RowFilter[] children;
+
+        Or(RowFilter[] children) {
+            this.children = children;
+        }
+
+        @Override
+        boolean accept(RowVersion row) {
+            for (RowFilter child : children) {
+                if (child.accept(row)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static final class Not extends RowFilter {
+
+        private final RowFilter child;
+
+        Not(RowFilter child) {
+            this.child = child;
+        }
+
+        @Override
+        boolean accept(RowVersion row) {
+            return !child.accept(row);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.Column;
+import com.alicloud.openservices.tablestore.model.Row;
+import com.alicloud.openservices.tablestore.model.RowQueryCriteria;
+import com.alicloud.openservices.tablestore.model.TimeRange;
+import com.alicloud.openservices.tablestore.model.filter.ColumnPaginationFilter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 读请求的列投影: 行过滤器, columnsToGet, maxVersions, timeRange, startColumn/endColumn以及ColumnPaginationFilter.
+ * 每个请求只从RowQueryCriteria编译一次, 然后直接在RowVersion的列索引上挑选需要的列和版本,
+ * 只有被选中的Column会被放进响应的Row, 开销与结果大小成正比而不是与整行大小成正比.
+ */
+final class RowProjection {
+
+    /**
+     * 没有任何限制, 返回整行的所有版本
+     */
+    static final RowProjection ALL = new RowProjection(RowFilter.ACCEPT_ALL, null, Integer.MAX_VALUE,
+            Long.MIN_VALUE, Long.MAX_VALUE, null, null, 0, Integer.MAX_VALUE);
+
+    private final RowFilter filter;
+
+    /**
+     * 升序的列名, null表示所有列
+     */
+    private final String[] columnsToGet;
+    private final int maxVersions;
+    /**
+     * 时间范围[minTimestamp, maxTimestamp)
+     */
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    /**
+     * 列名范围[startColumn, endColumn), null表示不限制
+     */
+    private final String startColumn;
+    private final String endColumn;
+    /**
+     * ColumnPaginationFilter: 跳过前columnOffset个列, 最多返回columnLimit个列
+     */
+    private final int columnOffset;
+    private final int columnLimit;
+
+    private RowProjection(RowFilter filter, String[] columnsToGet, int maxVersions, long minTimestamp,
+                          long maxTimestamp, String startColumn, String endColumn, int columnOffset, int columnLimit) {
+        this.filter = filter;
+        this.columnsToGet = columnsToGet;
+        this.maxVersions = maxVersions;
+        this.minTimestamp = minTimestamp;
+        this.maxTimestamp = maxTimestamp;
+        this.startColumn = startColumn;
+        this.endColumn = endColumn;
+        this.columnOffset = columnOffset;
+        this.columnLimit = columnLimit;
+    }
+
+    /**
+     * 没有设置maxVersions和timeRange时返回所有版本, 与之前的行为保持一致
+     */
+    static RowProjection of(RowQueryCriteria criteria) {
+        String[] columnsToGet = null;
+        if (criteria.getColumnsToGet() != null && !criteria.getColumnsToGet().isEmpty()) {
+            columnsToGet = criteria.getColumnsToGet().toArray(new String[0]);
+            Arrays.sort(columnsToGet);
+        }
+        int maxVersions = criteria.hasSetMaxVersions() ? criteria.getMaxVersions() : Integer.MAX_VALUE;
+        long minTimestamp = Long.MIN_VALUE;
+        long maxTimestamp = Long.MAX_VALUE;
+        if (criteria.hasSetTimeRange()) {
+            TimeRange timeRange = criteria.getTimeRange();
+            minTimestamp = timeRange.getStart();
+            maxTimestamp = timeRange.getEnd();
+        }
+        String startColumn = criteria.hasSetStartColumn() ? criteria.getStartColumn() : null;
+        String endColumn = criteria.hasSetEndColumn() ? criteria.getEndColumn() : null;
+        RowFilter filter = RowFilter.ACCEPT_ALL;
+        int columnOffset = 0;
+        int columnLimit = Integer.MAX_VALUE;
+        if (criteria.hasSetFilter()) {
+            filter = RowFilter.compile(criteria.getFilter());
+            if (criteria.getFilter() instanceof ColumnPaginationFilter) {
+                ColumnPaginationFilter pagination = (ColumnPaginationFilter) criteria.getFilter();
+                columnOffset = pagination.getOffset();
+                columnLimit = pagination.getLimit();
+            }
+        }
+        if (filter == RowFilter.ACCEPT_ALL && columnsToGet == null && maxVersions == Integer.MAX_VALUE
+                && !criteria.hasSetTimeRange() && startColumn == null && endColumn == null
+                && columnOffset == 0 && columnLimit == Integer.MAX_VALUE) {
+            return ALL;
+        }
+        return new RowProjection(filter, columnsToGet, maxVersions, minTimestamp, maxTimestamp,
+                startColumn, endColumn, columnOffset, columnLimit);
+    }
+
+    /**
+     * @return 投影后的Row; 行不存在, 被过滤掉, 或者没有选中任何列且没有要求返回主键时返回null
+     */
+    Row project(RowVersion version) {
+        if (version == null || !filter.accept(version)) {
+            return null;
+        }
+        if (this == ALL) {
+            return version.getRow();
+        }
+        List<Column> selected = new ArrayList<>();
+        // 已经遇到的有数据的列数, 用于ColumnPaginationFilter
+        int seen = 0;
+        if (columnsToGet != null) {
+            for (String name : columnsToGet) {
+                if (seen - columnOffset >= columnLimit) {
+                    break;
+                }
+                if (!inColumnRange(name)) {
+                    continue;
+                }
+                int index = version.indexOf(name);
+                if (index >= 0 && selectVersions(version.versionsAt(index), selected, seen >= columnOffset)) {
+                    seen++;
+                }
+            }
+        } else {
+            int index = 0;
+            if (startColumn != null) {
+                index = version.indexOf(startColumn);
+                index = index < 0 ? -index - 1 : index;
+            }
+            for (; index < version.columnCount() && seen - columnOffset < columnLimit; index++) {
+                if (endColumn != null && version.nameAt(index).compareTo(endColumn) >= 0) {
+                    break;
+                }
+                if (selectVersions(version.versionsAt(index), selected, seen >= columnOffset)) {
+                    seen++;
+                }
+            }
+        }
+        if (selected.isEmpty() && !selectsPrimaryKey(version)) {
+            return null;
+        }
+        return new Row(version.getPrimaryKey().toPrimaryKey(), selected);
+    }
+
+    private boolean inColumnRange(String name) {
+        return (startColumn == null || name.compareTo(startColumn) >= 0)
+                && (endColumn == null || name.compareTo(endColumn) < 0);
+    }
+
+    /**
+     * columnsToGet中包含主键列时, 即使没有选中属性列也要返回主键
+     */
+    private boolean selectsPrimaryKey(RowVersion version) {
+        if (columnsToGet == null) {
+            return false;
+        }
+        EncodedPrimaryKey primaryKey = version.getPrimaryKey();
+        for (int i = 0; i < primaryKey.size(); i++) {
+            if (Arrays.binarySearch(columnsToGet, primaryKey.nameAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * versions按时间戳降序, 先二分定位到第一个小于maxTimestamp的版本, 再取不超过maxVersions个
+     *
+     * @param emit false时只判断有没有满足条件的版本, 用于ColumnPaginationFilter跳过前面的列
+     * @return 该列是否有满足条件的版本
+     */
+    private boolean selectVersions(Column[] versions, List<Column> selected, boolean emit) {
+        int from = 0;
+        if (maxTimestamp != Long.MAX_VALUE) {
+            from = RowVersion.indexOfTimestamp(versions, maxTimestamp);
+            from = from < 0 ? -from - 1 : from + 1;
+        }
+        int taken = 0;
+        for (int i = from; i < versions.length && taken < maxVersions; i++, taken++) {
+            if (versions[i].getTimestamp() < minTimestamp) {
+                break;
+            }
+            if (!emit) {
+                return true;
+            }
+            selected.add(versions[i]);
+        }
+        return taken > 0;
+    }
+}
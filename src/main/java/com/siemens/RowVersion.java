@@ -0,0 +1,386 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.Column;
+import com.alicloud.openservices.tablestore.model.ColumnValue;
+import com.alicloud.openservices.tablestore.model.Row;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一行数据的一个不可变版本.
+ * 写操作在分段锁内一次性构造出新的列集合, 再把新版本整体发布到表中; 读操作直接读取当前版本, 永远不会被阻塞.
+ * 没有覆盖equals, compute比较的是对象引用.
+ * <p>
+ * 行内按列名建立索引: names按列名升序, versions[i]是列names[i]的所有版本, 按时间戳降序.
+ * 查找某列是O(log c), 查找该列的某个版本或最新版本是O(log v);
+ * SDK的Row(包括其中的PrimaryKey)只在需要放进响应时才构造, 并缓存在版本上.
+ */
+final class RowVersion {
+
+    private static final String[] NO_NAMES = new String[0];
+    private static final Column[][] NO_VERSIONS = new Column[0][];
+
+    /**
+     * 没有任何列的空行, 用于在不存在的行上求值列条件
+     */
+    static final RowVersion EMPTY = new RowVersion(null, NO_NAMES, NO_VERSIONS, 0);
+
+    private final EncodedPrimaryKey primaryKey;
+    private final String[] names;
+    private final Column[][] versions;
+
+    /**
+     * 主键和所有列版本的数据大小(见{@link CapacityUnits}), Builder构造时增量算出, 用于统计表的数据量.
+     * 直接用列索引构造的版本懒加载, -1表示还没有计算
+     */
+    private long dataSize;
+
+    /**
+     * 懒加载的Row, 并发构造多次也没有问题
+     */
+    private volatile Row row;
+
+    private RowVersion(EncodedPrimaryKey primaryKey, String[] names, Column[][] versions, long dataSize) {
+        this.primaryKey = primaryKey;
+        this.names = names;
+        this.versions = versions;
+        this.dataSize = dataSize;
+    }
+
+    /**
+     * 直接用已经排好序的列索引构造版本, 用于从快照加载
+     *
+     * @param names    升序的列名
+     * @param versions versions[i]是列names[i]的所有版本, 按时间戳降序
+     */
+    static RowVersion of(EncodedPrimaryKey primaryKey, String[] names, Column[][] versions) {
+        return new RowVersion(primaryKey, names.length == 0 ? NO_NAMES : names,
+                versions.length == 0 ? NO_VERSIONS : versions, -1);
+    }
+
+    EncodedPrimaryKey getPrimaryKey() {
+        return primaryKey;
+    }
+
+    /**
+     * @return 不同列名的数量
+     */
+    int columnCount() {
+        return names.length;
+    }
+
+    String nameAt(int index) {
+        return names[index];
+    }
+
+    /**
+     * @return 第index列的所有版本, 按时间戳降序, 调用方不能修改
+     */
+    Column[] versionsAt(int index) {
+        return versions[index];
+    }
+
+    /**
+     * @return 列在索引中的位置, 不存在时返回-(插入位置)-1
+     */
+    int indexOf(String name) {
+        return Arrays.binarySearch(names, name);
+    }
+
+    /**
+     * @return 列的所有版本, 按时间戳降序, 列不存在时返回null. 调用方不能修改
+     */
+    Column[] versionsOf(String name) {
+        int index = indexOf(name);
+        return index < 0 ? null : versions[index];
+    }
+
+    Column getLatestColumn(String name) {
+        Column[] columnVersions = versionsOf(name);
+        return columnVersions == null ? null : columnVersions[0];
+    }
+
+    /**
+     * @return 指定时间戳的版本, 不存在时返回null
+     */
+    Column getColumn(String name, long timestamp) {
+        Column[] columnVersions = versionsOf(name);
+        if (columnVersions == null) {
+            return null;
+        }
+        int index = indexOfTimestamp(columnVersions, timestamp);
+        return index < 0 ? null : columnVersions[index];
+    }
+
+    List<Column> getColumn(String name) {
+        Column[] columnVersions = versionsOf(name);
+        return columnVersions == null ? Collections.<Column>emptyList() : Arrays.asList(columnVersions);
+    }
+
+    Column[] getColumns() {
+        return getRow().getColumns();
+    }
+
+    boolean isEmpty() {
+        return names.length == 0;
+    }
+
+    long dataSize() {
+        long result = dataSize;
+        if (result < 0) {
+            result = primaryKey.dataSize();
+            for (Column[] columnVersions : versions) {
+                result += sizeOf(columnVersions);
+            }
+            dataSize = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return 所有列最新版本中最大的时间戳, 没有列时为Long.MIN_VALUE
+     */
+    long latestTimestamp() {
+        long result = Long.MIN_VALUE;
+        for (Column[] columnVersions : versions) {
+            result = Math.max(result, columnVersions[0].getTimestamp());
+        }
+        return result;
+    }
+
+    /**
+     * 去掉过期的版本以及每列超出maxVersions的旧版本
+     *
+     * @param minTimestamp 时间戳小于它的版本已经过期
+     * @param maxVersions  每列最多保留的版本数
+     * @return 没有要去掉的版本时返回原对象; 原来有列但所有版本都被去掉时返回null, 表示这一行已经不存在
+     */
+    RowVersion retain(long minTimestamp, int maxVersions) {
+        int[] kept = null;
+        int keptColumns = 0;
+        for (int i = 0; i < versions.length; i++) {
+            Column[] columnVersions = versions[i];
+            int keep = Math.min(columnVersions.length, maxVersions);
+            while (keep > 0 && columnVersions[keep - 1].getTimestamp() < minTimestamp) {
+                keep--;
+            }
+            if (keep != columnVersions.length && kept == null) {
+                kept = new int[versions.length];
+                for (int j = 0; j < i; j++) {
+                    kept[j] = versions[j].length;
+                }
+            }
+            if (kept != null) {
+                kept[i] = keep;
+            }
+            if (keep > 0) {
+                keptColumns++;
+            }
+        }
+        if (kept == null) {
+            return this;
+        }
+        if (keptColumns == 0) {
+            return null;
+        }
+        String[] keptNames = new String[keptColumns];
+        Column[][] keptVersions = new Column[keptColumns][];
+        for (int i = 0, j = 0; i < versions.length; i++) {
+            if (kept[i] > 0) {
+                keptNames[j] = names[i];
+                keptVersions[j++] = kept[i] == versions[i].length ? versions[i] : Arrays.copyOf(versions[i], kept[i]);
+            }
+        }
+        return new RowVersion(primaryKey, keptNames, keptVersions, -1);
+    }
+
+    private static long sizeOf(Column[] columnVersions) {
+        long size = 0;
+        for (Column column : columnVersions) {
+            size += CapacityUnits.size(column);
+        }
+        return size;
+    }
+
+    /**
+     * @return 该版本对应的SDK Row, 可以直接放到响应中
+     */
+    Row getRow() {
+        Row result = row;
+        if (result == null) {
+            int size = 0;
+            for (Column[] columnVersions : versions) {
+                size += columnVersions.length;
+            }
+            Column[] columns = new Column[size];
+            int offset = 0;
+            for (Column[] columnVersions : versions) {
+                System.arraycopy(columnVersions, 0, columns, offset, columnVersions.length);
+                offset += columnVersions.length;
+            }
+            result = new Row(primaryKey.toPrimaryKey(), columns);
+            row = result;
+        }
+        return result;
+    }
+
+    Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    @Override
+    public String toString() {
+        return getRow().toString();
+    }
+
+    /**
+     * 在按时间戳降序的版本数组中二分查找
+     *
+     * @return 版本的位置, 不存在时返回-(插入位置)-1
+     */
+    static int indexOfTimestamp(Column[] columnVersions, long timestamp) {
+        int low = 0;
+        int high = columnVersions.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midTimestamp = columnVersions[mid].getTimestamp();
+            if (midTimestamp > timestamp) {
+                low = mid + 1;
+            } else if (midTimestamp < timestamp) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * 基于一个版本构造下一个版本. 修改某列时只复制该列的版本数组, 其余列与原版本共享.
+     * 所有写入的列都必须带时间戳.
+     */
+    static final class Builder {
+
+        private final EncodedPrimaryKey primaryKey;
+        private final ArrayList<String> names;
+        private final ArrayList<Column[]> versions;
+        private long dataSize;
+
+        Builder(EncodedPrimaryKey primaryKey) {
+            this.primaryKey = primaryKey;
+            this.names = new ArrayList<>();
+            this.versions = new ArrayList<>();
+            this.dataSize = primaryKey.dataSize();
+        }
+
+        Builder(RowVersion base) {
+            this.primaryKey = base.primaryKey;
+            this.names = new ArrayList<>(Arrays.asList(base.names));
+            this.versions = new ArrayList<>(Arrays.asList(base.versions));
+            this.dataSize = base.dataSize();
+        }
+
+        Builder putAll(List<Column> columns) {
+            for (Column column : columns) {
+                put(column);
+            }
+            return this;
+        }
+
+        /**
+         * 写入一个版本, 相同时间戳的版本会被覆盖
+         */
+        Builder put(Column column) {
+            int index = Collections.binarySearch(names, column.getName());
+            dataSize += CapacityUnits.size(column);
+            if (index < 0) {
+                index = -index - 1;
+                names.add(index, column.getName());
+                versions.add(index, new Column[]{column});
+                return this;
+            }
+            Column[] columnVersions = versions.get(index);
+            int position = indexOfTimestamp(columnVersions, column.getTimestamp());
+            Column[] updated;
+            if (position >= 0) {
+                dataSize -= CapacityUnits.size(columnVersions[position]);
+                updated = columnVersions.clone();
+                updated[position] = column;
+            } else {
+                position = -position - 1;
+                updated = new Column[columnVersions.length + 1];
+                System.arraycopy(columnVersions, 0, updated, 0, position);
+                updated[position] = column;
+                System.arraycopy(columnVersions, position, updated, position + 1, columnVersions.length - position);
+            }
+            versions.set(index, updated);
+            return this;
+        }
+
+        /**
+         * 用新的值和时间戳替换该列的最新版本, 该列不存在时直接写入
+         */
+        Builder putLatest(String name, ColumnValue value, long timestamp) {
+            int index = Collections.binarySearch(names, name);
+            if (index >= 0) {
+                Column[] columnVersions = versions.get(index);
+                dataSize -= CapacityUnits.size(columnVersions[0]);
+                if (columnVersions.length == 1) {
+                    names.remove(index);
+                    versions.remove(index);
+                } else {
+                    versions.set(index, Arrays.copyOfRange(columnVersions, 1, columnVersions.length));
+                }
+            }
+            return put(new Column(name, value, timestamp));
+        }
+
+        /**
+         * 删除该列的某个版本
+         */
+        Builder delete(String name, long timestamp) {
+            int index = Collections.binarySearch(names, name);
+            if (index < 0) {
+                return this;
+            }
+            Column[] columnVersions = versions.get(index);
+            int position = indexOfTimestamp(columnVersions, timestamp);
+            if (position < 0) {
+                return this;
+            }
+            dataSize -= CapacityUnits.size(columnVersions[position]);
+            if (columnVersions.length == 1) {
+                names.remove(index);
+                versions.remove(index);
+                return this;
+            }
+            Column[] updated = new Column[columnVersions.length - 1];
+            System.arraycopy(columnVersions, 0, updated, 0, position);
+            System.arraycopy(columnVersions, position + 1, updated, position, updated.length - position);
+            versions.set(index, updated);
+            return this;
+        }
+
+        /**
+         * 删除该列的所有版本
+         */
+        Builder deleteAll(String name) {
+            int index = Collections.binarySearch(names, name);
+            if (index >= 0) {
+                dataSize -= sizeOf(versions.get(index));
+                names.remove(index);
+                versions.remove(index);
+            }
+            return this;
+        }
+
+        RowVersion build() {
+            return new RowVersion(primaryKey,
+                    names.isEmpty() ? NO_NAMES : names.toArray(new String[0]),
+                    versions.isEmpty() ? NO_VERSIONS : versions.toArray(new Column[0][]), dataSize);
+        }
+    }
+}
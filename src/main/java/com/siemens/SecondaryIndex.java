@@ -0,0 +1,246 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.TableStoreException;
+import com.alicloud.openservices.tablestore.model.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * 主表上的一个全局二级索引, 索引数据存放在一张与索引同名的表中, 可以像普通的表一样用getRow和getRange查询,
+ * 按索引主键的顺序范围扫描就是一次跳表子视图的迭代.
+ * <p>
+ * 主表每发布一个新版本({@link InMemoryTableInstance#published}), 在主表的行锁内同步更新索引:
+ * 先比较新旧版本中索引用到的属性列(作为索引主键的属性列和索引的属性列)的最新版本, 都没有变化时什么也不做,
+ * 因此与索引无关的写入只多几次列查找; 有变化时删除旧的索引行, 写入新的索引行.
+ * 写者总是先持有主表的分段锁再获取索引表的分段锁, 索引表又不能直接写入, 不会死锁.
+ * 索引行只保留每列最新的一个版本, 时间戳与主表相同.
+ */
+final class SecondaryIndex {
+
+    final SecondaryIndexMeta definition;
+
+    /**
+     * 索引表的表结构: 索引主键依次是定义中的列和其余的主表主键列
+     */
+    final TableMeta meta;
+
+    /**
+     * 主表和索引表
+     */
+    final InMemoryTableInstance base;
+    final InMemoryTableInstance table;
+
+    private final String[] keyNames;
+
+    /**
+     * 索引主键的每一列是不是主表的主键列
+     */
+    private final boolean[] baseKeys;
+    private final PrimaryKeyType[] keyTypes;
+
+    /**
+     * 索引用到的主表属性列, 只有这些列变化时才需要更新索引
+     */
+    private final String[] attributeColumns;
+    private final String[] definedColumns;
+
+    /**
+     * @throws TableStoreException 索引定义不正确时错误码为OTSParameterInvalid
+     */
+    SecondaryIndex(TableMeta baseMeta, SecondaryIndexMeta definition, InMemoryTableInstance base,
+                   InMemoryTableInstance table) {
+        this.definition = definition;
+        this.base = base;
+        this.table = table;
+        Map<String, PrimaryKeyType> baseKeyTypes = new HashMap<>();
+        for (PrimaryKeySchema schema : baseMeta.getPrimaryKeyList()) {
+            baseKeyTypes.put(schema.getName(), schema.getType());
+        }
+        List<String> names = definition.getPrimaryKeyNames();
+        if (names.isEmpty()) {
+            throw invalid("The index " + definition.getIndexName() + " has no primary key column.");
+        }
+        Set<String> used = new HashSet<>();
+        int attributes = 0;
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            PrimaryKeyType type = definition.getPrimaryKeyTypes().get(i);
+            PrimaryKeyType baseType = baseKeyTypes.get(name);
+            if (!used.add(name)) {
+                throw invalid("Duplicated primary key column " + name + " in the index.");
+            }
+            if (baseType == null && type == null) {
+                throw invalid("The index primary key column " + name + " is not a primary key of the table and has no type.");
+            }
+            if (baseType != null && type != null && type != baseType) {
+                throw invalid("The type of the index primary key column " + name + " does not match the table.");
+            }
+            if (baseType == null) {
+                attributes++;
+            }
+        }
+        for (String name : definition.getDefinedColumns()) {
+            if (baseKeyTypes.containsKey(name) || !used.add(name)) {
+                throw invalid("The defined column " + name + " is a primary key or duplicated.");
+            }
+        }
+
+        meta = new TableMeta(definition.getIndexName());
+        int keys = names.size();
+        for (PrimaryKeySchema schema : baseMeta.getPrimaryKeyList()) {
+            if (!names.contains(schema.getName())) {
+                keys++;
+            }
+        }
+        keyNames = new String[keys];
+        baseKeys = new boolean[keys];
+        keyTypes = new PrimaryKeyType[keys];
+        int position = 0;
+        for (int i = 0; i < names.size(); i++, position++) {
+            keyNames[position] = names.get(i);
+            baseKeys[position] = baseKeyTypes.containsKey(names.get(i));
+            keyTypes[position] = baseKeys[position] ? baseKeyTypes.get(names.get(i)) : definition.getPrimaryKeyTypes().get(i);
+        }
+        for (PrimaryKeySchema schema : baseMeta.getPrimaryKeyList()) {
+            if (!names.contains(schema.getName())) {
+                keyNames[position] = schema.getName();
+                baseKeys[position] = true;
+                keyTypes[position++] = schema.getType();
+            }
+        }
+        for (int i = 0; i < keys; i++) {
+            meta.addPrimaryKeyColumn(new PrimaryKeySchema(keyNames[i], keyTypes[i]));
+        }
+
+        definedColumns = definition.getDefinedColumns().toArray(new String[0]);
+        attributeColumns = new String[attributes + definedColumns.length];
+        position = 0;
+        for (int i = 0; i < keys; i++) {
+            if (!baseKeys[i]) {
+                attributeColumns[position++] = keyNames[i];
+            }
+        }
+        System.arraycopy(definedColumns, 0, attributeColumns, position, definedColumns.length);
+    }
+
+    private static TableStoreException invalid(String message) {
+        return new TableStoreException(message, null, "OTSParameterInvalid", "0", 400);
+    }
+
+    /**
+     * 主表的一行从current变为next之后更新索引, 调用方持有主表该行的分段锁
+     *
+     * @param current 原来的版本, 不存在时为null
+     * @param next    新的版本, 行被删除时为null
+     */
+    void update(RowVersion current, RowVersion next) {
+        if (current != null && next != null && unchanged(current, next)) {
+            return;
+        }
+        EncodedPrimaryKey oldKey = current == null ? null : key(current);
+        EncodedPrimaryKey newKey = next == null ? null : key(next);
+        if (oldKey != null && !oldKey.equals(newKey)) {
+            write(oldKey, null);
+        }
+        if (newKey != null) {
+            write(newKey, row(newKey, next));
+        }
+    }
+
+    private boolean unchanged(RowVersion current, RowVersion next) {
+        for (String name : attributeColumns) {
+            Column before = current.getLatestColumn(name);
+            Column after = next.getLatestColumn(name);
+            // 堆外的表每次解码出新的Column对象, 引用不同时再比较时间戳和值
+            if (before != after && (before == null || after == null || before.getTimestamp() != after.getTimestamp()
+                    || !before.getValue().equals(after.getValue()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void write(EncodedPrimaryKey key, RowVersion version) {
+        Lock lock = table.lockFor(key);
+        table.lock(lock);
+        try {
+            table.compute(key, current -> version);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 用主表的数据构造索引表的新数据, 不加锁, 主表整体替换时在持锁之前调用
+     */
+    InMemoryTableInstance.Replacement prepare(Map<EncodedPrimaryKey, RowVersion> data) {
+        ConcurrentNavigableMap<EncodedPrimaryKey, RowVersion> rows = new ConcurrentSkipListMap<>();
+        for (RowVersion version : data.values()) {
+            EncodedPrimaryKey key = key(version);
+            if (key != null) {
+                rows.put(key, row(key, version));
+            }
+        }
+        return table.prepare(rows);
+    }
+
+    /**
+     * 用主表的数据重新构造整个索引, 用于建索引时回填. 调用方持有主表的所有分段锁或者主表还没有发布
+     */
+    void rebuild(Map<EncodedPrimaryKey, RowVersion> data) {
+        table.replace(prepare(data));
+    }
+
+    /**
+     * @return 该行在索引中的主键, 缺少作为索引主键的属性列或者类型不对时返回null, 这一行不进入索引
+     */
+    private EncodedPrimaryKey key(RowVersion version) {
+        PrimaryKey primaryKey = version.getPrimaryKey().toPrimaryKey();
+        PrimaryKeyColumn[] columns = new PrimaryKeyColumn[keyNames.length];
+        for (int i = 0; i < columns.length; i++) {
+            if (baseKeys[i]) {
+                columns[i] = primaryKey.getPrimaryKeyColumn(keyNames[i]);
+                if (columns[i] == null) {
+                    return null;
+                }
+                continue;
+            }
+            Column column = version.getLatestColumn(keyNames[i]);
+            PrimaryKeyValue value = column == null ? null : toPrimaryKeyValue(column.getValue(), keyTypes[i]);
+            if (value == null) {
+                return null;
+            }
+            columns[i] = new PrimaryKeyColumn(keyNames[i], value);
+        }
+        return table.key(columns);
+    }
+
+    private static PrimaryKeyValue toPrimaryKeyValue(ColumnValue value, PrimaryKeyType type) {
+        switch (type) {
+            case INTEGER:
+                return value.getType() == ColumnType.INTEGER ? PrimaryKeyValue.fromLong(value.asLong()) : null;
+            case STRING:
+                return value.getType() == ColumnType.STRING ? PrimaryKeyValue.fromString(value.asString()) : null;
+            default:
+                return value.getType() == ColumnType.BINARY ? PrimaryKeyValue.fromBinary(value.asBinary()) : null;
+        }
+    }
+
+    private RowVersion row(EncodedPrimaryKey key, RowVersion version) {
+        RowVersion.Builder builder = new RowVersion.Builder(key);
+        for (String name : definedColumns) {
+            Column column = version.getLatestColumn(name);
+            if (column != null) {
+                builder.put(column);
+            }
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,74 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.core.utils.Preconditions;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 全局二级索引的定义, 用于{@link SimpleInMemoryTableStore#createIndex}.
+ * <p>
+ * 索引的主键依次是addPrimaryKeyColumn添加的列, 可以是主表的主键列或者属性列, 之后自动补上其余的主表主键列;
+ * 属性列作为索引主键时要给出类型, 该列的值类型不同的行不进入索引. 索引的属性列是addDefinedColumn添加的主表属性列,
+ * 只保留最新的版本. 缺少任何一个作为索引主键的属性列的行不进入索引.
+ */
+public final class SecondaryIndexMeta {
+
+    private final String indexName;
+    private final List<String> primaryKeyNames = new ArrayList<>();
+    private final List<PrimaryKeyType> primaryKeyTypes = new ArrayList<>();
+    private final List<String> definedColumns = new ArrayList<>();
+
+    public SecondaryIndexMeta(String indexName) {
+        Preconditions.checkArgument(indexName != null && !indexName.isEmpty(), "The index name should not be null or empty.");
+        this.indexName = indexName;
+    }
+
+    /**
+     * @param name 主表的主键列
+     */
+    public SecondaryIndexMeta addPrimaryKeyColumn(String name) {
+        return addPrimaryKeyColumn(name, null);
+    }
+
+    /**
+     * @param name 主表的属性列
+     * @param type 该列在索引中的主键类型
+     */
+    public SecondaryIndexMeta addPrimaryKeyColumn(String name, PrimaryKeyType type) {
+        Preconditions.checkArgument(name != null && !name.isEmpty(), "The column name should not be null or empty.");
+        primaryKeyNames.add(name);
+        primaryKeyTypes.add(type);
+        return this;
+    }
+
+    /**
+     * @param name 主表的属性列, 复制到索引中
+     */
+    public SecondaryIndexMeta addDefinedColumn(String name) {
+        Preconditions.checkArgument(name != null && !name.isEmpty(), "The column name should not be null or empty.");
+        definedColumns.add(name);
+        return this;
+    }
+
+    public String getIndexName() {
+        return indexName;
+    }
+
+    public List<String> getPrimaryKeyNames() {
+        return Collections.unmodifiableList(primaryKeyNames);
+    }
+
+    /**
+     * @return 与{@link #getPrimaryKeyNames()}一一对应, 主表的主键列为null
+     */
+    public List<PrimaryKeyType> getPrimaryKeyTypes() {
+        return Collections.unmodifiableList(primaryKeyTypes);
+    }
+
+    public List<String> getDefinedColumns() {
+        return Collections.unmodifiableList(definedColumns);
+    }
+}
@@ -5,17 +5,30 @@ import com.alicloud.openservices.tablestore.TableStoreException;
 import com.alicloud.openservices.tablestore.core.utils.Preconditions;
 import com.alicloud.openservices.tablestore.model.*;
 
+import javax.management.JMException;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * 要求metas所有的表名不能重复
  * 管理许多内存TableStore数据库表,
  * 增删改查的数据都在数据库表中
+ * 指定预写日志文件时, 建表, 删表以及每一次写入都先记录到日志, 重启后回放日志恢复所有的表
+ * checkpoint把所有的表写成一个二进制快照并轮转日志, 重启时先加载快照再回放快照之后的日志
  */
-public class SimpleInMemoryTableStore {
+public class SimpleInMemoryTableStore implements Closeable {
 
     /**
      * 所有的表
@@ -32,11 +45,294 @@ public class SimpleInMemoryTableStore {
 
     InMemoryTableInstanceManager inMemoryTableInstanceManager;
 
+    /**
+     * computeSplitsBySize中splitSizeIn100MB的单位, 字节
+     */
+    volatile long splitSizeUnit = 100L * 1024 * 1024;
+
+    /**
+     * computeSplitsBySize最多返回的份数
+     */
+    static final int MAX_SPLITS = 1000;
+
+    /**
+     * computeSplitsBySize返回的Split的location, 本地只有一个节点
+     */
+    static final String SPLIT_LOCATION = "localhost";
+
+    /**
+     * 只指定预写日志文件时的刷盘间隔, 毫秒
+     */
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 10;
+
 
     public SimpleInMemoryTableStore(){
         inMemoryTableInstanceManager = new InMemoryTableInstanceManager();
     }
 
+    /**
+     * @param storageMode 表数据的存放方式
+     */
+    public SimpleInMemoryTableStore(StorageMode storageMode){
+        this();
+        inMemoryTableInstanceManager.storageMode = storageMode;
+    }
+
+    /**
+     * 持久化的内存数据库, 先回放预写日志恢复数据, 之后的写入都会记录到日志中.
+     * 默认每{@link #DEFAULT_SYNC_INTERVAL_MILLIS}毫秒刷盘一次, 写入不等待落盘, 进程崩溃时最多丢失这个间隔内的写入;
+     * 需要每次写入都落盘时syncIntervalMillis传0, 写入等待组提交, 吞吐受fsync的延迟限制
+     *
+     * @param writeAheadLogFile 预写日志文件, 不存在时创建
+     * @throws IOException 读写日志文件失败
+     */
+    public SimpleInMemoryTableStore(Path writeAheadLogFile) throws IOException {
+        this(writeAheadLogFile, DEFAULT_SYNC_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param writeAheadLogFile  预写日志文件, 不存在时创建
+     * @param syncIntervalMillis 大于0时写入不等待落盘, 由后台线程按这个间隔刷盘, 崩溃时最多丢失一个间隔内的写入;
+     *                           0表示每次写入都等待组提交落盘
+     * @throws IOException 读写日志文件失败
+     */
+    public SimpleInMemoryTableStore(Path writeAheadLogFile, long syncIntervalMillis) throws IOException {
+        this(null, writeAheadLogFile, syncIntervalMillis);
+    }
+
+    /**
+     * 先加载快照, 再回放快照之后的预写日志
+     *
+     * @param snapshotFile       {@link #checkpoint}写下的快照, 为null或者不存在时从空库开始
+     * @param writeAheadLogFile  预写日志文件, 不存在时创建
+     * @param syncIntervalMillis 大于0时写入不等待落盘, 由后台线程按这个间隔刷盘, 崩溃时最多丢失一个间隔内的写入
+     * @throws IOException 读写文件失败, 或者日志比快照新
+     */
+    public SimpleInMemoryTableStore(Path snapshotFile, Path writeAheadLogFile, long syncIntervalMillis) throws IOException {
+        this(snapshotFile, writeAheadLogFile, syncIntervalMillis, StorageMode.HEAP);
+    }
+
+    /**
+     * @param snapshotFile       {@link #checkpoint}写下的快照, 为null或者不存在时从空库开始
+     * @param writeAheadLogFile  预写日志文件, 不存在时创建
+     * @param syncIntervalMillis 大于0时写入不等待落盘, 由后台线程按这个间隔刷盘, 崩溃时最多丢失一个间隔内的写入
+     * @param storageMode        表数据的存放方式
+     * @throws IOException 读写文件失败, 或者日志比快照新
+     */
+    public SimpleInMemoryTableStore(Path snapshotFile, Path writeAheadLogFile, long syncIntervalMillis,
+                                    StorageMode storageMode) throws IOException {
+        this(storageMode);
+        long generation = 0;
+        if (snapshotFile != null && Files.exists(snapshotFile)) {
+            generation = SnapshotFile.generation(snapshotFile);
+            load(snapshotFile);
+        }
+        inMemoryTableInstanceManager.writeAheadLog = WriteAheadLog.open(writeAheadLogFile, syncIntervalMillis,
+                generation, this::replay);
+    }
+
+    private void replay(ByteBuffer record) {
+        switch (record.get()) {
+            case WriteAheadLog.CREATE_TABLE:
+                createTable(new CreateTableRequest(BinaryCodec.getTableMeta(record), BinaryCodec.getTableOptions(record),
+                        BinaryCodec.getReservedThroughput(record)));
+                break;
+            case WriteAheadLog.DELETE_TABLE:
+                deleteTable(new DeleteTableRequest(BinaryCodec.getString(record)));
+                break;
+            case WriteAheadLog.CREATE_INDEX:
+                createIndex(BinaryCodec.getString(record), BinaryCodec.getSecondaryIndexMeta(record));
+                break;
+            default:
+                long timestamp = record.getLong();
+                inMemoryTableInstanceManager.replay(BinaryCodec.getRowChange(record), timestamp);
+        }
+    }
+
+    /**
+     * 记录一条建表, 删表或建索引日志并等待落盘
+     */
+    private void log(BinaryCodec.Output record) {
+        WriteAheadLog log = inMemoryTableInstanceManager.writeAheadLog;
+        if (log != null) {
+            log.append(record.view());
+            log.sync();
+        }
+    }
+
+    /**
+     * 把所有的表写成快照. 只在轮转预写日志和取得每张表当前数据的引用时持有所有表的全部分段锁, 写文件不持有锁, 写操作只被阻塞很短的时间.
+     * 写文件期间的写入可能出现在快照中也可能不出现, 它们都记录在轮转后的新日志中; 回放原样使用记录下来的时间戳,
+     * 只是把相同的(列, 时间戳)版本再写一遍, 已经出现在快照中的写入不会多出版本(见{@link InMemoryTableInstanceManager#replay}).
+     * 快照落盘后删除轮转出来的旧日志, 之后只需要快照加上新的日志就能恢复. 不能与建表删表并发.
+     * 按metas的顺序对每张表lockAll, 写者先持有主表的分段锁再获取索引表的分段锁, 因此metas中每张主表都必须排在它的索引表之前;
+     * createIndex总是把索引表追加在末尾, 主表一定已经在前面
+     *
+     * @param snapshotFile 快照文件, 已经存在时原子地替换
+     * @throws IOException 写文件失败
+     */
+    public void checkpoint(Path snapshotFile) throws IOException {
+        WriteAheadLog log = inMemoryTableInstanceManager.writeAheadLog;
+        List<InMemoryTableInstance> instances = new ArrayList<>();
+        for (TableMeta meta : metas) {
+            instances.add(getInMemoryTableInstance(meta.getTableName()));
+        }
+        List<SnapshotFile.Table> tables = new ArrayList<>();
+        long generation;
+        int locked = 0;
+        try {
+            for (InMemoryTableInstance instance : instances) {
+                instance.lockAll();
+                locked++;
+            }
+            generation = log == null ? 0 : log.rotate();
+            for (int i = 0; i < metas.size(); i++) {
+                tables.add(new SnapshotFile.Table(metas.get(i), instances.get(i)));
+            }
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                instances.get(i).unlockAll();
+            }
+        }
+        SnapshotFile.write(snapshotFile, generation, tables);
+        if (log != null) {
+            log.dropArchives(generation);
+        }
+    }
+
+    /**
+     * 用快照替换所有的表, 用于快速加载大的测试数据
+     *
+     * @param snapshotFile {@link #checkpoint}写下的快照
+     * @throws IOException 读文件失败
+     * @throws IllegalStateException 有预写日志时不能替换, 替换的内容不会记录到日志中
+     */
+    public void loadSnapshot(Path snapshotFile) throws IOException {
+        if (inMemoryTableInstanceManager.writeAheadLog != null) {
+            throw new IllegalStateException("can not load a snapshot into a store with a write ahead log");
+        }
+        load(snapshotFile);
+    }
+
+    /**
+     * 批量加载测试数据, 用加载的行替换表中原有的所有行.
+     * 不经过请求对象和写锁, 在旁边并行构造好整张表后一次性替换, 加载期间表上的读写不受影响.
+     * 主键相同的行依次合并, 与按顺序putRow的结果一致; 没有时间戳的列使用同一个时间戳. 加载的数据不记录到预写日志
+     *
+     * @param tableName    已经存在的表
+     * @param rows         行, 按主键升序时最快
+     * @param rowCountHint 预计的行数, 只用于预分配
+     * @throws IllegalArgumentException 行的主键与表结构不一致, 格式见{@link BulkLoader#rowParser}
+     * @throws TableStoreException      表不存在
+     * @throws IllegalStateException    有预写日志
+     */
+    public void bulkLoad(String tableName, Iterator<Row> rows, int rowCountHint) {
+        InMemoryTableInstance instance = bulkLoadTarget(tableName);
+        BulkLoader<Row> loader = new BulkLoader<>(BulkLoader.rowParser(getTableMeta(tableName), System.currentTimeMillis()));
+        instance.replaceData(loader.load(rows, rowCountHint));
+    }
+
+    /**
+     * 从CSV文件批量加载测试数据, 用加载的行替换表中原有的所有行, 格式见{@link BulkLoader#csvParser}
+     *
+     * @param tableName    已经存在的表
+     * @param csvFile      UTF-8编码的CSV文件, 第一行是列名
+     * @param rowCountHint 预计的行数, 只用于预分配
+     * @throws IOException              读文件失败
+     * @throws IllegalArgumentException CSV格式错误
+     * @throws TableStoreException      表不存在
+     * @throws IllegalStateException    有预写日志
+     */
+    public void bulkLoadCsv(String tableName, Path csvFile, int rowCountHint) throws IOException {
+        InMemoryTableInstance instance = bulkLoadTarget(tableName);
+        try (BufferedReader reader = Files.newBufferedReader(csvFile, StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null) {
+                throw new IllegalArgumentException("the csv has no header");
+            }
+            BulkLoader<String> loader = new BulkLoader<>(
+                    BulkLoader.csvParser(getTableMeta(tableName), header, System.currentTimeMillis()));
+            instance.replaceData(loader.load(reader.lines().iterator(), rowCountHint));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private InMemoryTableInstance bulkLoadTarget(String tableName) {
+        if (inMemoryTableInstanceManager.writeAheadLog != null) {
+            throw new IllegalStateException("can not bulk load into a store with a write ahead log");
+        }
+        return inMemoryTableInstanceManager.getTable(tableName);
+    }
+
+    private void load(Path snapshotFile) throws IOException {
+        List<SnapshotFile.Table> tables = SnapshotFile.read(snapshotFile);
+        // 每张表按存储方式直接从解码出的行建表: 堆上建跳表, 堆外编码到段中只建索引; 各表之间并行
+        List<InMemoryTableInstance> instances = tables.parallelStream().map(table -> {
+            InMemoryTableInstance instance = inMemoryTableInstanceManager.newInstance();
+            instance.primaryKeyNames = EncodedPrimaryKey.names(table.meta);
+            instance.setTableOptions(table.tableOptions);
+            instance.setReservedThroughput(table.reservedThroughput);
+            instance.replaceData(table.rows);
+            return instance;
+        }).collect(Collectors.toList());
+        clean();
+        for (int i = 0; i < tables.size(); i++) {
+            SnapshotFile.Table table = tables.get(i);
+            InMemoryTableInstance instance = instances.get(i);
+            this.getMetas().add(table.meta);
+            this.getTableMetaMap().put(table.meta.getTableName(), table.meta);
+            instance.autoIncrement = AutoIncrementSequence.of(table.meta);
+            this.inMemoryTableInstanceManager.addInstance(table.meta.getTableName(), instance);
+            if (!instance.retention.isUnlimited()) {
+                inMemoryTableInstanceManager.compactor.start();
+            }
+        }
+        // 索引表的数据也在快照中, 只需要重新关联, 不需要回填
+        for (SnapshotFile.Table table : tables) {
+            InMemoryTableInstance instance = getInMemoryTableInstance(table.meta.getTableName());
+            for (SecondaryIndexMeta definition : table.indexes) {
+                InMemoryTableInstance indexTable = getInMemoryTableInstance(definition.getIndexName());
+                SecondaryIndex index = new SecondaryIndex(table.meta, definition, instance, indexTable);
+                indexTable.secondaryIndex = index;
+                instance.addIndex(index, false);
+            }
+        }
+    }
+
+    /**
+     * 开启后按建表时的ReservedThroughput对每张表限流, 超过时请求失败, 错误码为OTSCapacityUnitExhausted, 预留为0的一侧不限流.
+     * 默认关闭; 无论是否开启, 响应中的ConsumedCapacity都按读写的数据大小计算
+     */
+    public void setThroughputThrottling(boolean enabled) {
+        inMemoryTableInstanceManager.throttling = enabled;
+    }
+
+    /**
+     * @return 操作和表的运行统计, 可以注册到JMX
+     */
+    public StoreMetrics metrics() {
+        return inMemoryTableInstanceManager.metrics;
+    }
+
+    /**
+     * 停止后台回收, 从JMX注销统计, 关闭预写日志
+     */
+    @Override
+    public void close() throws IOException {
+        inMemoryTableInstanceManager.compactor.close();
+        try {
+            metrics().unregister();
+        } catch (JMException e) {
+            throw new IOException(e);
+        }
+        WriteAheadLog log = inMemoryTableInstanceManager.writeAheadLog;
+        if (log != null) {
+            inMemoryTableInstanceManager.writeAheadLog = null;
+            log.close();
+        }
+    }
+
     public List<TableMeta> getMetas() {
         return metas;
     }
@@ -69,7 +365,26 @@ public class SimpleInMemoryTableStore {
             throw new TableStoreException("ObjectAlreadyExist", new RuntimeException("Requested table already exists."), "409", "0", 409);
         }
         else{
+            if (inMemoryTableInstanceManager.writeAheadLog != null) {
+                BinaryCodec.Output record = new BinaryCodec.Output(128).putByte(WriteAheadLog.CREATE_TABLE);
+                BinaryCodec.putTableMeta(record, tableMeta);
+                BinaryCodec.putTableOptions(record, createTableRequest.getTableOptions());
+                BinaryCodec.putReservedThroughput(record, createTableRequest.getReservedThroughput());
+                log(record);
+            }
             this.addTableMeta(tableMeta);
+            InMemoryTableInstance instance = getInMemoryTableInstance(tableMeta.getTableName());
+            instance.primaryKeyNames = EncodedPrimaryKey.names(tableMeta);
+            instance.autoIncrement = AutoIncrementSequence.of(tableMeta);
+            if (createTableRequest.getTableOptions() != null) {
+                instance.setTableOptions(createTableRequest.getTableOptions());
+                if (!instance.retention.isUnlimited()) {
+                    inMemoryTableInstanceManager.compactor.start();
+                }
+            }
+            if (createTableRequest.getReservedThroughput() != null) {
+                instance.setReservedThroughput(createTableRequest.getReservedThroughput());
+            }
         }
         return new CreateTableResponse(new Response());
     }
@@ -81,11 +396,142 @@ public class SimpleInMemoryTableStore {
             throw new TableStoreException("OTSObjectNotExist", new RuntimeException("Requested table does not exist."), "404", "0", 404);
         }
         else{
+            if (inMemoryTableInstanceManager.writeAheadLog != null) {
+                log(new BinaryCodec.Output(64).putByte(WriteAheadLog.DELETE_TABLE).putString(tableName));
+            }
+            InMemoryTableInstance instance = getInMemoryTableInstance(tableName);
+            if (instance.secondaryIndex != null) {
+                instance.secondaryIndex.base.removeIndex(instance.secondaryIndex);
+            }
+            // 主表上的索引一起删除
+            for (SecondaryIndex index : instance.indexes) {
+                this.clean(index.meta.getTableName());
+            }
             this.clean(tableName);
         }
         return new DeleteTableResponse(new Response());
     }
 
+    /**
+     * 在已经存在的表上创建全局二级索引, 用表中现有的数据回填, 之后主表的每次写入都同步更新索引.
+     * 索引表可以像普通的表一样用getRow, getRange和batchGetRow按索引名查询, 但不能直接写入; 删除主表时一起删除.
+     * 回填期间持有主表的所有分段锁, 主表的写入要等回填结束
+     *
+     * @param tableName 主表
+     * @param indexMeta 索引的定义
+     * @throws TableStoreException 主表不存在(OTSObjectNotExist), 索引名已经被使用(OTSObjectAlreadyExist),
+     *                             主表设置了timeToLive, 主表本身是索引或者索引定义不正确(OTSParameterInvalid)
+     */
+    public void createIndex(String tableName, SecondaryIndexMeta indexMeta) {
+        TableMeta tableMeta = getTableMeta(tableName);
+        if (tableMeta == null) {
+            throw new TableStoreException("Requested table does not exist.", null, "OTSObjectNotExist", "0", 404);
+        }
+        if (getTableMetaMap().containsKey(indexMeta.getIndexName())) {
+            throw new TableStoreException("Requested table already exists.", null, "OTSObjectAlreadyExist", "0", 409);
+        }
+        InMemoryTableInstance instance = getInMemoryTableInstance(tableName);
+        if (instance.secondaryIndex != null) {
+            throw new TableStoreException("Can not create an index on the index table " + tableName + ".", null,
+                    "OTSParameterInvalid", "0", 400);
+        }
+        // 过期的版本不会发布新版本, 索引无法随之更新
+        if (instance.tableOptions.hasSetTimeToLive() && instance.tableOptions.getTimeToLive() > 0) {
+            throw new TableStoreException("Can not create an index on a table with timeToLive.", null,
+                    "OTSParameterInvalid", "0", 400);
+        }
+        InMemoryTableInstance indexTable = inMemoryTableInstanceManager.newInstance();
+        SecondaryIndex index = new SecondaryIndex(tableMeta, indexMeta, instance, indexTable);
+        if (inMemoryTableInstanceManager.writeAheadLog != null) {
+            BinaryCodec.Output record = new BinaryCodec.Output(128).putByte(WriteAheadLog.CREATE_INDEX).putString(tableName);
+            BinaryCodec.putSecondaryIndexMeta(record, indexMeta);
+            log(record);
+        }
+        indexTable.primaryKeyNames = EncodedPrimaryKey.names(index.meta);
+        indexTable.secondaryIndex = index;
+        instance.addIndex(index, true);
+        // 索引表排在主表之后, checkpoint按这个顺序加锁
+        this.getMetas().add(index.meta);
+        this.getTableMetaMap().put(index.meta.getTableName(), index.meta);
+        this.inMemoryTableInstanceManager.addInstance(index.meta.getTableName(), indexTable);
+    }
+
+    /**
+     * 按数据量把表切分成首尾相接的主键范围, 每份可以单独用getRange并行扫描; 范围读不加锁, 并行扫描之间没有竞争.
+     * 份数是表的数据量除以splitSizeIn100MB个{@link #setSplitSizeUnit 单位}, 边界取自表的主键抽样(见{@link KeySample}),
+     * 按样本的行大小加权使每份的数据量大致相等, 不遍历整张表. 第一份从INF_MIN开始, 最后一份到INF_MAX结束
+     *
+     * @throws TableStoreException 表不存在(OTSObjectNotExist), splitSizeIn100MB不是正数(OTSParameterInvalid)
+     */
+    public ComputeSplitsBySizeResponse computeSplitsBySize(ComputeSplitsBySizeRequest request) {
+        TableMeta tableMeta = getTableMeta(request.getTableName());
+        if (tableMeta == null) {
+            throw new TableStoreException("Requested table does not exist.", null, "OTSObjectNotExist", "0", 404);
+        }
+        if (request.getSplitSizeIn100MB() <= 0) {
+            throw new TableStoreException("The split size should be positive.", null, "OTSParameterInvalid", "0", 400);
+        }
+        InMemoryTableInstance instance = getInMemoryTableInstance(request.getTableName());
+        long unit = splitSizeUnit;
+        long splitBytes = request.getSplitSizeIn100MB() > Long.MAX_VALUE / unit ? Long.MAX_VALUE
+                : request.getSplitSizeIn100MB() * unit;
+        long count = Math.min(MAX_SPLITS, Math.max(1, instance.dataBytes() / splitBytes
+                + (instance.dataBytes() % splitBytes == 0 ? 0 : 1)));
+
+        ComputeSplitsBySizeResponse response = new ComputeSplitsBySizeResponse(new Response());
+        for (PrimaryKeySchema schema : tableMeta.getPrimaryKeyList()) {
+            response.addPrimaryKeySchema(schema);
+        }
+        response.setConsumedCapacity(new ConsumedCapacity(new CapacityUnit(1, 0)));
+        PrimaryKey lowerBound = bound(tableMeta, PrimaryKeyValue.INF_MIN);
+        for (PrimaryKey boundary : instance.keySample.boundaries((int) count)) {
+            response.addSplit(split(lowerBound, boundary));
+            lowerBound = boundary;
+        }
+        response.addSplit(split(lowerBound, bound(tableMeta, PrimaryKeyValue.INF_MAX)));
+        return response;
+    }
+
+    private static Split split(PrimaryKey lowerBound, PrimaryKey upperBound) {
+        Split split = new Split();
+        split.setLocation(SPLIT_LOCATION);
+        split.setLowerBound(lowerBound);
+        split.setUpperBound(upperBound);
+        return split;
+    }
+
+    private static PrimaryKey bound(TableMeta tableMeta, PrimaryKeyValue value) {
+        PrimaryKeyBuilder builder = PrimaryKeyBuilder.createPrimaryKeyBuilder();
+        for (PrimaryKeySchema schema : tableMeta.getPrimaryKeyList()) {
+            builder.addPrimaryKeyColumn(schema.getName(), value);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 测试数据通常远小于100MB, 调小单位后小表也能切分成多份
+     *
+     * @param bytes computeSplitsBySize中splitSizeIn100MB的单位, 默认100MB
+     */
+    public void setSplitSizeUnit(long bytes) {
+        Preconditions.checkArgument(bytes > 0, "The split size unit should be positive.");
+        splitSizeUnit = bytes;
+    }
+
+    /**
+     * 删除二级索引, 与删除索引表相同
+     *
+     * @throws TableStoreException 索引不存在或者不是这张表上的索引(OTSObjectNotExist)
+     */
+    public void deleteIndex(String tableName, String indexName) {
+        InMemoryTableInstance indexTable = getInMemoryTableInstance(indexName);
+        if (indexTable == null || indexTable.secondaryIndex == null
+                || indexTable.secondaryIndex.base != getInMemoryTableInstance(tableName)) {
+            throw new TableStoreException("Requested index does not exist.", null, "OTSObjectNotExist", "0", 404);
+        }
+        deleteTable(new DeleteTableRequest(indexName));
+    }
+
     public void clean(String tableName){
 
         TableMeta meta = this.tableMetaMap.get(tableName);
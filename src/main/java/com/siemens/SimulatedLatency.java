@@ -0,0 +1,287 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.ClientException;
+import com.alicloud.openservices.tablestore.TableStoreException;
+import com.alicloud.openservices.tablestore.core.utils.Preconditions;
+import com.alicloud.openservices.tablestore.model.*;
+
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 可配置的{@link LatencyModel}: 每种操作一个基础耗时分布, 加上与数据大小成正比的耗时, 再以一定概率叠加一次长尾,
+ * 另外以一定概率注入OTSServerBusy和超时.
+ * <pre>
+ * LatencyModel model = SimulatedLatency.builder()
+ *         .defaultLatency(SimulatedLatency.Distribution.logNormal(Duration.ofMillis(2), Duration.ofMillis(10)))
+ *         .latency("batchWriteRow", SimulatedLatency.Distribution.uniform(Duration.ofMillis(5), Duration.ofMillis(20)))
+ *         .perKilobyte(Duration.ofMicros(50))
+ *         .spikes(0.001, SimulatedLatency.Distribution.uniform(Duration.ofMillis(200), Duration.ofSeconds(1)))
+ *         .serverBusy(0.01)
+ *         .timeouts(0.001, Duration.ofSeconds(10))
+ *         .executedTimeouts(0.001)
+ *         .build();
+ * </pre>
+ * 数据大小按{@link CapacityUnits}的规则计算: 读操作是返回的行, 写操作是请求中的行变更.
+ * 没有指定种子时使用ThreadLocalRandom, 指定种子时所有线程共用一个Random, 单线程的调用顺序下结果可以复现.
+ */
+public final class SimulatedLatency implements LatencyModel {
+
+    /**
+     * 耗时分布
+     */
+    public interface Distribution {
+
+        /**
+         * @return 一个样本, 纳秒
+         */
+        long sampleNanos(Random random);
+
+        static Distribution fixed(Duration latency) {
+            long nanos = latency.toNanos();
+            return random -> nanos;
+        }
+
+        static Distribution uniform(Duration min, Duration max) {
+            long minNanos = min.toNanos();
+            long range = max.toNanos() - minNanos;
+            Preconditions.checkArgument(range >= 0, "The max latency should not be less than the min latency.");
+            return random -> minNanos + (long) (random.nextDouble() * range);
+        }
+
+        /**
+         * 对数正态分布, 服务端延迟通常是这个形状: 大部分请求集中在中位数附近, 右侧有长尾
+         *
+         * @param median 中位数
+         * @param p99    99分位数, 不能小于中位数
+         */
+        static Distribution logNormal(Duration median, Duration p99) {
+            Preconditions.checkArgument(p99.compareTo(median) >= 0 && !median.isZero() && !median.isNegative(),
+                    "The p99 latency should not be less than the positive median latency.");
+            double mu = Math.log(median.toNanos());
+            // 标准正态分布的99分位数
+            double sigma = (Math.log(p99.toNanos()) - mu) / 2.3263478740408408;
+            return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+        }
+    }
+
+    private final Map<String, Distribution> latencies;
+    private final Distribution defaultLatency;
+    private final long nanosPerKilobyte;
+    private final double spikeProbability;
+    private final Distribution spike;
+    private final double serverBusyProbability;
+    private final double timeoutProbability;
+    private final double executedTimeoutProbability;
+    private final long timeoutNanos;
+
+    /**
+     * 为null时使用ThreadLocalRandom
+     */
+    private final Random random;
+
+    private SimulatedLatency(Builder builder) {
+        this.latencies = new HashMap<>(builder.latencies);
+        this.defaultLatency = builder.defaultLatency;
+        this.nanosPerKilobyte = builder.nanosPerKilobyte;
+        this.spikeProbability = builder.spikeProbability;
+        this.spike = builder.spike;
+        this.serverBusyProbability = builder.serverBusyProbability;
+        this.timeoutProbability = builder.timeoutProbability;
+        this.executedTimeoutProbability = builder.executedTimeoutProbability;
+        this.timeoutNanos = builder.timeoutNanos;
+        this.random = builder.seeded ? new Random(builder.seed) : null;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private Random random() {
+        return random == null ? ThreadLocalRandom.current() : random;
+    }
+
+    private long baseLatency(String operation, Random random) {
+        return latencies.getOrDefault(operation, defaultLatency).sampleNanos(random);
+    }
+
+    /**
+     * 服务端繁忙在正常的基础耗时之后返回, 超时在配置的超时时间之后以ClientException返回, 与SDK读超时时一样;
+     * 请求已经执行的超时同样返回, 只是请求照常生效
+     */
+    @Override
+    public Fault fault(String operation, Object request) {
+        if (serverBusyProbability == 0 && timeoutProbability == 0 && executedTimeoutProbability == 0) {
+            return null;
+        }
+        Random random = random();
+        double p = random.nextDouble();
+        if (p < serverBusyProbability) {
+            return new Fault(new TableStoreException("Server is busy.", null, "OTSServerBusy", "0", 503),
+                    baseLatency(operation, random));
+        }
+        if (p < serverBusyProbability + timeoutProbability) {
+            return new Fault(timeout(operation), timeoutNanos);
+        }
+        if (p < serverBusyProbability + timeoutProbability + executedTimeoutProbability) {
+            return new Fault(timeout(operation), timeoutNanos, true);
+        }
+        return null;
+    }
+
+    private static ClientException timeout(String operation) {
+        return new ClientException("Request " + operation + " timed out.", new SocketTimeoutException("Read timed out"));
+    }
+
+    @Override
+    public long latencyNanos(String operation, Object request, Object response) {
+        Random random = random();
+        long latency = baseLatency(operation, random);
+        if (nanosPerKilobyte > 0) {
+            latency += payloadSize(request, response) * nanosPerKilobyte / 1024;
+        }
+        if (spikeProbability > 0 && random.nextDouble() < spikeProbability) {
+            latency += spike.sampleNanos(random);
+        }
+        return latency;
+    }
+
+    /**
+     * @return 读操作返回的行或者写操作中行变更的大小, 其他操作为0
+     */
+    static long payloadSize(Object request, Object response) {
+        long size = 0;
+        if (response instanceof GetRowResponse) {
+            size = CapacityUnits.size(((GetRowResponse) response).getRow());
+        } else if (response instanceof GetRangeResponse) {
+            for (Row row : ((GetRangeResponse) response).getRows()) {
+                size += CapacityUnits.size(row);
+            }
+        } else if (response instanceof BatchGetRowResponse) {
+            for (List<BatchGetRowResponse.RowResult> rowResults
+                    : ((BatchGetRowResponse) response).getTableToRowsResult().values()) {
+                for (BatchGetRowResponse.RowResult rowResult : rowResults) {
+                    size += CapacityUnits.size(rowResult.getRow());
+                }
+            }
+        } else if (request instanceof PutRowRequest) {
+            size = CapacityUnits.size(((PutRowRequest) request).getRowChange());
+        } else if (request instanceof UpdateRowRequest) {
+            size = CapacityUnits.size(((UpdateRowRequest) request).getRowChange());
+        } else if (request instanceof DeleteRowRequest) {
+            size = CapacityUnits.size(((DeleteRowRequest) request).getRowChange());
+        } else if (request instanceof BatchWriteRowRequest) {
+            for (List<RowChange> rowChanges : ((BatchWriteRowRequest) request).getRowChange().values()) {
+                for (RowChange rowChange : rowChanges) {
+                    size += CapacityUnits.size(rowChange);
+                }
+            }
+        }
+        return size;
+    }
+
+    public static final class Builder {
+
+        private final Map<String, Distribution> latencies = new HashMap<>();
+        private Distribution defaultLatency = Distribution.fixed(Duration.ZERO);
+        private long nanosPerKilobyte;
+        private double spikeProbability;
+        private Distribution spike = Distribution.fixed(Duration.ZERO);
+        private double serverBusyProbability;
+        private double timeoutProbability;
+        private double executedTimeoutProbability;
+        private long timeoutNanos;
+        private boolean seeded;
+        private long seed;
+
+        private Builder() {
+        }
+
+        /**
+         * @param operation 客户端接口的方法名, 例如getRow
+         */
+        public Builder latency(String operation, Distribution distribution) {
+            latencies.put(operation, distribution);
+            return this;
+        }
+
+        /**
+         * 没有单独指定的操作使用的耗时分布, 默认为0
+         */
+        public Builder defaultLatency(Distribution distribution) {
+            this.defaultLatency = distribution;
+            return this;
+        }
+
+        /**
+         * 每KB读写数据增加的耗时
+         */
+        public Builder perKilobyte(Duration latency) {
+            this.nanosPerKilobyte = latency.toNanos();
+            return this;
+        }
+
+        /**
+         * @param probability 每个请求叠加一次长尾的概率
+         * @param spike       长尾的额外耗时
+         */
+        public Builder spikes(double probability, Distribution spike) {
+            checkProbability(probability);
+            this.spikeProbability = probability;
+            this.spike = spike;
+            return this;
+        }
+
+        /**
+         * @param probability 每个请求以OTSServerBusy失败的概率
+         */
+        public Builder serverBusy(double probability) {
+            checkProbability(probability);
+            this.serverBusyProbability = probability;
+            return this;
+        }
+
+        /**
+         * @param probability 每个请求超时的概率
+         * @param timeout     调用方收到超时之前等待的时间, 应该与客户端配置的超时时间一致
+         */
+        public Builder timeouts(double probability, Duration timeout) {
+            checkProbability(probability);
+            this.timeoutProbability = probability;
+            this.timeoutNanos = timeout.toNanos();
+            return this;
+        }
+
+        /**
+         * 请求在服务端执行成功, 但调用方在超时时间之后收到超时, 例如写入已经生效而响应丢失; 超时时间与{@link #timeouts}共用
+         *
+         * @param probability 每个请求执行后超时的概率
+         */
+        public Builder executedTimeouts(double probability) {
+            checkProbability(probability);
+            this.executedTimeoutProbability = probability;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seeded = true;
+            this.seed = seed;
+            return this;
+        }
+
+        private static void checkProbability(double probability) {
+            Preconditions.checkArgument(probability >= 0 && probability <= 1, "The probability should be in [0, 1].");
+        }
+
+        public SimulatedLatency build() {
+            Preconditions.checkArgument(serverBusyProbability + timeoutProbability + executedTimeoutProbability <= 1,
+                    "The total fault probability should not be greater than 1.");
+            return new SimulatedLatency(this);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.stream.Collectors;
+
+/**
+ * 所有表的二进制快照.
+ * <p>
+ * 文件格式: 文件头(magic, 版本, 代数, 表个数), 之后每个表是一个表头块(TableMeta, TableOptions, ReservedThroughput, 二级索引)
+ * 加若干数据块, 以长度-1结束. 数据块: 4字节长度, 4字节行数, 按主键升序排列的行.
+ * 每行: 主键, 列数, 每列的列名, 版本数以及按时间戳降序的(值, 时间戳). 编码见{@link BinaryCodec}.
+ * <p>
+ * 加载时只用定位读扫描块头, 每个数据块单独内存映射, 所有表的所有数据块并行解码;
+ * 块内的行已经有序, 直接用ConcurrentSkipListMap按有序输入O(n)建表, 不需要逐行插入比较.
+ */
+final class SnapshotFile {
+
+    private static final int MAGIC = 0x5353544D;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int BLOCK_HEADER_SIZE = 8;
+    private static final int END_OF_TABLE = -1;
+
+    /**
+     * 数据块大小的目标值, 一个块是并行解码的最小单位
+     */
+    private static final int BLOCK_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * 快照中的一个表
+     */
+    static final class Table {
+        final TableMeta meta;
+        final TableOptions tableOptions;
+        final ReservedThroughput reservedThroughput;
+
+        /**
+         * 按主键升序的行. 写快照时是创建时取得的数据引用, 之后整表替换不影响这次快照; 读快照时是解码出的各个块
+         */
+        final SortedMap<EncodedPrimaryKey, RowVersion> rows;
+
+        /**
+         * 这张表上的二级索引, 索引的数据是快照中的另一张表
+         */
+        final List<SecondaryIndexMeta> indexes;
+
+        Table(TableMeta meta, InMemoryTableInstance instance) {
+            this(meta, instance.tableOptions, instance.reservedThroughput, instance.getRows(),
+                    Arrays.stream(instance.indexes).map(index -> index.definition).collect(Collectors.toList()));
+        }
+
+        Table(TableMeta meta, TableOptions tableOptions, ReservedThroughput reservedThroughput,
+              SortedMap<EncodedPrimaryKey, RowVersion> rows, List<SecondaryIndexMeta> indexes) {
+            this.meta = meta;
+            this.tableOptions = tableOptions;
+            this.reservedThroughput = reservedThroughput;
+            this.rows = rows;
+            this.indexes = indexes;
+        }
+    }
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * 先写到同目录下的临时文件并落盘, 再原子地替换目标文件, 崩溃时目标文件要么是旧快照要么是完整的新快照.
+     * 迭代的是{@link Table#rows}的弱一致视图, 写入期间这些表上的写操作可能只有一部分出现在快照中, 由之后的日志回放补齐
+     *
+     * @param generation 快照之后的预写日志的代数
+     */
+    static void write(Path file, long generation, List<Table> tables) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            BinaryCodec.Output output = new BinaryCodec.Output(BLOCK_SIZE + 64 * 1024);
+            output.putInt(MAGIC).putInt(VERSION).putLong(generation).putInt(tables.size());
+            writeFully(channel, output);
+            for (Table table : tables) {
+                BinaryCodec.Output header = new BinaryCodec.Output(128);
+                BinaryCodec.putTableMeta(header, table.meta);
+                BinaryCodec.putTableOptions(header, table.tableOptions);
+                BinaryCodec.putReservedThroughput(header, table.reservedThroughput);
+                header.putVarInt(table.indexes.size());
+                for (SecondaryIndexMeta index : table.indexes) {
+                    BinaryCodec.putSecondaryIndexMeta(header, index);
+                }
+                output.putInt(header.size()).put(header.view());
+                writeFully(channel, output);
+
+                int rowCount = 0;
+                output.putInt(0).putInt(0);
+                for (RowVersion row : table.rows.values()) {
+                    putRow(output, row);
+                    rowCount++;
+                    if (output.size() >= BLOCK_SIZE) {
+                        writeBlock(channel, output, rowCount);
+                        rowCount = 0;
+                        output.putInt(0).putInt(0);
+                    }
+                }
+                if (rowCount > 0) {
+                    writeBlock(channel, output, rowCount);
+                } else {
+                    output.clear();
+                }
+                output.putInt(END_OF_TABLE);
+                writeFully(channel, output);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void putRow(BinaryCodec.Output output, RowVersion row) {
+        BinaryCodec.putPrimaryKey(output, row.getPrimaryKey().toPrimaryKey());
+        BinaryCodec.putColumns(output, row);
+    }
+
+    /**
+     * @param primaryKeyNames 表结构中的主键列名, 这张表解码出的主键共用
+     */
+    private static RowVersion getRow(ByteBuffer input, String[] primaryKeyNames) {
+        PrimaryKey primaryKey = BinaryCodec.getPrimaryKey(input);
+        return BinaryCodec.getRowVersion(EncodedPrimaryKey.of(primaryKey.getPrimaryKeyColumns(), primaryKeyNames), input);
+    }
+
+    /**
+     * 回填块头中的长度和行数后写出整个块
+     */
+    private static void writeBlock(FileChannel channel, BinaryCodec.Output output, int rowCount) throws IOException {
+        ByteBuffer block = output.view();
+        block.putInt(0, block.remaining() - BLOCK_HEADER_SIZE).putInt(4, rowCount);
+        writeFully(channel, output);
+    }
+
+    private static void writeFully(FileChannel channel, BinaryCodec.Output output) throws IOException {
+        ByteBuffer buffer = output.view();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        output.clear();
+    }
+
+    /**
+     * @return 快照的代数
+     */
+    static long generation(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readHeader(channel).getLong(8);
+        }
+    }
+
+    /**
+     * 加载快照中的所有表, 按写入时的顺序返回. 数据块并行解码, 每张表的行是各个块拼成的{@link SortedRows}, 由表按自己的存储方式建表
+     */
+    static List<Table> read(Path file) throws IOException {
+        List<TableMeta> metas = new ArrayList<>();
+        List<TableOptions> options = new ArrayList<>();
+        List<ReservedThroughput> reservedThroughputs = new ArrayList<>();
+        List<List<SecondaryIndexMeta>> indexes = new ArrayList<>();
+        List<List<Block>> tableBlocks = new ArrayList<>();
+        List<Block> allBlocks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int tableCount = readHeader(channel).getInt(16);
+            long position = HEADER_SIZE;
+            for (int t = 0; t < tableCount; t++) {
+                int headerLength = read(channel, position, 4).getInt();
+                ByteBuffer header = read(channel, position + 4, headerLength);
+                position += 4 + headerLength;
+                TableMeta meta = BinaryCodec.getTableMeta(header);
+                String[] primaryKeyNames = EncodedPrimaryKey.names(meta);
+                metas.add(meta);
+                options.add(BinaryCodec.getTableOptions(header));
+                reservedThroughputs.add(BinaryCodec.getReservedThroughput(header));
+                // 早期的快照没有二级索引
+                List<SecondaryIndexMeta> tableIndexes = new ArrayList<>();
+                int indexCount = header.hasRemaining() ? BinaryCodec.getVarInt(header) : 0;
+                for (int i = 0; i < indexCount; i++) {
+                    tableIndexes.add(BinaryCodec.getSecondaryIndexMeta(header));
+                }
+                indexes.add(tableIndexes);
+
+                List<Block> blocks = new ArrayList<>();
+                for (;;) {
+                    int length = read(channel, position, 4).getInt();
+                    if (length == END_OF_TABLE) {
+                        position += 4;
+                        break;
+                    }
+                    int rowCount = read(channel, position + 4, 4).getInt();
+                    ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, position + BLOCK_HEADER_SIZE, length);
+                    blocks.add(new Block(data.order(ByteOrder.LITTLE_ENDIAN), rowCount, primaryKeyNames));
+                    position += BLOCK_HEADER_SIZE + length;
+                }
+                tableBlocks.add(blocks);
+                allBlocks.addAll(blocks);
+            }
+        }
+        // 映射在channel关闭后仍然有效
+        allBlocks.parallelStream().forEach(Block::decode);
+
+        List<Table> tables = new ArrayList<>(metas.size());
+        for (int t = 0; t < metas.size(); t++) {
+            SortedRows rows = new SortedRows(tableBlocks.get(t).stream().map(block -> block.rows)
+                    .collect(Collectors.toList()));
+            tables.add(new Table(metas.get(t), options.get(t), reservedThroughputs.get(t), rows, indexes.get(t)));
+        }
+        return tables;
+    }
+
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = read(channel, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("not a snapshot of this version");
+        }
+        return header;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of snapshot");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 一个内存映射的数据块, 解码后只保留行
+     */
+    private static final class Block {
+        private ByteBuffer data;
+        private final RowVersion[] rows;
+        private final String[] primaryKeyNames;
+
+        Block(ByteBuffer data, int rowCount, String[] primaryKeyNames) {
+            this.data = data;
+            this.rows = new RowVersion[rowCount];
+            this.primaryKeyNames = primaryKeyNames;
+        }
+
+        void decode() {
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = getRow(data, primaryKeyNames);
+            }
+            data = null;
+        }
+    }
+}
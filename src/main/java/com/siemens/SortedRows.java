@@ -0,0 +1,194 @@
+package com.siemens;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * 把若干段已经按主键严格升序排好的行按顺序拼成一个只读的SortedMap, 用于new ConcurrentSkipListMap(SortedMap)按有序输入O(n)建表.
+ * 所有的段按顺序编号成一个行数组, 子视图是其中的一个下标区间, 按主键查找和切分都是在区间上二分
+ */
+final class SortedRows extends AbstractMap<EncodedPrimaryKey, RowVersion> implements SortedMap<EncodedPrimaryKey, RowVersion> {
+
+    private final List<RowVersion[]> chunks;
+
+    /**
+     * offsets[i]是第i段第一行的下标, 最后一个元素是总行数
+     */
+    private final int[] offsets;
+
+    /**
+     * 这个视图包含的下标区间[from, to)
+     */
+    private final int from;
+    private final int to;
+
+    /**
+     * @param chunks 每一段内以及段与段之间都按主键严格升序
+     */
+    SortedRows(List<RowVersion[]> chunks) {
+        this.chunks = chunks;
+        this.offsets = new int[chunks.size() + 1];
+        for (int i = 0; i < chunks.size(); i++) {
+            offsets[i + 1] = offsets[i] + chunks.get(i).length;
+        }
+        this.from = 0;
+        this.to = offsets[chunks.size()];
+    }
+
+    private SortedRows(SortedRows rows, int from, int to) {
+        this.chunks = rows.chunks;
+        this.offsets = rows.offsets;
+        this.from = from;
+        this.to = Math.max(from, to);
+    }
+
+    /**
+     * @return 下标为index的行所在的段, 即最后一个起点不大于index的段, 一定不是空段
+     */
+    private int chunk(int index) {
+        int low = 0;
+        int high = chunks.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (offsets[middle] <= index) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private RowVersion row(int index) {
+        int chunk = chunk(index);
+        return chunks.get(chunk)[index - offsets[chunk]];
+    }
+
+    /**
+     * @return 视图中第一个主键不小于primaryKey的行的下标, 没有时为to
+     */
+    private int lowerBound(EncodedPrimaryKey primaryKey) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (row(middle).getPrimaryKey().compareTo(primaryKey) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public Comparator<? super EncodedPrimaryKey> comparator() {
+        return null;
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public RowVersion get(Object key) {
+        if (!(key instanceof EncodedPrimaryKey)) {
+            return null;
+        }
+        int index = lowerBound((EncodedPrimaryKey) key);
+        if (index == to) {
+            return null;
+        }
+        RowVersion row = row(index);
+        return row.getPrimaryKey().equals(key) ? row : null;
+    }
+
+    @Override
+    public Set<Entry<EncodedPrimaryKey, RowVersion>> entrySet() {
+        return new AbstractSet<Entry<EncodedPrimaryKey, RowVersion>>() {
+            @Override
+            public Iterator<Entry<EncodedPrimaryKey, RowVersion>> iterator() {
+                return new Iterator<Entry<EncodedPrimaryKey, RowVersion>>() {
+                    private int chunk = from < to ? chunk(from) : 0;
+                    private int row = from - offsets[chunk];
+                    private int remaining = to - from;
+
+                    @Override
+                    public boolean hasNext() {
+                        return remaining > 0;
+                    }
+
+                    @Override
+                    public Entry<EncodedPrimaryKey, RowVersion> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        while (row >= chunks.get(chunk).length) {
+                            chunk++;
+                            row = 0;
+                        }
+                        remaining--;
+                        RowVersion version = chunks.get(chunk)[row++];
+                        return new SimpleImmutableEntry<>(version.getPrimaryKey(), version);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return SortedRows.this.size();
+            }
+        };
+    }
+
+    /**
+     * 与{@link java.util.TreeMap#subMap}不同, 超出这个视图范围的端点被截断到范围之内, 不抛出异常
+     *
+     * @throws IllegalArgumentException fromKey大于toKey
+     */
+    @Override
+    public SortedMap<EncodedPrimaryKey, RowVersion> subMap(EncodedPrimaryKey fromKey, EncodedPrimaryKey toKey) {
+        if (fromKey.compareTo(toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        return new SortedRows(this, lowerBound(fromKey), lowerBound(toKey));
+    }
+
+    @Override
+    public SortedMap<EncodedPrimaryKey, RowVersion> headMap(EncodedPrimaryKey toKey) {
+        return new SortedRows(this, from, lowerBound(toKey));
+    }
+
+    @Override
+    public SortedMap<EncodedPrimaryKey, RowVersion> tailMap(EncodedPrimaryKey fromKey) {
+        return new SortedRows(this, lowerBound(fromKey), to);
+    }
+
+    @Override
+    public EncodedPrimaryKey firstKey() {
+        if (from == to) {
+            throw new NoSuchElementException();
+        }
+        return row(from).getPrimaryKey();
+    }
+
+    @Override
+    public EncodedPrimaryKey lastKey() {
+        if (from == to) {
+            throw new NoSuchElementException();
+        }
+        return row(to - 1).getPrimaryKey();
+    }
+}
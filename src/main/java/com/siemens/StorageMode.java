@@ -0,0 +1,18 @@
+package com.siemens;
+
+/**
+ * 表数据的存放方式
+ */
+public enum StorageMode {
+
+    /**
+     * 每行是堆上的RowVersion, 读取最快
+     */
+    HEAP,
+
+    /**
+     * 每行编码后放在堆外的段中, 堆上只有主键索引, 适合几千万行的测试数据, GC压力小得多, 读写需要编解码.
+     * 堆外内存受-XX:MaxDirectMemorySize限制
+     */
+    OFF_HEAP
+}
@@ -0,0 +1,316 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.core.utils.Preconditions;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 内存数据库的运行统计: 每种操作的次数, 失败次数和延迟直方图; 每张表的行数, 数据量, 堆外内存和分段锁等待.
+ * <p>
+ * 操作分两层记录: 存储层按InMemoryTableInstanceManager的方法名(putRow, getRange...)记录执行本身的耗时;
+ * MockSyncClient按"client."加接口方法名记录, 包括代理分发和模拟的延迟. 计数都是LongAdder, 直方图见{@link LatencyHistogram}.
+ * 读时钟比一次存储操作的开销不小多少, 默认每16次操作随机抽一次计时, 次数和失败次数仍然是精确的, 每次操作平均只多十几纳秒;
+ * 需要精确的最大值时可以用{@link #setSampleInterval}改成每次都计时.
+ * 表的行数和数据量在写入时增量维护, 分段锁只在没能立即拿到时才计时.
+ * <p>
+ * {@link #snapshot()}返回某一时刻的只读快照; {@link #register(String)}把同样的数据注册为JMX MXBean,
+ * 在JConsole/VisualVM中按"com.siemens:type=MockTableStore,name=..."查看.
+ */
+public final class StoreMetrics implements StoreMetricsMXBean {
+
+    static final String CLIENT_PREFIX = "client.";
+
+    /**
+     * {@link Operation#start()}在不计时的操作上返回的值
+     */
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    /**
+     * 每多少次操作计时一次, 2的幂
+     */
+    private volatile int sampleMask = DEFAULT_SAMPLE_INTERVAL - 1;
+
+    static final int DEFAULT_SAMPLE_INTERVAL = 16;
+
+    /**
+     * 一种操作的计数器. 次数和失败次数是精确的, 延迟随机抽样记录
+     */
+    final class Operation {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        /**
+         * @return 传给{@link #record}的开始时间, 这次不计时时不读时钟
+         */
+        long start() {
+            return (ThreadLocalRandom.current().nextInt() & sampleMask) == 0 ? System.nanoTime() : NOT_SAMPLED;
+        }
+
+        /**
+         * @param start {@link #start()}的返回值
+         */
+        void record(long start) {
+            count.increment();
+            if (start != NOT_SAMPLED) {
+                latency.record(System.nanoTime() - start);
+            }
+        }
+
+        void failed() {
+            errors.increment();
+        }
+    }
+
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+    private final Map<String, InMemoryTableInstance> tables;
+
+    private volatile ObjectName objectName;
+
+    /**
+     * @param tables 表名 -> 表, 快照时读取每张表当前的统计
+     */
+    StoreMetrics(Map<String, InMemoryTableInstance> tables) {
+        this.tables = tables;
+    }
+
+    /**
+     * @param interval 每多少次操作计时一次, 必须是2的幂, 1表示每次都计时
+     */
+    public void setSampleInterval(int interval) {
+        Preconditions.checkArgument(interval > 0 && Integer.bitCount(interval) == 1,
+                "The sample interval should be a power of 2.");
+        sampleMask = interval - 1;
+    }
+
+    Operation operation(String name) {
+        Operation operation = operations.get(name);
+        return operation != null ? operation : operations.computeIfAbsent(name, key -> new Operation());
+    }
+
+    /**
+     * @return 当前的统计, 按操作名和表名排序
+     */
+    public Snapshot snapshot() {
+        Map<String, OperationStats> operationStats = new TreeMap<>();
+        for (Map.Entry<String, Operation> entry : operations.entrySet()) {
+            Operation operation = entry.getValue();
+            operationStats.put(entry.getKey(), new OperationStats(operation.count.sum(), operation.errors.sum(),
+                    operation.latency.snapshot()));
+        }
+        Map<String, TableStats> tableStats = new TreeMap<>();
+        for (Map.Entry<String, InMemoryTableInstance> entry : tables.entrySet()) {
+            InMemoryTableInstance instance = entry.getValue();
+            tableStats.put(entry.getKey(), new TableStats(instance.rowCount(), instance.dataBytes(),
+                    instance instanceof OffHeapTableInstance ? ((OffHeapTableInstance) instance).offHeapBytes() : 0,
+                    instance.lockWait.snapshot()));
+        }
+        return new Snapshot(operationStats, tableStats);
+    }
+
+    @Override
+    public Map<String, OperationStats> getOperations() {
+        return snapshot().getOperations();
+    }
+
+    @Override
+    public Map<String, TableStats> getTables() {
+        return snapshot().getTables();
+    }
+
+    /**
+     * 清空操作计数和每张表的锁等待, 表的行数和数据量不受影响
+     */
+    @Override
+    public void reset() {
+        for (Operation operation : operations.values()) {
+            operation.count.reset();
+            operation.errors.reset();
+            operation.latency.reset();
+        }
+        for (InMemoryTableInstance instance : tables.values()) {
+            instance.lockWait.reset();
+        }
+    }
+
+    /**
+     * 注册到平台MBeanServer, 已经注册过时先注销原来的名字
+     *
+     * @param name ObjectName中的name, 区分同一个进程中的多个内存数据库
+     * @return 注册使用的ObjectName
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        unregister();
+        ObjectName registered = ObjectName.getInstance("com.siemens:type=MockTableStore,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, registered);
+        objectName = registered;
+        return registered;
+    }
+
+    /**
+     * 从平台MBeanServer注销, 没有注册时什么也不做
+     */
+    public synchronized void unregister() throws JMException {
+        ObjectName registered = objectName;
+        if (registered != null) {
+            objectName = null;
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(registered)) {
+                server.unregisterMBean(registered);
+            }
+        }
+    }
+
+    /**
+     * 某一时刻的统计
+     */
+    public static final class Snapshot {
+
+        private final Map<String, OperationStats> operations;
+        private final Map<String, TableStats> tables;
+
+        Snapshot(Map<String, OperationStats> operations, Map<String, TableStats> tables) {
+            this.operations = Collections.unmodifiableMap(operations);
+            this.tables = Collections.unmodifiableMap(tables);
+        }
+
+        /**
+         * @return 操作名 -> 统计, 存储层的操作是方法名, 客户端的操作以"client."开头
+         */
+        public Map<String, OperationStats> getOperations() {
+            return operations;
+        }
+
+        /**
+         * @return 表名 -> 统计
+         */
+        public Map<String, TableStats> getTables() {
+            return tables;
+        }
+
+        /**
+         * @return 操作的统计, 还没有执行过时为空的统计
+         */
+        public OperationStats operation(String name) {
+            OperationStats stats = operations.get(name);
+            return stats != null ? stats : new OperationStats(0, 0, LatencyHistogram.Snapshot.EMPTY);
+        }
+    }
+
+    /**
+     * 一种操作的统计, 延迟单位为纳秒, 由抽样的操作计算
+     */
+    public static final class OperationStats {
+
+        private final long count;
+        private final long errors;
+        private final LatencyHistogram.Snapshot latency;
+
+        OperationStats(long count, long errors, LatencyHistogram.Snapshot latency) {
+            this.count = count;
+            this.errors = errors;
+            this.latency = latency;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getMeanNanos() {
+            return latency.getMean();
+        }
+
+        public long getP50Nanos() {
+            return latency.getValueAtQuantile(0.5);
+        }
+
+        public long getP99Nanos() {
+            return latency.getValueAtQuantile(0.99);
+        }
+
+        public long getP999Nanos() {
+            return latency.getValueAtQuantile(0.999);
+        }
+
+        public long getMaxNanos() {
+            return latency.getMax();
+        }
+
+        /**
+         * @return 抽样的延迟直方图, 可以与其他快照合并
+         */
+        public LatencyHistogram.Snapshot latency() {
+            return latency;
+        }
+    }
+
+    /**
+     * 一张表的统计
+     */
+    public static final class TableStats {
+
+        private final long rowCount;
+        private final long dataBytes;
+        private final long offHeapBytes;
+        private final LatencyHistogram.Snapshot lockWait;
+
+        TableStats(long rowCount, long dataBytes, long offHeapBytes, LatencyHistogram.Snapshot lockWait) {
+            this.rowCount = rowCount;
+            this.dataBytes = dataBytes;
+            this.offHeapBytes = offHeapBytes;
+            this.lockWait = lockWait;
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * @return 主键和所有列版本的数据大小之和, 按{@link CapacityUnits}的规则计算, 不包括对象头等堆上的额外开销
+         */
+        public long getDataBytes() {
+            return dataBytes;
+        }
+
+        /**
+         * @return 堆外存储持有的内存, 堆上的表为0
+         */
+        public long getOffHeapBytes() {
+            return offHeapBytes;
+        }
+
+        /**
+         * @return 写操作没能立即拿到分段锁的次数
+         */
+        public long getLockWaitCount() {
+            return lockWait.getCount();
+        }
+
+        public long getLockWaitNanos() {
+            return lockWait.getSum();
+        }
+
+        public long getLockWaitP99Nanos() {
+            return lockWait.getValueAtQuantile(0.99);
+        }
+
+        public LatencyHistogram.Snapshot lockWait() {
+            return lockWait;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.siemens;
+
+import java.util.Map;
+
+/**
+ * {@link StoreMetrics}的JMX接口
+ */
+public interface StoreMetricsMXBean {
+
+    Map<String, StoreMetrics.OperationStats> getOperations();
+
+    Map<String, StoreMetrics.TableStats> getTables();
+
+    void reset();
+}
@@ -0,0 +1,54 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.TableOptions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按表的TableOptions(timeToLive, maxVersions)决定哪些版本还可见.
+ * <p>
+ * 时间戳早于当前时间减去timeToLive的版本已经过期, 每列只有最新的maxVersions个版本可见, 所有列都不可见的行不存在.
+ * 读和条件检查只看{@link #visible}之后的版本; 写入时新版本直接去掉不可见的部分,
+ * 没有被写到的行由{@link RetentionCompactor}在后台回收. 没有设置的选项不做限制.
+ */
+final class VersionRetention {
+
+    static final VersionRetention UNLIMITED = new VersionRetention(Long.MAX_VALUE, Integer.MAX_VALUE);
+
+    /**
+     * 过期时间, 毫秒; Long.MAX_VALUE表示永不过期
+     */
+    private final long timeToLiveMillis;
+    private final int maxVersions;
+
+    private VersionRetention(long timeToLiveMillis, int maxVersions) {
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.maxVersions = maxVersions;
+    }
+
+    static VersionRetention of(TableOptions tableOptions) {
+        long timeToLive = tableOptions != null && tableOptions.hasSetTimeToLive() && tableOptions.getTimeToLive() > 0
+                ? TimeUnit.SECONDS.toMillis(tableOptions.getTimeToLive()) : Long.MAX_VALUE;
+        int maxVersions = tableOptions != null && tableOptions.hasSetMaxVersions() && tableOptions.getMaxVersions() > 0
+                ? tableOptions.getMaxVersions() : Integer.MAX_VALUE;
+        return timeToLive == Long.MAX_VALUE && maxVersions == Integer.MAX_VALUE ? UNLIMITED
+                : new VersionRetention(timeToLive, maxVersions);
+    }
+
+    boolean isUnlimited() {
+        return this == UNLIMITED;
+    }
+
+    /**
+     * @param version 行的版本, 可以为null
+     * @param now     当前时间, 毫秒
+     * @return 只包含可见版本的行, 没有不可见版本时返回原对象, 整行都不可见时返回null
+     */
+    RowVersion visible(RowVersion version, long now) {
+        if (version == null || this == UNLIMITED) {
+            return version;
+        }
+        long minTimestamp = timeToLiveMillis == Long.MAX_VALUE ? Long.MIN_VALUE : now - timeToLiveMillis;
+        return version.retain(minTimestamp, maxVersions);
+    }
+}
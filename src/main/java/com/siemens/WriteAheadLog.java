@@ -0,0 +1,433 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.ClientException;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * 只追加的预写日志.
+ * <p>
+ * 文件格式: 16字节文件头(magic, 版本, 代数), 之后是一条条记录: 4字节长度, 4字节CRC32, 记录内容.
+ * checkpoint时日志轮转: 当前文件改名为归档文件(文件名后加上它的代数), 新的日志代数加一; 快照记录了轮转后的代数,
+ * 代数比快照小的日志已经包含在快照中, 快照落盘后删除. 快照写完之前崩溃时归档还在, 打开时先按代数回放归档再回放当前日志.
+ * 进程崩溃时最后一条记录可能只写了一半, 打开时从第一条长度或CRC不对的记录处截断.
+ * <p>
+ * 组提交: 写者在持有行锁时把记录追加到内存缓冲区({@link #append}), 释放行锁后调用{@link #sync}等待落盘.
+ * 第一个发现没有刷盘在进行的等待者成为leader, 把缓冲区里所有写者的记录一次write并fsync,
+ * 其余等待者只需要等这次刷盘结束, 并发写入越多, 每次fsync分摊的写入越多.
+ * leader刷盘之前最多等待{@link #GROUP_COMMIT_WINDOW_NANOS}, 直到等待者达到上一批的人数, 让刚释放行锁的写者赶上这一批;
+ * 上一批只有一个写者时不等待, 单线程写入的延迟不变.
+ * <p>
+ * 指定刷盘间隔时写者不再等待落盘, 由后台线程按间隔刷盘, 进程崩溃时最多丢失一个间隔内的写入, 写入几乎没有额外开销.
+ */
+final class WriteAheadLog implements Closeable {
+
+    /**
+     * 记录类型, 记录内容的第一个字节
+     */
+    static final byte CREATE_TABLE = 1;
+    static final byte DELETE_TABLE = 2;
+    static final byte ROW_CHANGE = 3;
+    static final byte CREATE_INDEX = 4;
+
+    private static final int MAGIC = 0x4C57544D;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * leader凑齐一批写者最多等待的时间, 与一次fsync的耗时相当
+     */
+    static final long GROUP_COMMIT_WINDOW_NANOS = 200_000;
+
+    private final Path file;
+    private FileChannel channel;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+    private final Condition arrived = lock.newCondition();
+
+    /**
+     * 已经追加但还没有写入文件的记录
+     */
+    private BinaryCodec.Output pending = new BinaryCodec.Output(64 * 1024);
+    /**
+     * 正在刷盘的leader用完后还回来的缓冲区, 两个缓冲区交替使用
+     */
+    private BinaryCodec.Output spare = new BinaryCodec.Output(64 * 1024);
+    /**
+     * 追加过的字节数和已经落盘的字节数, 从打开时的文件开头算起, reset之后也不归零, 等待者比较的位置始终有效
+     */
+    private long appended;
+    private long durable;
+    private boolean flushing;
+    /**
+     * leader正在等待其他写者, 新来的等待者需要唤醒它
+     */
+    private boolean gathering;
+    /**
+     * 正在等待落盘的线程数, 以及上一次刷盘时的等待者数
+     */
+    private int waiters;
+    private int lastGroupSize = 1;
+    /**
+     * 刷盘的次数
+     */
+    private long flushes;
+    private volatile IOException failure;
+    private long generation;
+
+    /**
+     * 按间隔刷盘的后台线程, 组提交模式下为null
+     */
+    private final ScheduledExecutorService flusher;
+
+    private WriteAheadLog(Path file, FileChannel channel, long generation, long size, long syncIntervalMillis) {
+        this.file = file;
+        this.channel = channel;
+        this.generation = generation;
+        this.appended = size;
+        this.durable = size;
+        if (syncIntervalMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "mock-tablestore-wal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(() -> {
+                try {
+                    awaitDurable();
+                } catch (ClientException e) {
+                    // 记录在failure中, 下一次写入时抛给调用方
+                }
+            }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * 打开日志, 先按代数回放快照之后的归档, 再按顺序回放当前日志中所有完整的记录, 截断末尾不完整的记录,
+     * 之后的追加从文件末尾开始. 代数比快照小的归档已经包含在快照中, 直接删除
+     *
+     * @param file               日志文件, 不存在时创建
+     * @param syncIntervalMillis 0表示每次写入都等待组提交落盘, 大于0表示由后台线程按这个间隔刷盘
+     * @param generation         已经加载的快照的代数, 没有快照时为0. 更早的日志已经包含在快照中, 直接清空
+     * @param replay             每条记录的内容, 只在回放期间有效
+     * @throws IOException 读写失败, 或者日志比快照新(快照丢失或者不是最新的)
+     */
+    static WriteAheadLog open(Path file, long syncIntervalMillis, long generation, Consumer<ByteBuffer> replay)
+            throws IOException {
+        for (Map.Entry<Long, Path> archive : archives(file).entrySet()) {
+            if (archive.getKey() < generation) {
+                Files.delete(archive.getValue());
+                continue;
+            }
+            if (archive.getKey() > generation) {
+                throw new IOException("missing write ahead log archive of generation " + generation);
+            }
+            try (FileChannel channel = FileChannel.open(archive.getValue(), StandardOpenOption.READ)) {
+                if (readGeneration(channel) != generation) {
+                    throw new IOException("unexpected generation in " + archive.getValue());
+                }
+                replay(channel, replay);
+            }
+            generation++;
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            long size;
+            long logGeneration = channel.size() < HEADER_SIZE ? -1 : readGeneration(channel);
+            if (logGeneration > generation) {
+                throw new IOException("the write ahead log is newer than the snapshot, generation " + logGeneration
+                        + " > " + generation);
+            } else if (logGeneration < generation) {
+                size = writeHeader(channel, generation);
+            } else {
+                size = replay(channel, replay);
+                channel.truncate(size);
+            }
+            channel.position(size);
+            return new WriteAheadLog(file, channel, generation, size, syncIntervalMillis);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static Path archive(Path file, long generation) {
+        return file.resolveSibling(file.getFileName() + "." + generation);
+    }
+
+    /**
+     * @return 日志的所有归档, 按代数升序
+     */
+    private static SortedMap<Long, Path> archives(Path file) throws IOException {
+        SortedMap<Long, Path> archives = new TreeMap<>();
+        Path directory = file.toAbsolutePath().getParent();
+        String prefix = file.getFileName() + ".";
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path path : paths) {
+                String suffix = path.getFileName().toString().substring(prefix.length());
+                if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+                    archives.put(Long.parseLong(suffix), path);
+                }
+            }
+        }
+        return archives;
+    }
+
+    private static long readGeneration(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // 读满文件头
+        }
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("not a write ahead log of this version");
+        }
+        return header.getLong();
+    }
+
+    /**
+     * 清空文件, 只写入文件头
+     *
+     * @return 文件头的长度
+     */
+    private static long writeHeader(FileChannel channel, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+        channel.truncate(0);
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(true);
+        return HEADER_SIZE;
+    }
+
+    /**
+     * @return 最后一条完整记录的结束位置
+     */
+    private static long replay(FileChannel channel, Consumer<ByteBuffer> replay) throws IOException {
+        channel.position(HEADER_SIZE);
+        InputStream stream = new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+        DataInputStream input = new DataInputStream(stream);
+        long position = HEADER_SIZE;
+        long size = channel.size();
+        byte[] record = new byte[1024];
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER_SIZE <= size) {
+            int length;
+            int checksum;
+            try {
+                length = Integer.reverseBytes(input.readInt());
+                checksum = Integer.reverseBytes(input.readInt());
+                if (length < 0 || position + RECORD_HEADER_SIZE + length > size) {
+                    break;
+                }
+                if (record.length < length) {
+                    record = new byte[Math.max(length, record.length * 2)];
+                }
+                input.readFully(record, 0, length);
+            } catch (EOFException e) {
+                break;
+            }
+            crc.reset();
+            crc.update(record, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            replay.accept(ByteBuffer.wrap(record, 0, length).order(ByteOrder.LITTLE_ENDIAN));
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    /**
+     * 把一条记录追加到内存缓冲区, 不等待落盘. 同一行的记录必须在持有该行写锁时追加, 保证日志中的顺序与执行顺序一致
+     */
+    void append(ByteBuffer record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.duplicate());
+        int length = record.remaining();
+        lock.lock();
+        try {
+            pending.putInt(length).putInt((int) crc.getValue()).put(record);
+            appended += RECORD_HEADER_SIZE + length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 组提交模式下等待调用之前追加的所有记录落盘; 按间隔刷盘时不等待, 只检查之前的刷盘有没有失败
+     *
+     * @throws ClientException 写文件失败, 之后的sync都会失败
+     */
+    void sync() {
+        if (flusher == null) {
+            awaitDurable();
+        } else if (failure != null) {
+            throw new ClientException("Failed to write the write ahead log.", failure);
+        }
+    }
+
+    private void awaitDurable() {
+        lock.lock();
+        try {
+            waiters++;
+            if (gathering) {
+                arrived.signal();
+            }
+            long target = appended;
+            while (durable < target) {
+                if (failure != null) {
+                    throw new ClientException("Failed to write the write ahead log.", failure);
+                }
+                if (flushing) {
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+                flushing = true;
+                gather();
+                flush();
+            }
+        } finally {
+            waiters--;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * leader等待上一批的其他写者追加完记录并开始等待, 最多等待{@link #GROUP_COMMIT_WINDOW_NANOS}. 调用时持有lock
+     */
+    private void gather() {
+        long remaining = GROUP_COMMIT_WINDOW_NANOS;
+        gathering = true;
+        try {
+            while (waiters < lastGroupSize && remaining > 0) {
+                remaining = arrived.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            gathering = false;
+        }
+    }
+
+    /**
+     * leader刷盘, 调用时持有lock并且已经设置了flushing, 写文件和fsync期间释放lock, 其他写者可以继续追加到新的缓冲区
+     */
+    private void flush() {
+        BinaryCodec.Output batch = pending;
+        pending = spare;
+        spare = null;
+        long batchEnd = appended;
+        lastGroupSize = waiters;
+        flushes++;
+        lock.unlock();
+        IOException error = null;
+        try {
+            ByteBuffer buffer = batch.view();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            lock.lock();
+            batch.clear();
+            spare = batch;
+            flushing = false;
+            if (error == null) {
+                durable = batchEnd;
+            } else {
+                failure = error;
+            }
+            flushed.signalAll();
+        }
+    }
+
+    long flushes() {
+        lock.lock();
+        try {
+            return flushes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 轮转日志: 等待已追加的记录落盘, 把当前文件改名为归档, 之后的记录写入代数加一的新文件.
+     * 调用方必须保证期间没有写入, 轮转只有两次文件操作, 不随数据量增长
+     *
+     * @return 新的代数, 在这之后开始的快照记录这个代数
+     * @throws IOException 改名或者创建新文件失败, 之后的写入都会失败
+     */
+    long rotate() throws IOException {
+        awaitDurable();
+        lock.lock();
+        try {
+            channel.close();
+            Files.move(file, archive(file, generation), StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            channel.position(writeHeader(channel, generation + 1));
+            return ++generation;
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 快照落盘后删除已经包含在快照中的归档
+     *
+     * @param generation 快照的代数
+     */
+    void dropArchives(long generation) throws IOException {
+        for (Map.Entry<Long, Path> archive : archives(file).headMap(generation).entrySet()) {
+            Files.delete(archive.getValue());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (flusher != null) {
+                flusher.shutdown();
+            }
+            awaitDurable();
+        } finally {
+            channel.close();
+        }
+    }
+}
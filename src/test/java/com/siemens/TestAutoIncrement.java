@@ -0,0 +1,116 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.TableStoreException;
+import com.alicloud.openservices.tablestore.model.*;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class TestAutoIncrement {
+
+    private static final String CST = "auto_increment_table";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void createTable(SimpleInMemoryTableStore store) {
+        TableMeta meta = new TableMeta(CST);
+        meta.addPrimaryKeyColumn(new PrimaryKeySchema("user", PrimaryKeyType.STRING));
+        meta.addPrimaryKeyColumn(new PrimaryKeySchema("order", PrimaryKeyType.INTEGER, PrimaryKeyOption.AUTO_INCREMENT));
+        store.createTable(new CreateTableRequest(meta, new TableOptions(-1, 1)));
+    }
+
+    private static RowPutChange put(String user) {
+        RowPutChange change = new RowPutChange(CST, PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("user", PrimaryKeyValue.fromString(user))
+                .addPrimaryKeyColumn("order", PrimaryKeyValue.AUTO_INCREMENT).build());
+        change.addColumn(new Column("co1", ColumnValue.fromString(user)));
+        change.setReturnType(ReturnType.RT_PK);
+        return change;
+    }
+
+    private static long putRow(SimpleInMemoryTableStore store, String user) {
+        PutRowResponse response = store.inMemoryTableInstanceManager.putRow(new PutRowRequest(put(user)));
+        return response.getRow().getPrimaryKey().getPrimaryKeyColumn("order").getValue().asLong();
+    }
+
+    @Test
+    public void testPutAndBatchWrite() {
+        SimpleInMemoryTableStore store = new SimpleInMemoryTableStore();
+        createTable(store);
+        long first = putRow(store, "u1");
+        long second = putRow(store, "u1");
+        Assert.assertTrue(second > first);
+
+        BatchWriteRowRequest request = new BatchWriteRowRequest();
+        for (int i = 0; i < 10; i++) {
+            request.addRowChange(put("u" + i % 2));
+        }
+        List<BatchWriteRowResponse.RowResult> results = store.inMemoryTableInstanceManager.batchWriteRow(request)
+                .getRowStatus(CST);
+        long last = second;
+        for (int i = 1; i < 10; i += 2) {
+            long order = results.get(i).getRow().getPrimaryKey().getPrimaryKeyColumn("order").getValue().asLong();
+            Assert.assertTrue(order > last);
+            last = order;
+        }
+        Assert.assertEquals(12, store.getInMemoryTableInstance(CST).rowCount());
+
+        RowUpdateChange update = new RowUpdateChange(CST, put("u1").getPrimaryKey());
+        update.put("co1", ColumnValue.fromString("x"));
+        try {
+            store.inMemoryTableInstanceManager.updateRow(new UpdateRowRequest(update));
+            Assert.fail();
+        } catch (TableStoreException e) {
+            Assert.assertEquals("OTSParameterInvalid", e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testConcurrentPuts() throws InterruptedException {
+        SimpleInMemoryTableStore store = new SimpleInMemoryTableStore();
+        createTable(store);
+        Set<Long> orders = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    orders.add(putRow(store, "u1"));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(4000, orders.size());
+        Assert.assertEquals(4000, store.getInMemoryTableInstance(CST).rowCount());
+    }
+
+    @Test
+    public void testReplayKeepsAllocatedValues() throws IOException {
+        Path log = folder.getRoot().toPath().resolve("store.log");
+        long order;
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(log)) {
+            createTable(store);
+            order = putRow(store, "u1");
+        }
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(log)) {
+            PrimaryKey primaryKey = PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                    .addPrimaryKeyColumn("user", PrimaryKeyValue.fromString("u1"))
+                    .addPrimaryKeyColumn("order", PrimaryKeyValue.fromLong(order)).build();
+            Assert.assertNotNull(store.getInMemoryTableInstance(CST).get(primaryKey));
+            Assert.assertEquals(1, store.getInMemoryTableInstance(CST).rowCount());
+            Assert.assertTrue(putRow(store, "u1") > order);
+        }
+    }
+}
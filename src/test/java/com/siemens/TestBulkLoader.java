@@ -0,0 +1,149 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.*;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestBulkLoader {
+
+    private static final String CST = "bulk_table";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static SimpleInMemoryTableStore createStore() {
+        SimpleInMemoryTableStore store = new SimpleInMemoryTableStore();
+        TableMeta meta = new TableMeta(CST);
+        meta.addPrimaryKeyColumn(new PrimaryKeySchema("pk1", PrimaryKeyType.STRING));
+        meta.addPrimaryKeyColumn(new PrimaryKeySchema("pk2", PrimaryKeyType.INTEGER));
+        store.createTable(new CreateTableRequest(meta, new TableOptions()));
+        return store;
+    }
+
+    private static PrimaryKey primaryKey(String pk1, long pk2) {
+        return PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromString(pk1))
+                .addPrimaryKeyColumn("pk2", PrimaryKeyValue.fromLong(pk2)).build();
+    }
+
+    private static RowVersion get(SimpleInMemoryTableStore store, String pk1, long pk2) {
+        return store.getInMemoryTableInstance(CST).get(primaryKey(pk1, pk2));
+    }
+
+    @Test
+    public void testBulkLoadCsv() throws IOException {
+        SimpleInMemoryTableStore store = createStore();
+        RowPutChange existing = new RowPutChange(CST, primaryKey("old", 0));
+        existing.addColumn(new Column("co1", ColumnValue.fromString("old")));
+        store.inMemoryTableInstanceManager.putRow(new PutRowRequest(existing));
+
+        Path csv = folder.getRoot().toPath().resolve("rows.csv");
+        Files.write(csv, Arrays.asList(
+                "co2:INTEGER,pk2,co1,pk1,co3:BOOLEAN,co4:DOUBLE,co5:BINARY",
+                "1,2,\"a,\"\"b\"\"\",x,true,0.5,AQI=",
+                "2,1,,x,,,",
+                "3,1,c,a,false,,"), StandardCharsets.UTF_8);
+        store.bulkLoadCsv(CST, csv, 3);
+
+        InMemoryTableInstance instance = store.getInMemoryTableInstance(CST);
+        Assert.assertEquals(3, instance.getDataInstance().size());
+        Assert.assertNull(get(store, "old", 0));
+        Assert.assertEquals(Arrays.asList(primaryKey("a", 1), primaryKey("x", 1), primaryKey("x", 2)),
+                new ArrayList<>(instance.getDataInstance().keySet()));
+
+        RowVersion row = get(store, "x", 2);
+        Assert.assertEquals("a,\"b\"", row.getLatestColumn("co1").getValue().asString());
+        Assert.assertEquals(1, row.getLatestColumn("co2").getValue().asLong());
+        Assert.assertTrue(row.getLatestColumn("co3").getValue().asBoolean());
+        Assert.assertEquals(0.5, row.getLatestColumn("co4").getValue().asDouble(), 0);
+        Assert.assertArrayEquals(new byte[]{1, 2}, row.getLatestColumn("co5").getValue().asBinary());
+        Assert.assertEquals(1, get(store, "x", 1).columnCount());
+        Assert.assertNull(get(store, "x", 1).getLatestColumn("co1"));
+
+        // 加载之后可以正常读写
+        RowUpdateChange update = new RowUpdateChange(CST, primaryKey("a", 1));
+        update.put("co1", ColumnValue.fromString("d"));
+        store.inMemoryTableInstanceManager.updateRow(new UpdateRowRequest(update));
+        Assert.assertEquals("d", get(store, "a", 1).getLatestColumn("co1").getValue().asString());
+    }
+
+    @Test
+    public void testBulkLoadCsvWithBadLine() throws IOException {
+        SimpleInMemoryTableStore store = createStore();
+        Path csv = folder.getRoot().toPath().resolve("rows.csv");
+        Files.write(csv, Arrays.asList("pk1,pk2,co1", "a,1,x", "b,two,y"), StandardCharsets.UTF_8);
+        try {
+            store.bulkLoadCsv(CST, csv, 0);
+            Assert.fail("pk2 is not an integer");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("line 3 "));
+        }
+        Assert.assertEquals(0, store.getInMemoryTableInstance(CST).getDataInstance().size());
+    }
+
+    @Test
+    public void testBulkLoadRowsMergesDuplicates() {
+        SimpleInMemoryTableStore store = createStore();
+        List<Row> rows = new ArrayList<>();
+        int count = BulkLoader.BATCH_SIZE * 3 + 5;
+        for (int i = 0; i < count; i++) {
+            rows.add(new Row(primaryKey("k", i), new Column[]{new Column("co1", ColumnValue.fromLong(i), 1)}));
+        }
+        rows.add(new Row(primaryKey("k", 7), new Column[]{
+                new Column("co1", ColumnValue.fromLong(-1), 2),
+                new Column("co2", ColumnValue.fromString("v"))}));
+        Collections.shuffle(rows.subList(0, count));
+        store.bulkLoad(CST, rows.iterator(), rows.size());
+
+        Assert.assertEquals(count, store.getInMemoryTableInstance(CST).getDataInstance().size());
+        RowVersion merged = get(store, "k", 7);
+        Assert.assertEquals(2, merged.getColumn("co1").size());
+        Assert.assertEquals(-1, merged.getLatestColumn("co1").getValue().asLong());
+        Assert.assertEquals(7, merged.getColumn("co1", 1).getValue().asLong());
+        Assert.assertEquals("v", merged.getLatestColumn("co2").getValue().asString());
+        long expected = 0;
+        for (PrimaryKey primaryKey : store.getInMemoryTableInstance(CST).getDataInstance().keySet()) {
+            Assert.assertEquals(expected++, primaryKey.getPrimaryKeyColumn("pk2").getValue().asLong());
+        }
+    }
+
+    private static void assertRejected(SimpleInMemoryTableStore store, PrimaryKey primaryKey, String message) {
+        List<Row> rows = new ArrayList<>();
+        rows.add(new Row(primaryKey("a", 1), new Column[]{new Column("co1", ColumnValue.fromLong(1))}));
+        rows.add(new Row(primaryKey, new Column[]{new Column("co1", ColumnValue.fromLong(2))}));
+        try {
+            store.bulkLoad(CST, rows.iterator(), rows.size());
+            Assert.fail(message);
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("row 2: "));
+        }
+    }
+
+    @Test
+    public void testBulkLoadRowsChecksPrimaryKey() {
+        SimpleInMemoryTableStore store = createStore();
+        assertRejected(store, PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromString("b")).build(), "pk2 is missing");
+        assertRejected(store, PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk2", PrimaryKeyValue.fromLong(1))
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromString("b")).build(), "the order is wrong");
+        assertRejected(store, PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromString("b"))
+                .addPrimaryKeyColumn("pk2", PrimaryKeyValue.fromString("1")).build(), "pk2 is not an integer");
+        assertRejected(store, PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromString("b"))
+                .addPrimaryKeyColumn("pk2", PrimaryKeyValue.AUTO_INCREMENT).build(), "pk2 is a placeholder");
+        Assert.assertEquals(0, store.getInMemoryTableInstance(CST).getDataInstance().size());
+    }
+}
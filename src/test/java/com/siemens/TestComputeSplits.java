@@ -0,0 +1,116 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.SyncClient;
+import com.alicloud.openservices.tablestore.SyncClientInterface;
+import com.alicloud.openservices.tablestore.TableStoreException;
+import com.alicloud.openservices.tablestore.model.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class TestComputeSplits {
+
+    private static final String CST = "splits_table";
+
+    private final SimpleInMemoryTableStore store = new SimpleInMemoryTableStore();
+
+    private final SyncClientInterface syncClient = (SyncClientInterface) Proxy.newProxyInstance(
+            ClassLoader.getSystemClassLoader(), SyncClient.class.getInterfaces(), new MockSyncClient(store));
+
+    public TestComputeSplits() {
+        TableMeta meta = new TableMeta(CST);
+        meta.addPrimaryKeyColumn(new PrimaryKeySchema("pk1", PrimaryKeyType.INTEGER));
+        store.createTable(new CreateTableRequest(meta, new TableOptions(-1, 1)));
+    }
+
+    private static PrimaryKey primaryKey(long value) {
+        return PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromLong(value)).build();
+    }
+
+    /**
+     * 前一半的行比后一半大9倍
+     */
+    private static Row row(int key) {
+        char[] value = new char[key < 5000 ? 900 : 100];
+        return new Row(primaryKey(key), new Column[]{new Column("co1", ColumnValue.fromString(new String(value)))});
+    }
+
+    /**
+     * @return 扫描一份得到的(行数, 字节数)
+     */
+    private long[] scan(Split split) {
+        long[] result = new long[2];
+        PrimaryKey start = split.getLowerBound();
+        while (start != null) {
+            RangeRowQueryCriteria criteria = new RangeRowQueryCriteria(CST);
+            criteria.setInclusiveStartPrimaryKey(start);
+            criteria.setExclusiveEndPrimaryKey(split.getUpperBound());
+            criteria.setMaxVersions(1);
+            GetRangeResponse response = syncClient.getRange(new GetRangeRequest(criteria));
+            for (Row row : response.getRows()) {
+                result[0]++;
+                result[1] += row.getLatestColumn("co1").getValue().asString().length();
+            }
+            start = response.getNextStartPrimaryKey();
+        }
+        return result;
+    }
+
+    private void assertBalanced(int expectedSplits) {
+        List<Split> splits = syncClient.computeSplitsBySize(new ComputeSplitsBySizeRequest(CST, 1)).getSplits();
+        Assert.assertTrue(splits.size() > expectedSplits / 2 && splits.size() <= expectedSplits + 1);
+        Assert.assertTrue(splits.get(0).getLowerBound().getPrimaryKeyColumn(0).getValue().isInfMin());
+        Assert.assertTrue(splits.get(splits.size() - 1).getUpperBound().getPrimaryKeyColumn(0).getValue().isInfMax());
+        for (int i = 1; i < splits.size(); i++) {
+            Assert.assertEquals(splits.get(i - 1).getUpperBound(), splits.get(i).getLowerBound());
+        }
+        List<long[]> scanned = splits.parallelStream().map(this::scan).collect(Collectors.toList());
+        long rows = 0;
+        long bytes = 0;
+        long maxBytes = 0;
+        for (long[] split : scanned) {
+            rows += split[0];
+            bytes += split[1];
+            maxBytes = Math.max(maxBytes, split[1]);
+        }
+        Assert.assertEquals(10000, rows);
+        // 按大小而不是行数切分, 每份的数据量不超过平均的两倍
+        Assert.assertTrue(maxBytes < 2 * bytes / splits.size());
+    }
+
+    @Test
+    public void testSplitsFromBulkLoad() {
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            rows.add(row(i));
+        }
+        store.bulkLoad(CST, rows.iterator(), rows.size());
+        Assert.assertEquals(1, syncClient.computeSplitsBySize(new ComputeSplitsBySizeRequest(CST, 1)).getSplits().size());
+        store.setSplitSizeUnit(store.getInMemoryTableInstance(CST).dataBytes() / 8);
+        assertBalanced(8);
+    }
+
+    @Test
+    public void testSplitsFromWrites() {
+        for (int i = 0; i < 10000; i++) {
+            Row row = row(i);
+            RowPutChange change = new RowPutChange(CST, row.getPrimaryKey());
+            change.addColumn(row.getColumns()[0]);
+            syncClient.putRow(new PutRowRequest(change));
+        }
+        store.setSplitSizeUnit(store.getInMemoryTableInstance(CST).dataBytes() / 4);
+        assertBalanced(4);
+
+        try {
+            syncClient.computeSplitsBySize(new ComputeSplitsBySizeRequest("missing", 1));
+            Assert.fail();
+        } catch (TableStoreException e) {
+            Assert.assertEquals("OTSObjectNotExist", e.getErrorCode());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.TableStoreException;
+import com.alicloud.openservices.tablestore.model.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class TestConsumedCapacity {
+
+    private static final String CST = "capacity_table";
+
+    private final SimpleInMemoryTableStore store = new SimpleInMemoryTableStore();
+
+    private final InMemoryTableInstanceManager manager = store.inMemoryTableInstanceManager;
+
+    private void createTable(int read, int write) {
+        TableMeta meta = new TableMeta(CST);
+        meta.addPrimaryKeyColumn(new PrimaryKeySchema("pk1", PrimaryKeyType.STRING));
+        store.createTable(new CreateTableRequest(meta, new TableOptions(), new ReservedThroughput(read, write)));
+    }
+
+    private static PrimaryKey primaryKey(String value) {
+        return PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromString(value)).build();
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void testRoundsUpToFourKilobytes() {
+        createTable(0, 0);
+        // 主键: "pk1" + "aa" = 5字节, 列: "co1" + 值
+        RowPutChange put = new RowPutChange(CST, primaryKey("aa"));
+        put.addColumn(new Column("co1", ColumnValue.fromString(repeat('x', 4096 - 8))));
+        CapacityUnit consumed = manager.putRow(new PutRowRequest(put)).getConsumedCapacity().getCapacityUnit();
+        Assert.assertEquals(1, consumed.getWriteCapacityUnit());
+        Assert.assertEquals(0, consumed.getReadCapacityUnit());
+
+        put = new RowPutChange(CST, primaryKey("aa"));
+        put.addColumn(new Column("co1", ColumnValue.fromString(repeat('x', 4096 - 7))));
+        put.setCondition(new Condition(RowExistenceExpectation.EXPECT_EXIST));
+        consumed = manager.putRow(new PutRowRequest(put)).getConsumedCapacity().getCapacityUnit();
+        Assert.assertEquals(2, consumed.getWriteCapacityUnit());
+        Assert.assertEquals(1, consumed.getReadCapacityUnit());
+
+        // 两个版本: 5 + (3 + 4088) + (3 + 4089) = 8188
+        SingleRowQueryCriteria criteria = new SingleRowQueryCriteria(CST, primaryKey("aa"));
+        criteria.setMaxVersions(2);
+        Assert.assertEquals(2, manager.noConditionGetRow(new GetRowRequest(criteria))
+                .getConsumedCapacity().getCapacityUnit().getReadCapacityUnit());
+        criteria.setMaxVersions(10);
+        criteria.addColumnsToGet("co2");
+        Assert.assertEquals(1, manager.noConditionGetRow(new GetRowRequest(criteria))
+                .getConsumedCapacity().getCapacityUnit().getReadCapacityUnit());
+        criteria = new SingleRowQueryCriteria(CST, primaryKey("missing"));
+        criteria.setMaxVersions(1);
+        Assert.assertEquals(1, manager.noConditionGetRow(new GetRowRequest(criteria))
+                .getConsumedCapacity().getCapacityUnit().getReadCapacityUnit());
+
+        // 中文每个字符3字节: 5 + (3 + 6000) + 3
+        RowUpdateChange update = new RowUpdateChange(CST, primaryKey("aa"));
+        update.put("co2", ColumnValue.fromString(repeat('中', 2000)));
+        update.deleteColumns("co1");
+        Assert.assertEquals(2, manager.updateRow(new UpdateRowRequest(update))
+                .getConsumedCapacity().getCapacityUnit().getWriteCapacityUnit());
+        Assert.assertEquals(1, manager.deleteRow(new DeleteRowRequest(new RowDeleteChange(CST, primaryKey("aa"))))
+                .getConsumedCapacity().getCapacityUnit().getWriteCapacityUnit());
+    }
+
+    @Test
+    public void testThrottlesAboveReservedThroughput() {
+        createTable(0, 5);
+        store.setThroughputThrottling(true);
+        int accepted = 0;
+        try {
+            for (int i = 0; i < 100; i++) {
+                RowPutChange put = new RowPutChange(CST, primaryKey("k" + i));
+                put.addColumn(new Column("co1", ColumnValue.fromLong(i)));
+                manager.putRow(new PutRowRequest(put));
+                accepted++;
+            }
+            Assert.fail("expected OTSCapacityUnitExhausted");
+        } catch (TableStoreException e) {
+            Assert.assertEquals("OTSCapacityUnitExhausted", e.getErrorCode());
+        }
+        // 初始积攒了一秒的量, 测试期间最多再补充几个
+        Assert.assertTrue(String.valueOf(accepted), accepted >= 5 && accepted < 50);
+
+        BatchWriteRowRequest batch = new BatchWriteRowRequest();
+        batch.addRowChange(new RowDeleteChange(CST, primaryKey("k0")));
+        BatchWriteRowResponse response = manager.batchWriteRow(batch);
+        Assert.assertFalse(response.getRowStatus(CST).get(0).isSucceed());
+        Assert.assertEquals("OTSCapacityUnitExhausted", response.getRowStatus(CST).get(0).getError().getCode());
+
+        // 读没有预留, 不限流
+        SingleRowQueryCriteria criteria = new SingleRowQueryCriteria(CST, primaryKey("k0"));
+        criteria.setMaxVersions(1);
+        Assert.assertNotNull(manager.noConditionGetRow(new GetRowRequest(criteria)).getRow());
+
+        store.setThroughputThrottling(false);
+        manager.deleteRow(new DeleteRowRequest(new RowDeleteChange(CST, primaryKey("k0"))));
+    }
+}
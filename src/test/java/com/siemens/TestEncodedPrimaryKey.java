@@ -0,0 +1,89 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class TestEncodedPrimaryKey {
+
+    private static PrimaryKey primaryKey(PrimaryKeyValue... values) {
+        PrimaryKeyBuilder builder = PrimaryKeyBuilder.createPrimaryKeyBuilder();
+        for (int i = 0; i < values.length; i++) {
+            builder.addPrimaryKeyColumn("pk" + i, values[i]);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void testByteOrderMatchesPrimaryKeyOrder() {
+        // 按期望的顺序排列, 相邻两个都应该严格递增
+        List<PrimaryKey> ordered = Arrays.asList(
+                primaryKey(PrimaryKeyValue.INF_MIN),
+                primaryKey(PrimaryKeyValue.fromLong(Long.MIN_VALUE)),
+                primaryKey(PrimaryKeyValue.fromLong(-1)),
+                primaryKey(PrimaryKeyValue.fromLong(0)),
+                primaryKey(PrimaryKeyValue.fromLong(0), PrimaryKeyValue.INF_MIN),
+                primaryKey(PrimaryKeyValue.fromLong(0), PrimaryKeyValue.fromLong(5)),
+                primaryKey(PrimaryKeyValue.fromLong(0), PrimaryKeyValue.INF_MAX),
+                primaryKey(PrimaryKeyValue.fromLong(256)),
+                primaryKey(PrimaryKeyValue.fromLong(Long.MAX_VALUE)),
+                primaryKey(PrimaryKeyValue.fromString("")),
+                primaryKey(PrimaryKeyValue.fromString("a")),
+                primaryKey(PrimaryKeyValue.fromString("a\u0000")),
+                primaryKey(PrimaryKeyValue.fromString("a\u0000b")),
+                primaryKey(PrimaryKeyValue.fromString("a\u0001")),
+                primaryKey(PrimaryKeyValue.fromString("ab"), PrimaryKeyValue.fromString("c")),
+                primaryKey(PrimaryKeyValue.fromString("abc")),
+                primaryKey(PrimaryKeyValue.fromString("～")),
+                // UTF-8字节序: 补充平面字符的4字节编码大于U+FF5E, 按UTF-16比较时则相反
+                primaryKey(PrimaryKeyValue.fromString("😀")),
+                primaryKey(PrimaryKeyValue.fromBinary(new byte[0])),
+                primaryKey(PrimaryKeyValue.fromBinary(new byte[]{0})),
+                primaryKey(PrimaryKeyValue.fromBinary(new byte[]{0, 0})),
+                primaryKey(PrimaryKeyValue.fromBinary(new byte[]{1})),
+                primaryKey(PrimaryKeyValue.fromBinary(new byte[]{(byte) 0xFF})),
+                primaryKey(PrimaryKeyValue.INF_MAX));
+        for (int i = 1; i < ordered.size(); i++) {
+            PrimaryKey smaller = ordered.get(i - 1);
+            PrimaryKey larger = ordered.get(i);
+            Assert.assertTrue(smaller + " < " + larger, PrimaryKeyComparator.INSTANCE.compare(smaller, larger) < 0);
+            Assert.assertTrue(larger + " > " + smaller, PrimaryKeyComparator.INSTANCE.compare(larger, smaller) > 0);
+        }
+    }
+
+    @Test
+    public void testDecodeAndDataSize() {
+        for (PrimaryKey primaryKey : Arrays.asList(
+                primaryKey(PrimaryKeyValue.INF_MIN, PrimaryKeyValue.INF_MAX, PrimaryKeyValue.AUTO_INCREMENT),
+                primaryKey(PrimaryKeyValue.fromLong(Long.MIN_VALUE), PrimaryKeyValue.fromLong(-1)),
+                primaryKey(PrimaryKeyValue.fromString(""), PrimaryKeyValue.fromString("a\u0000b😀")),
+                primaryKey(PrimaryKeyValue.fromBinary(new byte[]{0, 1, 0, (byte) 0xFF}), PrimaryKeyValue.fromLong(7)))) {
+            EncodedPrimaryKey encoded = EncodedPrimaryKey.of(primaryKey);
+            Assert.assertEquals(primaryKey, encoded.toPrimaryKey());
+            Assert.assertEquals(CapacityUnits.size(primaryKey), encoded.dataSize());
+        }
+    }
+
+    @Test
+    public void testEqualityIgnoresColumnNames() {
+        PrimaryKey plain = primaryKey(PrimaryKeyValue.fromString("aa"), PrimaryKeyValue.fromLong(3));
+        String[] names = {"pk0", "pk1"};
+        EncodedPrimaryKey encoded = EncodedPrimaryKey.of(plain.getPrimaryKeyColumns(), names);
+        EncodedPrimaryKey renamed = EncodedPrimaryKey.of(PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("a", PrimaryKeyValue.fromString("aa"))
+                .addPrimaryKeyColumn("b", PrimaryKeyValue.fromLong(3)).build());
+        Assert.assertEquals(encoded, renamed);
+        Assert.assertEquals(encoded.hashCode(), renamed.hashCode());
+        Assert.assertEquals(0, encoded.compareTo(renamed));
+        Assert.assertEquals(InMemoryTableInstance.stripe(encoded), InMemoryTableInstance.stripe(renamed));
+        // 列名与表结构一致时共用表结构的列名, 还原时各自使用自己的列名
+        Assert.assertSame(names[1], encoded.nameAt(1));
+        Assert.assertEquals(plain, encoded.toPrimaryKey());
+        Assert.assertEquals("b", renamed.toPrimaryKey().getPrimaryKeyColumn(1).getName());
+        Assert.assertNotEquals(encoded,
+                EncodedPrimaryKey.of(primaryKey(PrimaryKeyValue.fromString("aa"), PrimaryKeyValue.fromLong(4))));
+    }
+}
@@ -0,0 +1,163 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.AsyncClientInterface;
+import com.alicloud.openservices.tablestore.ClientException;
+import com.alicloud.openservices.tablestore.SyncClientInterface;
+import com.alicloud.openservices.tablestore.TableStoreException;
+import com.alicloud.openservices.tablestore.model.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TestLatencyModel {
+
+    private static final String CST = "latency_table";
+
+    private final SimpleInMemoryTableStore store = new SimpleInMemoryTableStore();
+
+    public TestLatencyModel() {
+        TableMeta meta = new TableMeta(CST);
+        meta.addPrimaryKeyColumn(new PrimaryKeySchema("pk1", PrimaryKeyType.INTEGER));
+        store.createTable(new CreateTableRequest(meta, new TableOptions()));
+    }
+
+    private SyncClientInterface syncClient(LatencyModel model) {
+        return (SyncClientInterface) Proxy.newProxyInstance(SyncClientInterface.class.getClassLoader(),
+                new Class[]{SyncClientInterface.class}, new MockSyncClient(store, model));
+    }
+
+    private static PutRowRequest putRow(long key) {
+        RowPutChange change = new RowPutChange(CST, PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromLong(key)).build());
+        change.addColumn(new Column("co1", ColumnValue.fromLong(key)));
+        return new PutRowRequest(change);
+    }
+
+    @Test
+    public void testSyncLatency() {
+        SyncClientInterface client = syncClient(SimulatedLatency.builder()
+                .latency("putRow", SimulatedLatency.Distribution.fixed(Duration.ofMillis(50)))
+                .build());
+        long start = System.nanoTime();
+        client.putRow(putRow(1));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertEquals(1, store.inMemoryTableInstanceManager.getTable(CST).getDataInstance().size());
+    }
+
+    @Test
+    public void testInjectedErrors() {
+        SyncClientInterface client = syncClient(SimulatedLatency.builder().serverBusy(1).build());
+        try {
+            client.putRow(putRow(1));
+            Assert.fail("expected OTSServerBusy");
+        } catch (TableStoreException e) {
+            Assert.assertEquals("OTSServerBusy", e.getErrorCode());
+        }
+        // 注入的错误不执行请求
+        Assert.assertEquals(0, store.inMemoryTableInstanceManager.getTable(CST).getDataInstance().size());
+
+        client = syncClient(SimulatedLatency.builder().timeouts(1, Duration.ofMillis(20)).build());
+        long start = System.nanoTime();
+        try {
+            client.putRow(putRow(1));
+            Assert.fail("expected a timeout");
+        } catch (ClientException e) {
+            Assert.assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void testExecutedTimeouts() throws Exception {
+        SyncClientInterface client = syncClient(SimulatedLatency.builder()
+                .timeouts(0, Duration.ofMillis(20)).executedTimeouts(1).build());
+        long start = System.nanoTime();
+        try {
+            client.putRow(putRow(1));
+            Assert.fail("expected a timeout");
+        } catch (ClientException e) {
+            Assert.assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        // 调用方超时, 写入已经生效
+        Assert.assertEquals(1, store.inMemoryTableInstanceManager.getTable(CST).getDataInstance().size());
+
+        AsyncClientInterface asyncClient = (AsyncClientInterface) Proxy.newProxyInstance(
+                AsyncClientInterface.class.getClassLoader(), new Class[]{AsyncClientInterface.class},
+                new MockAsyncClient(store, 1, 1, SimulatedLatency.builder()
+                        .timeouts(0, Duration.ofMillis(20)).executedTimeouts(1).build()));
+        try {
+            asyncClient.putRow(putRow(2), null).get();
+            Assert.fail("expected a timeout");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause().getCause() instanceof SocketTimeoutException);
+        } finally {
+            asyncClient.shutdown();
+        }
+        Assert.assertEquals(2, store.inMemoryTableInstanceManager.getTable(CST).getDataInstance().size());
+    }
+
+    @Test
+    public void testAsyncDelaysDoNotOccupyWorkers() throws Exception {
+        int count = 2000;
+        long latency = TimeUnit.MILLISECONDS.toNanos(300);
+        AsyncClientInterface client = (AsyncClientInterface) Proxy.newProxyInstance(
+                AsyncClientInterface.class.getClassLoader(), new Class[]{AsyncClientInterface.class},
+                new MockAsyncClient(store, 2, count, SimulatedLatency.builder()
+                        .defaultLatency(SimulatedLatency.Distribution.fixed(Duration.ofNanos(latency)))
+                        .build()));
+        try {
+            long start = System.nanoTime();
+            List<Future<PutRowResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                futures.add(client.putRow(putRow(i), null));
+            }
+            // 两个线程如果在等待期间被占用, 需要count * 300ms / 2
+            for (Future<PutRowResponse> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            long elapsed = System.nanoTime() - start;
+            Assert.assertTrue(elapsed >= latency);
+            Assert.assertTrue(elapsed + "ns", elapsed < TimeUnit.SECONDS.toNanos(10));
+            Assert.assertEquals(count, store.inMemoryTableInstanceManager.getTable(CST).getDataInstance().size());
+
+            AsyncClientInterface failing = (AsyncClientInterface) Proxy.newProxyInstance(
+                    AsyncClientInterface.class.getClassLoader(), new Class[]{AsyncClientInterface.class},
+                    new MockAsyncClient(store, 1, 1, SimulatedLatency.builder().serverBusy(1).build()));
+            try {
+                failing.putRow(putRow(count), null).get();
+                Assert.fail("expected OTSServerBusy");
+            } catch (ExecutionException e) {
+                Assert.assertEquals("OTSServerBusy", ((TableStoreException) e.getCause()).getErrorCode());
+            } finally {
+                failing.shutdown();
+            }
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void testLogNormalPercentiles() {
+        SimulatedLatency.Distribution distribution =
+                SimulatedLatency.Distribution.logNormal(Duration.ofMillis(2), Duration.ofMillis(20));
+        Random random = new Random(42);
+        long[] samples = new long[100_000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = distribution.sampleNanos(random);
+        }
+        Arrays.sort(samples);
+        Assert.assertEquals(2e6, samples[samples.length / 2], 2e6 * 0.05);
+        Assert.assertEquals(20e6, samples[samples.length * 99 / 100], 20e6 * 0.1);
+    }
+}
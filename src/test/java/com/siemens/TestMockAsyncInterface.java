@@ -0,0 +1,136 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.AsyncClientInterface;
+import com.alicloud.openservices.tablestore.ClientException;
+import com.alicloud.openservices.tablestore.TableStoreCallback;
+import com.alicloud.openservices.tablestore.TableStoreException;
+import com.alicloud.openservices.tablestore.model.*;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TestMockAsyncInterface {
+
+    private static final String CST = "async_table";
+
+    SimpleInMemoryTableStore simpleInMemoryTableStore = new SimpleInMemoryTableStore();
+
+    AsyncClientInterface asyncClient = (AsyncClientInterface) Proxy.newProxyInstance(ClassLoader.getSystemClassLoader(),
+            new Class[]{AsyncClientInterface.class}, new MockAsyncClient(simpleInMemoryTableStore, 4, 16));
+
+    @After
+    public void tearDown() {
+        asyncClient.shutdown();
+        simpleInMemoryTableStore.clean();
+    }
+
+    private void createTable() throws Exception {
+        TableMeta meta = new TableMeta(CST);
+        meta.addPrimaryKeyColumn(new PrimaryKeySchema("pk1", PrimaryKeyType.INTEGER));
+        asyncClient.createTable(new CreateTableRequest(meta, new TableOptions()), null).get();
+    }
+
+    private PrimaryKey primaryKey(long value) {
+        return PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromLong(value)).build();
+    }
+
+    @Test
+    public void testFuturesAndCallbacks() throws Exception {
+        createTable();
+        int count = 100;
+        CountDownLatch completed = new CountDownLatch(count);
+        List<Future<PutRowResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            RowPutChange change = new RowPutChange(CST, primaryKey(i));
+            change.addColumn(new Column("co1", ColumnValue.fromLong(i)));
+            futures.add(asyncClient.putRow(new PutRowRequest(change), new TableStoreCallback<PutRowRequest, PutRowResponse>() {
+                @Override
+                public void onCompleted(PutRowRequest request, PutRowResponse response) {
+                    completed.countDown();
+                }
+
+                @Override
+                public void onFailed(PutRowRequest request, Exception ex) {
+                }
+            }));
+            // 有界队列, 等待前面的请求完成后再继续提交
+            if (futures.size() % 16 == 0) {
+                futures.get(futures.size() - 1).get();
+            }
+        }
+        for (Future<PutRowResponse> future : futures) {
+            Assert.assertNotNull(future.get().getRow());
+        }
+        Assert.assertTrue(completed.await(1, TimeUnit.SECONDS));
+
+        GetRowResponse response = asyncClient.getRow(new GetRowRequest(
+                new SingleRowQueryCriteria(CST, primaryKey(42))), null).get();
+        Assert.assertEquals(42, response.getRow().getLatestColumn("co1").getValue().asLong());
+        Assert.assertEquals(42, asyncClient.asSyncClient().getRow(new GetRowRequest(
+                new SingleRowQueryCriteria(CST, primaryKey(42)))).getRow().getLatestColumn("co1").getValue().asLong());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        AtomicReference<Exception> failed = new AtomicReference<>();
+        Future<GetRowResponse> future = asyncClient.getRow(new GetRowRequest(
+                new SingleRowQueryCriteria("not_exist", primaryKey(1))), new TableStoreCallback<GetRowRequest, GetRowResponse>() {
+            @Override
+            public void onCompleted(GetRowRequest request, GetRowResponse response) {
+            }
+
+            @Override
+            public void onFailed(GetRowRequest request, Exception ex) {
+                failed.set(ex);
+            }
+        });
+        try {
+            future.get();
+            Assert.fail("table does not exist");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("OTSObjectNotExist", ((TableStoreException) e.getCause()).getErrorCode());
+            // 回调先于Future完成, 收到的是同一个异常
+            Assert.assertSame(e.getCause(), failed.get());
+        }
+    }
+
+    @Test(expected = ClientException.class)
+    public void testRequestQueueFull() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        AsyncClientInterface client = (AsyncClientInterface) Proxy.newProxyInstance(ClassLoader.getSystemClassLoader(),
+                new Class[]{AsyncClientInterface.class}, new MockAsyncClient(simpleInMemoryTableStore, 1, 1));
+        TableStoreCallback<GetRowRequest, GetRowResponse> blocking = new TableStoreCallback<GetRowRequest, GetRowResponse>() {
+            @Override
+            public void onCompleted(GetRowRequest request, GetRowResponse response) {
+            }
+
+            @Override
+            public void onFailed(GetRowRequest request, Exception ex) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        GetRowRequest request = new GetRowRequest(new SingleRowQueryCriteria("not_exist", primaryKey(1)));
+        try {
+            for (int i = 0; i < 3; i++) {
+                client.getRow(request, blocking);
+            }
+        } finally {
+            blocked.countDown();
+            client.shutdown();
+        }
+    }
+}
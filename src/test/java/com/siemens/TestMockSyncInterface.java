@@ -4,12 +4,21 @@ import com.alicloud.openservices.tablestore.SyncClient;
 import com.alicloud.openservices.tablestore.SyncClientInterface;
 import com.alicloud.openservices.tablestore.TableStoreException;
 import com.alicloud.openservices.tablestore.model.*;
+import com.alicloud.openservices.tablestore.model.condition.SingleColumnValueCondition;
+import com.alicloud.openservices.tablestore.model.filter.ColumnPaginationFilter;
+import com.alicloud.openservices.tablestore.model.filter.CompositeColumnValueFilter;
+import com.alicloud.openservices.tablestore.model.filter.SingleColumnValueFilter;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.lang.reflect.Proxy;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TestMockSyncInterface {
 
@@ -26,9 +35,21 @@ public class TestMockSyncInterface {
     }
 
 
-    @Test(expected = UnsupportedOperationException.class)
+    @Test
     public void testNotSupportClass() {
-        syncClient.asAsyncClient();
+        try {
+            syncClient.asAsyncClient();
+            Assert.fail();
+        } catch (TableStoreException e) {
+            Assert.assertEquals(LocalSyncClient.UNSUPPORTED, e.getErrorCode());
+        }
+        SyncClientInterface localClient = new LocalSyncClient(simpleInMemoryTableStore);
+        try {
+            localClient.describeTable(null);
+            Assert.fail();
+        } catch (TableStoreException e) {
+            Assert.assertEquals(LocalSyncClient.UNSUPPORTED, e.getErrorCode());
+        }
     }
 
 
@@ -421,4 +442,481 @@ public class TestMockSyncInterface {
         Assert.assertEquals("siemens", response.getRow().getLatestColumn("co2").getValue().asString());
         Assert.assertEquals(13445, response.getRow().getLatestColumn("co3").getValue().asLong());
     }
+
+
+    private PrimaryKey longPrimaryKey(long value) {
+        return PrimaryKeyBuilder
+                .createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn(
+                        new PrimaryKeyColumn("pk1", PrimaryKeyValue.fromLong(value)))
+                .build();
+    }
+
+    private void putLongRows(int count) {
+        // 倒序写入, 验证存储按主键有序
+        for (int i = count - 1; i >= 0; i--) {
+            RowPutChange change = new RowPutChange(CST, longPrimaryKey(i));
+            change.addColumn(new Column("co1", ColumnValue.fromLong(i)));
+            syncClient.putRow(new PutRowRequest(change));
+        }
+    }
+
+    private GetRangeResponse getRange(PrimaryKey start, PrimaryKey end, Direction direction, int limit) {
+        RangeRowQueryCriteria criteria = new RangeRowQueryCriteria(CST);
+        criteria.setInclusiveStartPrimaryKey(start);
+        criteria.setExclusiveEndPrimaryKey(end);
+        criteria.setDirection(direction);
+        criteria.setLimit(limit);
+        return syncClient.getRange(new GetRangeRequest(criteria));
+    }
+
+    @Test
+    public void testGetRangeForward() {
+        createTable();
+        putLongRows(10);
+
+        GetRangeResponse response = getRange(longPrimaryKey(2), longPrimaryKey(7), Direction.FORWARD, -1);
+        Assert.assertEquals(5, response.getRows().size());
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(i + 2, response.getRows().get(i).getLatestColumn("co1").getValue().asLong());
+        }
+        Assert.assertNull(response.getNextStartPrimaryKey());
+    }
+
+    @Test
+    public void testGetRangeBackwardWithInfBound() {
+        createTable();
+        putLongRows(10);
+
+        PrimaryKey infMax = PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.INF_MAX).build();
+        PrimaryKey infMin = PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.INF_MIN).build();
+        GetRangeResponse response = getRange(infMax, infMin, Direction.BACKWARD, -1);
+        Assert.assertEquals(10, response.getRows().size());
+        Assert.assertEquals(9, response.getRows().get(0).getLatestColumn("co1").getValue().asLong());
+        Assert.assertEquals(0, response.getRows().get(9).getLatestColumn("co1").getValue().asLong());
+    }
+
+    @Test
+    public void testGetRangePaging() {
+        createTable();
+        putLongRows(10);
+
+        PrimaryKey infMax = PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.INF_MAX).build();
+        PrimaryKey start = PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.INF_MIN).build();
+        int pages = 0;
+        long expected = 0;
+        while (start != null) {
+            GetRangeResponse response = getRange(start, infMax, Direction.FORWARD, 4);
+            for (Row row : response.getRows()) {
+                Assert.assertEquals(expected++, row.getLatestColumn("co1").getValue().asLong());
+            }
+            start = response.getNextStartPrimaryKey();
+            pages++;
+        }
+        Assert.assertEquals(10, expected);
+        Assert.assertEquals(3, pages);
+    }
+
+    @Test(expected = TableStoreException.class)
+    public void testGetRangeInvalidBound() {
+        createTable();
+        getRange(longPrimaryKey(7), longPrimaryKey(2), Direction.FORWARD, -1);
+    }
+
+    @Test
+    public void testPutAgainRowWithSeveralColumns() {
+        createTable();
+        PrimaryKey primaryKey = longPrimaryKey(1);
+        RowPutChange change = new RowPutChange(CST, primaryKey);
+        change.addColumn(new Column("co1", ColumnValue.fromLong(1)));
+        syncClient.putRow(new PutRowRequest(change));
+
+        RowPutChange change2 = new RowPutChange(CST, primaryKey);
+        change2.addColumn(new Column("co1", ColumnValue.fromLong(2)));
+        change2.addColumn(new Column("co2", ColumnValue.fromString("b")));
+        PutRowResponse response = syncClient.putRow(new PutRowRequest(change2));
+
+        Assert.assertEquals(3, response.getRow().getColumns().length);
+        Assert.assertEquals(2, response.getRow().getLatestColumn("co1").getValue().asLong());
+        Assert.assertEquals("b", response.getRow().getLatestColumn("co2").getValue().asString());
+    }
+
+    @Test
+    public void testUpdateRowCreatesMissingColumn() {
+        createTable();
+        PrimaryKey primaryKey = longPrimaryKey(1);
+        RowPutChange change = new RowPutChange(CST, primaryKey);
+        change.addColumn(new Column("co1", ColumnValue.fromLong(1)));
+        syncClient.putRow(new PutRowRequest(change));
+
+        RowUpdateChange rowUpdateChange = new RowUpdateChange(CST, primaryKey);
+        rowUpdateChange.put(new Column("co2", ColumnValue.fromString("new")));
+        UpdateRowResponse response = syncClient.updateRow(new UpdateRowRequest(rowUpdateChange));
+
+        Assert.assertEquals("new", response.getRow().getLatestColumn("co2").getValue().asString());
+        Assert.assertEquals(1, response.getRow().getLatestColumn("co1").getValue().asLong());
+    }
+
+    private PrimaryKey putVersionedRow() {
+        PrimaryKey primaryKey = longPrimaryKey(1);
+        RowPutChange change = new RowPutChange(CST, primaryKey);
+        for (long ts = 1; ts <= 5; ts++) {
+            change.addColumn(new Column("a", ColumnValue.fromLong(ts), ts));
+            change.addColumn(new Column("b", ColumnValue.fromLong(ts * 10), ts));
+            change.addColumn(new Column("c", ColumnValue.fromLong(ts * 100), ts));
+        }
+        syncClient.putRow(new PutRowRequest(change));
+        return primaryKey;
+    }
+
+    @Test
+    public void testGetRowProjection() {
+        createTable();
+        PrimaryKey primaryKey = putVersionedRow();
+
+        SingleRowQueryCriteria criteria = new SingleRowQueryCriteria(CST, primaryKey);
+        criteria.addColumnsToGet("b");
+        criteria.setMaxVersions(1);
+        Row row = syncClient.getRow(new GetRowRequest(criteria)).getRow();
+        Assert.assertEquals(1, row.getColumns().length);
+        Assert.assertEquals(50, row.getLatestColumn("b").getValue().asLong());
+
+        criteria = new SingleRowQueryCriteria(CST, primaryKey);
+        criteria.setTimeRange(new TimeRange(2, 4));
+        criteria.setStartColumn("b");
+        row = syncClient.getRow(new GetRowRequest(criteria)).getRow();
+        Assert.assertEquals(4, row.getColumns().length);
+        Assert.assertNull(row.getLatestColumn("a"));
+        Assert.assertEquals(3, row.getLatestColumn("b").getTimestamp());
+        Assert.assertEquals(2, row.getColumn("c").get(1).getTimestamp());
+
+        criteria = new SingleRowQueryCriteria(CST, primaryKey);
+        criteria.addColumnsToGet("missing");
+        Assert.assertNull(syncClient.getRow(new GetRowRequest(criteria)).getRow());
+    }
+
+    @Test
+    public void testBatchGetRowProjection() {
+        createTable();
+        PrimaryKey primaryKey = putVersionedRow();
+
+        MultiRowQueryCriteria criteria = new MultiRowQueryCriteria(CST);
+        criteria.addRow(primaryKey);
+        criteria.setMaxVersions(2);
+        criteria.setEndColumn("b");
+        BatchGetRowRequest request = new BatchGetRowRequest();
+        request.addMultiRowQueryCriteria(criteria);
+        Row row = syncClient.batchGetRow(request).getBatchGetRowResult(CST).get(0).getRow();
+        Assert.assertEquals(2, row.getColumns().length);
+        Assert.assertEquals(5, row.getLatestColumn("a").getValue().asLong());
+    }
+
+    @Test
+    public void testGetRangeWithFilter() {
+        createTable();
+        putLongRows(10);
+
+        // co1 >= 3 AND NOT(co1 == 5), 缺少co2的行通过
+        CompositeColumnValueFilter filter = new CompositeColumnValueFilter(CompositeColumnValueFilter.LogicOperator.AND);
+        filter.addFilter(new SingleColumnValueFilter("co1", SingleColumnValueFilter.CompareOperator.GREATER_EQUAL,
+                ColumnValue.fromLong(3)));
+        CompositeColumnValueFilter not = new CompositeColumnValueFilter(CompositeColumnValueFilter.LogicOperator.NOT);
+        not.addFilter(new SingleColumnValueFilter("co1", SingleColumnValueFilter.CompareOperator.EQUAL,
+                ColumnValue.fromLong(5)));
+        filter.addFilter(not);
+        SingleColumnValueFilter passIfMissing = new SingleColumnValueFilter("co2",
+                SingleColumnValueFilter.CompareOperator.EQUAL, ColumnValue.fromLong(0));
+        passIfMissing.setPassIfMissing(true);
+        filter.addFilter(passIfMissing);
+
+        RangeRowQueryCriteria criteria = new RangeRowQueryCriteria(CST);
+        criteria.setInclusiveStartPrimaryKey(longPrimaryKey(0));
+        criteria.setExclusiveEndPrimaryKey(longPrimaryKey(10));
+        criteria.setFilter(filter);
+        GetRangeResponse response = syncClient.getRange(new GetRangeRequest(criteria));
+        Assert.assertEquals(6, response.getRows().size());
+        Assert.assertEquals(3, response.getRows().get(0).getLatestColumn("co1").getValue().asLong());
+        Assert.assertEquals(6, response.getRows().get(2).getLatestColumn("co1").getValue().asLong());
+
+        SingleColumnValueFilter missing = new SingleColumnValueFilter("co2",
+                SingleColumnValueFilter.CompareOperator.EQUAL, ColumnValue.fromLong(0));
+        missing.setPassIfMissing(false);
+        criteria.setFilter(missing);
+        Assert.assertEquals(0, syncClient.getRange(new GetRangeRequest(criteria)).getRows().size());
+    }
+
+    @Test
+    public void testGetRowWithFilterOnOlderVersions() {
+        createTable();
+        PrimaryKey primaryKey = putVersionedRow();
+
+        SingleColumnValueFilter filter = new SingleColumnValueFilter("a",
+                SingleColumnValueFilter.CompareOperator.EQUAL, ColumnValue.fromLong(2));
+        SingleRowQueryCriteria criteria = new SingleRowQueryCriteria(CST, primaryKey);
+        criteria.setFilter(filter);
+        Assert.assertNull(syncClient.getRow(new GetRowRequest(criteria)).getRow());
+
+        filter.setLatestVersionsOnly(false);
+        Assert.assertNotNull(syncClient.getRow(new GetRowRequest(criteria)).getRow());
+    }
+
+    @Test
+    public void testGetRowWithColumnPagination() {
+        createTable();
+        PrimaryKey primaryKey = putVersionedRow();
+
+        SingleRowQueryCriteria criteria = new SingleRowQueryCriteria(CST, primaryKey);
+        criteria.setMaxVersions(1);
+        criteria.setFilter(new ColumnPaginationFilter(1, 1));
+        Row row = syncClient.getRow(new GetRowRequest(criteria)).getRow();
+        Assert.assertEquals(1, row.getColumns().length);
+        Assert.assertEquals("b", row.getColumns()[0].getName());
+    }
+
+    private void assertConditionCheckFail(Runnable runnable) {
+        try {
+            runnable.run();
+            Assert.fail("condition check should fail");
+        } catch (TableStoreException e) {
+            Assert.assertEquals("OTSConditionCheckFail", e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testPutRowWithRowExistenceExpectation() {
+        createTable();
+        RowPutChange change = new RowPutChange(CST, longPrimaryKey(1));
+        change.addColumn(new Column("co1", ColumnValue.fromLong(1)));
+        change.setCondition(new Condition(RowExistenceExpectation.EXPECT_NOT_EXIST));
+        syncClient.putRow(new PutRowRequest(change));
+
+        assertConditionCheckFail(() -> syncClient.putRow(new PutRowRequest(change)));
+
+        RowUpdateChange update = new RowUpdateChange(CST, longPrimaryKey(2));
+        update.put(new Column("co1", ColumnValue.fromLong(2)));
+        update.setCondition(new Condition(RowExistenceExpectation.EXPECT_EXIST));
+        assertConditionCheckFail(() -> syncClient.updateRow(new UpdateRowRequest(update)));
+    }
+
+    @Test
+    public void testUpdateRowWithColumnCondition() {
+        createTable();
+        RowPutChange change = new RowPutChange(CST, longPrimaryKey(1));
+        change.addColumn(new Column("version", ColumnValue.fromLong(1)));
+        syncClient.putRow(new PutRowRequest(change));
+
+        // 乐观锁: 只有version等于期望值时才更新
+        RowUpdateChange update = new RowUpdateChange(CST, longPrimaryKey(1));
+        update.put(new Column("version", ColumnValue.fromLong(2)));
+        Condition condition = new Condition(RowExistenceExpectation.EXPECT_EXIST);
+        condition.setColumnCondition(new SingleColumnValueCondition("version",
+                SingleColumnValueCondition.CompareOperator.EQUAL, ColumnValue.fromLong(1)));
+        update.setCondition(condition);
+        UpdateRowResponse response = syncClient.updateRow(new UpdateRowRequest(update));
+        Assert.assertEquals(2, response.getRow().getLatestColumn("version").getValue().asLong());
+
+        assertConditionCheckFail(() -> syncClient.updateRow(new UpdateRowRequest(update)));
+    }
+
+    @Test
+    public void testBatchWriteRowReportsConditionFailurePerRow() {
+        createTable();
+        RowPutChange exists = new RowPutChange(CST, longPrimaryKey(1));
+        exists.addColumn(new Column("co1", ColumnValue.fromLong(1)));
+        syncClient.putRow(new PutRowRequest(exists));
+
+        BatchWriteRowRequest request = new BatchWriteRowRequest();
+        RowPutChange failed = new RowPutChange(CST, longPrimaryKey(1));
+        failed.addColumn(new Column("co1", ColumnValue.fromLong(10)));
+        failed.setCondition(new Condition(RowExistenceExpectation.EXPECT_NOT_EXIST));
+        request.addRowChange(failed);
+        RowPutChange succeed = new RowPutChange(CST, longPrimaryKey(2));
+        succeed.addColumn(new Column("co1", ColumnValue.fromLong(2)));
+        succeed.setCondition(new Condition(RowExistenceExpectation.EXPECT_NOT_EXIST));
+        request.addRowChange(succeed);
+
+        BatchWriteRowResponse response = syncClient.batchWriteRow(request);
+        Assert.assertFalse(response.isAllSucceed());
+        Assert.assertEquals("OTSConditionCheckFail", response.getRowStatus(CST).get(0).getError().getCode());
+        Assert.assertTrue(response.getRowStatus(CST).get(1).isSucceed());
+        Assert.assertEquals(1, simpleInMemoryTableStore.getInMemoryTableInstance(CST)
+                .dataInstance.get(longPrimaryKey(1)).getLatestColumn("co1").getValue().asLong());
+    }
+
+    @Test
+    public void testDeleteRow() {
+        createTable();
+        putLongRows(3);
+        RowDeleteChange expectMissing = new RowDeleteChange(CST, longPrimaryKey(5));
+        expectMissing.setCondition(new Condition(RowExistenceExpectation.EXPECT_EXIST));
+        assertConditionCheckFail(() -> syncClient.deleteRow(new DeleteRowRequest(expectMissing)));
+
+        syncClient.deleteRow(new DeleteRowRequest(new RowDeleteChange(CST, longPrimaryKey(1))));
+        Assert.assertNull(syncClient.getRow(new GetRowRequest(new SingleRowQueryCriteria(CST, longPrimaryKey(1)))).getRow());
+        Assert.assertEquals(2, simpleInMemoryTableStore.getInMemoryTableInstance(CST).dataInstance.size());
+        // 删除不存在的行不报错
+        syncClient.deleteRow(new DeleteRowRequest(new RowDeleteChange(CST, longPrimaryKey(1))));
+    }
+
+    @Test
+    public void testBatchDeleteRowDuringGetRange() {
+        createTable();
+        putLongRows(100);
+        NavigableMap<EncodedPrimaryKey, RowVersion> data = simpleInMemoryTableStore.getInMemoryTableInstance(CST).getRows();
+        Iterator<Map.Entry<EncodedPrimaryKey, RowVersion>> iterator = data.entrySet().iterator();
+        RowVersion first = iterator.next().getValue();
+
+        BatchWriteRowRequest request = new BatchWriteRowRequest();
+        for (int i = 0; i < 100; i += 2) {
+            request.addRowChange(new RowDeleteChange(CST, longPrimaryKey(i)));
+        }
+        BatchWriteRowResponse response = syncClient.batchWriteRow(request);
+        Assert.assertTrue(response.isAllSucceed());
+        Assert.assertEquals(50, response.getRowStatus(CST).size());
+        Assert.assertEquals(50, data.size());
+
+        // 删除前拿到的版本仍然完整, 迭代器继续前进只会看到剩下的行
+        Assert.assertEquals(0, first.getLatestColumn("co1").getValue().asLong());
+        while (iterator.hasNext()) {
+            Assert.assertEquals(1, iterator.next().getValue().getLatestColumn("co1").getValue().asLong() % 2);
+        }
+        Assert.assertEquals(50, getRange(PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                        .addPrimaryKeyColumn("pk1", PrimaryKeyValue.INF_MIN).build(),
+                PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                        .addPrimaryKeyColumn("pk1", PrimaryKeyValue.INF_MAX).build(),
+                Direction.FORWARD, 0).getRows().size());
+    }
+
+    @Test
+    public void testBatchWriteRowIndexes() {
+        createTable();
+        putLongRows(1);
+        BatchWriteRowRequest request = new BatchWriteRowRequest();
+        for (int i = 0; i < 200; i++) {
+            RowPutChange change = new RowPutChange(CST, longPrimaryKey(i % 100));
+            change.addColumn(new Column("co1", ColumnValue.fromLong(i), i));
+            if (i == 0) {
+                change.setCondition(new Condition(RowExistenceExpectation.EXPECT_NOT_EXIST));
+            }
+            request.addRowChange(change);
+        }
+        request.addRowChange(new RowDeleteChange(CST, longPrimaryKey(99)));
+
+        BatchWriteRowResponse response = syncClient.batchWriteRow(request);
+        List<BatchWriteRowResponse.RowResult> results = response.getRowStatus(CST);
+        Assert.assertEquals(201, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            Assert.assertEquals(i, results.get(i).getIndex());
+            Assert.assertEquals(i != 0, results.get(i).isSucceed());
+        }
+        // 同一行的多个变更按请求中的顺序执行
+        Map<PrimaryKey, RowVersion> data = simpleInMemoryTableStore.getInMemoryTableInstance(CST).dataInstance;
+        Assert.assertEquals(99, data.size());
+        Assert.assertEquals(150, data.get(longPrimaryKey(50)).getLatestColumn("co1").getValue().asLong());
+        Assert.assertEquals(2, data.get(longPrimaryKey(50)).versionsOf("co1").length);
+    }
+
+    @Test
+    public void testBatchGetRowReadsOneSnapshot() throws InterruptedException {
+        createTable();
+        // 写者总是先写0号行再写1号行, 同一时刻0号行的值不会小于1号行
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (long value = 0; !stop.get(); value++) {
+                for (int i = 0; i < 2; i++) {
+                    RowPutChange change = new RowPutChange(CST, longPrimaryKey(i));
+                    change.addColumn(new Column("co1", ColumnValue.fromLong(value), 1));
+                    syncClient.putRow(new PutRowRequest(change));
+                }
+            }
+        });
+        writer.start();
+        try {
+            while (simpleInMemoryTableStore.getInMemoryTableInstance(CST).dataInstance.size() < 2) {
+                Thread.yield();
+            }
+            for (int n = 0; n < 2000; n++) {
+                BatchGetRowRequest request = new BatchGetRowRequest();
+                request.addMultiRowQueryCriteria(new MultiRowQueryCriteria(CST)
+                        .addRow(longPrimaryKey(0)).addRow(longPrimaryKey(1)));
+                List<BatchGetRowResponse.RowResult> results = syncClient.batchGetRow(request).getBatchGetRowResult(CST);
+                long first = results.get(0).getRow().getLatestColumn("co1").getValue().asLong();
+                long second = results.get(1).getRow().getLatestColumn("co1").getValue().asLong();
+                Assert.assertTrue(first + " < " + second, first >= second);
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+    }
+
+    @Test
+    public void testBatchGetRowSeesInsertsAndDeletesInOrder() throws InterruptedException {
+        createTable();
+        // 写者按0, 1的顺序插入, 按1, 0的顺序删除, 任何时刻1号行存在时0号行也存在
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            while (!stop.get()) {
+                for (int i = 0; i < 2; i++) {
+                    RowPutChange change = new RowPutChange(CST, longPrimaryKey(i));
+                    change.addColumn(new Column("co1", ColumnValue.fromLong(i), 1));
+                    syncClient.putRow(new PutRowRequest(change));
+                }
+                for (int i = 1; i >= 0; i--) {
+                    syncClient.deleteRow(new DeleteRowRequest(new RowDeleteChange(CST, longPrimaryKey(i))));
+                }
+            }
+        });
+        writer.start();
+        try {
+            for (int n = 0; n < 2000; n++) {
+                BatchGetRowRequest request = new BatchGetRowRequest();
+                request.addMultiRowQueryCriteria(new MultiRowQueryCriteria(CST)
+                        .addRow(longPrimaryKey(0)).addRow(longPrimaryKey(1)));
+                List<BatchGetRowResponse.RowResult> results = syncClient.batchGetRow(request).getBatchGetRowResult(CST);
+                Assert.assertTrue(results.get(1).getRow() == null || results.get(0).getRow() != null);
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+    }
+
+    @Test
+    public void testBatchGetRowFromMissingTable() {
+        createTable();
+        putLongRows(2);
+        BatchGetRowRequest request = new BatchGetRowRequest();
+        request.addMultiRowQueryCriteria(new MultiRowQueryCriteria(CST)
+                .addRow(longPrimaryKey(1)).addRow(longPrimaryKey(5)));
+        request.addMultiRowQueryCriteria(new MultiRowQueryCriteria("not_exist").addRow(longPrimaryKey(1)));
+        BatchGetRowResponse response = syncClient.batchGetRow(request);
+        Assert.assertFalse(response.isAllSucceed());
+        List<BatchGetRowResponse.RowResult> results = response.getBatchGetRowResult(CST);
+        Assert.assertEquals(0, results.get(0).getIndex());
+        Assert.assertNotNull(results.get(0).getRow());
+        Assert.assertNull(results.get(1).getRow());
+        Assert.assertEquals(1, results.get(1).getIndex());
+        Assert.assertEquals("OTSObjectNotExist", response.getBatchGetRowResult("not_exist").get(0).getError().getCode());
+    }
+
+    public interface RowReader extends SyncClientInterface {
+        default Row getRow(String tableName, PrimaryKey primaryKey) {
+            return getRow(new GetRowRequest(new SingleRowQueryCriteria(tableName, primaryKey))).getRow();
+        }
+    }
+
+    @Test
+    public void testDefaultMethod() {
+        RowReader rowReader = (RowReader) Proxy.newProxyInstance(ClassLoader.getSystemClassLoader(),
+                new Class[]{RowReader.class}, new MockSyncClient(simpleInMemoryTableStore));
+        createTable();
+        putLongRows(2);
+        Assert.assertEquals(1, rowReader.getRow(CST, longPrimaryKey(1)).getLatestColumn("co1").getValue().asLong());
+        Assert.assertNull(rowReader.getRow(CST, longPrimaryKey(5)));
+    }
 }
@@ -0,0 +1,191 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.*;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Lock;
+
+public class TestOffHeapTableInstance {
+
+    private static final String CST = "off_heap_table";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(StorageMode.OFF_HEAP);
+
+    private final InMemoryTableInstanceManager manager = store.inMemoryTableInstanceManager;
+
+    public TestOffHeapTableInstance() {
+        TableMeta meta = new TableMeta(CST);
+        meta.addPrimaryKeyColumn(new PrimaryKeySchema("pk1", PrimaryKeyType.INTEGER));
+        store.createTable(new CreateTableRequest(meta, new TableOptions()));
+    }
+
+    private static PrimaryKey primaryKey(long value) {
+        return PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromLong(value)).build();
+    }
+
+    private void put(long key, String value) {
+        RowPutChange change = new RowPutChange(CST, primaryKey(key));
+        change.addColumn(new Column("co1", ColumnValue.fromString(value)));
+        change.addColumn(new Column("co2", ColumnValue.fromLong(key), 10));
+        manager.putRow(new PutRowRequest(change));
+    }
+
+    private Row getRow(long key) {
+        SingleRowQueryCriteria criteria = new SingleRowQueryCriteria(CST, primaryKey(key));
+        criteria.setMaxVersions(Integer.MAX_VALUE);
+        return manager.noConditionGetRow(new GetRowRequest(criteria)).getRow();
+    }
+
+    @Test
+    public void testReadWrite() {
+        Assert.assertTrue(store.getInMemoryTableInstance(CST) instanceof OffHeapTableInstance);
+        for (int i = 0; i < 10; i++) {
+            put(i, "v" + i);
+        }
+        put(3, "w3");
+        RowUpdateChange update = new RowUpdateChange(CST, primaryKey(4));
+        update.put("co3", ColumnValue.fromBinary(new byte[]{1, 2}));
+        update.deleteColumns("co1");
+        manager.updateRow(new UpdateRowRequest(update));
+        manager.deleteRow(new DeleteRowRequest(new RowDeleteChange(CST, primaryKey(5))));
+
+        Assert.assertEquals(2, getRow(3).getColumn("co1").size());
+        Assert.assertEquals("w3", getRow(3).getLatestColumn("co1").getValue().asString());
+        Assert.assertNull(getRow(4).getLatestColumn("co1"));
+        Assert.assertArrayEquals(new byte[]{1, 2}, getRow(4).getLatestColumn("co3").getValue().asBinary());
+        Assert.assertNull(getRow(5));
+
+        RangeRowQueryCriteria criteria = new RangeRowQueryCriteria(CST);
+        criteria.setInclusiveStartPrimaryKey(primaryKey(8));
+        criteria.setExclusiveEndPrimaryKey(primaryKey(2));
+        criteria.setDirection(Direction.BACKWARD);
+        criteria.setMaxVersions(1);
+        List<Row> rows = manager.getRange(new GetRangeRequest(criteria)).getRows();
+        Assert.assertEquals(5, rows.size());
+        Assert.assertEquals(8, rows.get(0).getPrimaryKey().getPrimaryKeyColumn("pk1").getValue().asLong());
+        Assert.assertEquals(6, rows.get(2).getLatestColumn("co2").getValue().asLong());
+    }
+
+    @Test
+    public void testCompactionReclaimsSegments() throws InterruptedException {
+        OffHeapTableInstance instance = (OffHeapTableInstance) store.getInMemoryTableInstance(CST);
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            value.append('x');
+        }
+        int rows = 2 * OffHeapSegments.SEGMENT_SIZE / 1000;
+        // 交替写入的两组行, 删掉其中一组后每个写满的段都只剩一半左右的活数据
+        for (int i = 0; i < rows * 2; i++) {
+            put(i, value.toString());
+        }
+        long allocated = instance.offHeapBytes();
+        for (int i = 0; i < rows * 2; i += 2) {
+            manager.deleteRow(new DeleteRowRequest(new RowDeleteChange(CST, primaryKey(i))));
+        }
+        for (int i = 1; i < rows / 2; i += 2) {
+            put(i, "v" + i);
+        }
+        instance.compact();
+        Assert.assertTrue(instance.offHeapBytes() + " < " + allocated, instance.offHeapBytes() < allocated);
+        Assert.assertEquals(rows, instance.getDataInstance().size());
+        Assert.assertEquals("v1", getRow(1).getLatestColumn("co1").getValue().asString());
+        Assert.assertEquals(value.toString(), getRow(rows * 2 - 1).getLatestColumn("co1").getValue().asString());
+    }
+
+    @Test
+    public void testBulkLoad() {
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            rows.add(new Row(primaryKey(i), new Column[]{new Column("co1", ColumnValue.fromLong(i), 1)}));
+        }
+        store.bulkLoad(CST, rows.iterator(), rows.size());
+        Assert.assertEquals(100, store.getInMemoryTableInstance(CST).getDataInstance().size());
+        Assert.assertEquals(42, getRow(42).getLatestColumn("co1").getValue().asLong());
+    }
+
+    @Test
+    public void testBulkLoadUnsortedRows() {
+        List<Row> rows = new ArrayList<>();
+        for (int i = 99; i >= 0; i--) {
+            rows.add(new Row(primaryKey(i), new Column[]{new Column("co1", ColumnValue.fromLong(i), 1)}));
+        }
+        rows.add(new Row(primaryKey(7), new Column[]{new Column("co1", ColumnValue.fromLong(-7), 2)}));
+        store.bulkLoad(CST, rows.iterator(), rows.size());
+        Assert.assertEquals(100, store.getInMemoryTableInstance(CST).rowCount());
+        Assert.assertEquals(2, getRow(7).getColumn("co1").size());
+        Assert.assertEquals(-7, getRow(7).getLatestColumn("co1").getValue().asLong());
+    }
+
+    @Test
+    public void testLoadSnapshot() throws IOException {
+        Path snapshot = folder.getRoot().toPath().resolve("store.snapshot");
+        SimpleInMemoryTableStore heap = new SimpleInMemoryTableStore();
+        TableMeta meta = new TableMeta(CST);
+        meta.addPrimaryKeyColumn(new PrimaryKeySchema("pk1", PrimaryKeyType.INTEGER));
+        heap.createTable(new CreateTableRequest(meta, new TableOptions()));
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            rows.add(new Row(primaryKey(i), new Column[]{new Column("co1", ColumnValue.fromString("v" + i), 1)}));
+        }
+        heap.bulkLoad(CST, rows.iterator(), rows.size());
+        heap.checkpoint(snapshot);
+
+        Path wal = folder.getRoot().toPath().resolve("store.wal");
+        try (SimpleInMemoryTableStore loaded = new SimpleInMemoryTableStore(snapshot, wal, 0, StorageMode.OFF_HEAP)) {
+            InMemoryTableInstance instance = loaded.getInMemoryTableInstance(CST);
+            Assert.assertTrue(instance instanceof OffHeapTableInstance);
+            Assert.assertTrue(((OffHeapTableInstance) instance).offHeapBytes() > 0);
+            Assert.assertEquals(1000, instance.rowCount());
+            Assert.assertEquals(1000, instance.getDataInstance().size());
+            Assert.assertEquals("v999", instance.get(primaryKey(999)).getLatestColumn("co1").getValue().asString());
+        }
+    }
+
+    @Test
+    public void testBatchGetRowWithoutWriterLocks() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            put(i, "v" + i);
+        }
+        InMemoryTableInstance instance = store.getInMemoryTableInstance(CST);
+        Lock lock = instance.lockFor(instance.key(primaryKey(1)));
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            lock.lock();
+            try {
+                locked.countDown();
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        });
+        holder.start();
+        locked.await();
+        try {
+            // 没有并发的写入时不需要获取分段锁, 其他线程持有锁也能读到
+            BatchGetRowRequest request = new BatchGetRowRequest();
+            request.addMultiRowQueryCriteria(new MultiRowQueryCriteria(CST)
+                    .addRow(primaryKey(0)).addRow(primaryKey(1)).addRow(primaryKey(7)));
+            List<BatchGetRowResponse.RowResult> results = manager.batchGetRow(request).getBatchGetRowResult(CST);
+            Assert.assertEquals("v1", results.get(1).getRow().getLatestColumn("co1").getValue().asString());
+            Assert.assertNull(results.get(2).getRow());
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class TestRowVersion {
+
+    private final PrimaryKey primaryKey = PrimaryKeyBuilder.createPrimaryKeyBuilder()
+            .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromString("aa")).build();
+
+    private RowVersion threeVersions() {
+        return new RowVersion.Builder(EncodedPrimaryKey.of(primaryKey)).putAll(Arrays.asList(
+                new Column("co1", ColumnValue.fromLong(2), 20),
+                new Column("co1", ColumnValue.fromLong(1), 10),
+                new Column("co1", ColumnValue.fromLong(3), 30),
+                new Column("co0", ColumnValue.fromString("a"), 5)
+        )).build();
+    }
+
+    @Test
+    public void testVersionsSortedByTimestamp() {
+        RowVersion version = threeVersions();
+        Assert.assertEquals(2, version.columnCount());
+        Assert.assertEquals("co0", version.nameAt(0));
+        Assert.assertEquals(3, version.getLatestColumn("co1").getValue().asLong());
+        Assert.assertEquals(1, version.getColumn("co1", 10).getValue().asLong());
+        Assert.assertNull(version.getColumn("co1", 15));
+        Assert.assertEquals(4, version.getRow().getColumns().length);
+    }
+
+    @Test
+    public void testBuilderDoesNotChangeBase() {
+        RowVersion base = threeVersions();
+        RowVersion next = base.toBuilder()
+                .put(new Column("co1", ColumnValue.fromLong(22), 20))
+                .delete("co1", 10)
+                .deleteAll("co0")
+                .putLatest("co2", ColumnValue.fromBoolean(true), 40)
+                .build();
+
+        Assert.assertEquals(3, base.getColumn("co1").size());
+        Assert.assertEquals(2, base.getColumn("co1", 20).getValue().asLong());
+
+        Assert.assertEquals(2, next.getColumn("co1").size());
+        Assert.assertEquals(22, next.getColumn("co1", 20).getValue().asLong());
+        Assert.assertNull(next.getLatestColumn("co0"));
+        Assert.assertTrue(next.getLatestColumn("co2").getValue().asBoolean());
+    }
+
+    @Test
+    public void testPutLatestReplacesNewestVersion() {
+        RowVersion next = threeVersions().toBuilder()
+                .putLatest("co1", ColumnValue.fromLong(4), 40)
+                .build();
+        Assert.assertEquals(3, next.getColumn("co1").size());
+        Assert.assertEquals(4, next.getLatestColumn("co1").getValue().asLong());
+        Assert.assertNull(next.getColumn("co1", 30));
+    }
+}
@@ -0,0 +1,187 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.TableStoreException;
+import com.alicloud.openservices.tablestore.model.*;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestSecondaryIndex {
+
+    private static final String CST = "index_base";
+
+    private static final String INDEX = "index_by_city";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static PrimaryKey primaryKey(long value) {
+        return PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromLong(value)).build();
+    }
+
+    private static PrimaryKey indexKey(String city, long value) {
+        return PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("city", PrimaryKeyValue.fromString(city))
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromLong(value)).build();
+    }
+
+    private static void createTable(SimpleInMemoryTableStore store) {
+        TableMeta meta = new TableMeta(CST);
+        meta.addPrimaryKeyColumn(new PrimaryKeySchema("pk1", PrimaryKeyType.INTEGER));
+        store.createTable(new CreateTableRequest(meta, new TableOptions(-1, 3)));
+    }
+
+    private static SecondaryIndexMeta indexMeta() {
+        return new SecondaryIndexMeta(INDEX).addPrimaryKeyColumn("city", PrimaryKeyType.STRING).addDefinedColumn("age");
+    }
+
+    private static void put(SimpleInMemoryTableStore store, long key, String city, long age) {
+        RowPutChange change = new RowPutChange(CST, primaryKey(key));
+        if (city != null) {
+            change.addColumn(new Column("city", ColumnValue.fromString(city)));
+        }
+        change.addColumn(new Column("age", ColumnValue.fromLong(age)));
+        store.inMemoryTableInstanceManager.putRow(new PutRowRequest(change));
+    }
+
+    /**
+     * @return 按索引主键顺序扫描出的(city, pk1, age)
+     */
+    private static List<String> scan(SimpleInMemoryTableStore store) {
+        RangeRowQueryCriteria criteria = new RangeRowQueryCriteria(INDEX);
+        criteria.setInclusiveStartPrimaryKey(PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("city", PrimaryKeyValue.INF_MIN)
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.INF_MIN).build());
+        criteria.setExclusiveEndPrimaryKey(PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("city", PrimaryKeyValue.INF_MAX)
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.INF_MAX).build());
+        criteria.setMaxVersions(1);
+        List<String> result = new ArrayList<>();
+        for (Row row : store.inMemoryTableInstanceManager.getRange(new GetRangeRequest(criteria)).getRows()) {
+            result.add(row.getPrimaryKey().getPrimaryKeyColumn("city").getValue().asString() + ","
+                    + row.getPrimaryKey().getPrimaryKeyColumn("pk1").getValue().asLong() + ","
+                    + row.getLatestColumn("age").getValue().asLong());
+        }
+        return result;
+    }
+
+    @Test
+    public void testMaintainedOnWrites() {
+        SimpleInMemoryTableStore store = new SimpleInMemoryTableStore();
+        createTable(store);
+        put(store, 1, "beijing", 30);
+        store.createIndex(CST, indexMeta());
+        put(store, 2, "shanghai", 20);
+        put(store, 3, "beijing", 40);
+        put(store, 4, null, 50);
+        Assert.assertEquals("[beijing,1,30, beijing,3,40, shanghai,2,20]", scan(store).toString());
+
+        // 改变索引列时移走索引行, 删除主表的行时删除索引行
+        put(store, 1, "shanghai", 31);
+        RowDeleteChange delete = new RowDeleteChange(CST, primaryKey(3));
+        store.inMemoryTableInstanceManager.deleteRow(new DeleteRowRequest(delete));
+        Assert.assertEquals("[shanghai,1,31, shanghai,2,20]", scan(store).toString());
+
+        // 只写与索引无关的列时不更新索引
+        InMemoryTableInstance indexTable = store.getInMemoryTableInstance(INDEX);
+        RowVersion indexed = indexTable.get(indexKey("shanghai", 2));
+        RowUpdateChange update = new RowUpdateChange(CST, primaryKey(2));
+        update.put("name", ColumnValue.fromString("n2"));
+        store.inMemoryTableInstanceManager.updateRow(new UpdateRowRequest(update));
+        Assert.assertSame(indexed, indexTable.get(indexKey("shanghai", 2)));
+        Assert.assertEquals(2, indexTable.rowCount());
+
+        // 索引列的类型不对时不进入索引
+        update = new RowUpdateChange(CST, primaryKey(2));
+        update.put("city", ColumnValue.fromLong(1));
+        store.inMemoryTableInstanceManager.updateRow(new UpdateRowRequest(update));
+        Assert.assertEquals("[shanghai,1,31]", scan(store).toString());
+
+        try {
+            RowPutChange change = new RowPutChange(INDEX, indexKey("x", 1));
+            store.inMemoryTableInstanceManager.putRow(new PutRowRequest(change));
+            Assert.fail();
+        } catch (TableStoreException e) {
+            Assert.assertEquals("OTSParameterInvalid", e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testCreateAndDelete() {
+        SimpleInMemoryTableStore store = new SimpleInMemoryTableStore();
+        createTable(store);
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            rows.add(new Row(primaryKey(i), new Column[]{new Column("city", ColumnValue.fromString("c" + i % 10)),
+                    new Column("age", ColumnValue.fromLong(i))}));
+        }
+        store.bulkLoad(CST, rows.iterator(), rows.size());
+        store.createIndex(CST, indexMeta());
+        List<String> scanned = scan(store);
+        Assert.assertEquals(100, scanned.size());
+        Assert.assertEquals("c0,0,0", scanned.get(0));
+        Assert.assertEquals("c0,10,10", scanned.get(1));
+        Assert.assertEquals("c9,99,99", scanned.get(99));
+
+        assertInvalid(store, new SecondaryIndexMeta("i1").addPrimaryKeyColumn("city"));
+        assertInvalid(store, new SecondaryIndexMeta("i2").addPrimaryKeyColumn("pk1", PrimaryKeyType.STRING));
+        assertInvalid(store, new SecondaryIndexMeta("i3").addPrimaryKeyColumn("pk1").addDefinedColumn("pk1"));
+        try {
+            store.createIndex(CST, indexMeta());
+            Assert.fail();
+        } catch (TableStoreException e) {
+            Assert.assertEquals("OTSObjectAlreadyExist", e.getErrorCode());
+        }
+
+        store.deleteIndex(CST, INDEX);
+        Assert.assertNull(store.getTableMeta(INDEX));
+        Assert.assertEquals(0, store.getInMemoryTableInstance(CST).indexes.length);
+        store.createIndex(CST, indexMeta());
+        store.deleteTable(new DeleteTableRequest(CST));
+        Assert.assertNull(store.getTableMeta(INDEX));
+    }
+
+    private static void assertInvalid(SimpleInMemoryTableStore store, SecondaryIndexMeta indexMeta) {
+        try {
+            store.createIndex(CST, indexMeta);
+            Assert.fail();
+        } catch (TableStoreException e) {
+            Assert.assertEquals("OTSParameterInvalid", e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testRecovery() throws IOException {
+        Path snapshot = folder.getRoot().toPath().resolve("store.snapshot");
+        Path log = folder.getRoot().toPath().resolve("store.log");
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(snapshot, log, 0)) {
+            createTable(store);
+            store.createIndex(CST, indexMeta());
+            put(store, 1, "beijing", 30);
+            store.checkpoint(snapshot);
+            put(store, 2, "shanghai", 20);
+            put(store, 1, "hangzhou", 31);
+        }
+        for (StorageMode mode : StorageMode.values()) {
+            try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(snapshot, log, 0, mode)) {
+                Assert.assertEquals("[hangzhou,1,31, shanghai,2,20]", scan(store).toString());
+                put(store, 2, "beijing", 21);
+                Assert.assertEquals("[beijing,2,21, hangzhou,1,31]", scan(store).toString());
+                store.deleteIndex(CST, INDEX);
+            }
+            // 删除索引也记录在日志中, 下一次打开前重新创建
+            try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(snapshot, log, 0, mode)) {
+                Assert.assertNull(store.getTableMeta(INDEX));
+                store.createIndex(CST, indexMeta());
+                put(store, 2, "shanghai", 20);
+            }
+        }
+    }
+}
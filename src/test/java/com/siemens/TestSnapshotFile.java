@@ -0,0 +1,236 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.*;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.Stream;
+
+public class TestSnapshotFile {
+
+    private static final String CST = "snapshot_table";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static PrimaryKey primaryKey(long value) {
+        return PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromLong(value)).build();
+    }
+
+    private static void createTable(SimpleInMemoryTableStore store, String tableName) {
+        TableMeta meta = new TableMeta(tableName);
+        meta.addPrimaryKeyColumn(new PrimaryKeySchema("pk1", PrimaryKeyType.INTEGER));
+        // 测试数据的时间戳从1开始, timeToLive取最大值, 这些版本不会过期
+        TableOptions options = new TableOptions(Integer.MAX_VALUE, 3);
+        store.createTable(new CreateTableRequest(meta, options, new ReservedThroughput(new CapacityUnit(10, 20))));
+    }
+
+    private static void put(SimpleInMemoryTableStore store, long key, long timestamp) {
+        RowPutChange change = new RowPutChange(CST, primaryKey(key));
+        change.addColumn(new Column("co1", ColumnValue.fromLong(key), timestamp));
+        change.addColumn(new Column("co2", ColumnValue.fromString("v" + key), timestamp));
+        store.inMemoryTableInstanceManager.putRow(new PutRowRequest(change));
+    }
+
+    private static RowVersion get(SimpleInMemoryTableStore store, long key) {
+        return store.getInMemoryTableInstance(CST).get(primaryKey(key));
+    }
+
+    @Test
+    public void testLoadSnapshot() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("store.snapshot");
+        SimpleInMemoryTableStore store = new SimpleInMemoryTableStore();
+        createTable(store, CST);
+        createTable(store, "empty");
+        for (int i = 1000; i > 0; i--) {
+            put(store, i, 1);
+        }
+        put(store, 1, 2);
+        RowPutChange change = new RowPutChange(CST, primaryKey(0));
+        change.addColumn(new Column("co3", ColumnValue.fromBinary(new byte[]{1, 2}), 5));
+        change.addColumn(new Column("co4", ColumnValue.fromDouble(0.5), 5));
+        change.addColumn(new Column("co5", ColumnValue.fromBoolean(false), 5));
+        store.inMemoryTableInstanceManager.putRow(new PutRowRequest(change));
+        store.checkpoint(file);
+
+        SimpleInMemoryTableStore loaded = new SimpleInMemoryTableStore();
+        loaded.loadSnapshot(file);
+        Assert.assertEquals(2, loaded.getMetas().size());
+        Assert.assertEquals(0, loaded.getInMemoryTableInstance("empty").getDataInstance().size());
+        InMemoryTableInstance instance = loaded.getInMemoryTableInstance(CST);
+        Assert.assertEquals(1001, instance.getDataInstance().size());
+        Assert.assertEquals(3, instance.tableOptions.getMaxVersions());
+        Assert.assertEquals(Integer.MAX_VALUE, instance.tableOptions.getTimeToLive());
+        Assert.assertEquals(20, instance.reservedThroughput.getCapacityUnit().getWriteCapacityUnit());
+
+        long expected = 0;
+        for (PrimaryKey primaryKey : instance.getDataInstance().keySet()) {
+            Assert.assertEquals(expected++, primaryKey.getPrimaryKeyColumn("pk1").getValue().asLong());
+        }
+        Assert.assertEquals(2, get(loaded, 1).getColumn("co1").size());
+        Assert.assertEquals(2, get(loaded, 1).getLatestColumn("co1").getTimestamp());
+        Assert.assertEquals("v500", get(loaded, 500).getColumn("co2", 1).getValue().asString());
+        Assert.assertArrayEquals(new byte[]{1, 2}, get(loaded, 0).getColumn("co3", 5).getValue().asBinary());
+        Assert.assertEquals(0.5, get(loaded, 0).getColumn("co4", 5).getValue().asDouble(), 0);
+        Assert.assertFalse(get(loaded, 0).getColumn("co5", 5).getValue().asBoolean());
+
+        // 加载的表可以继续写
+        put(loaded, 2000, 1);
+        Assert.assertEquals(1002, instance.getDataInstance().size());
+    }
+
+    @Test
+    public void testCheckpointTruncatesWriteAheadLog() throws IOException {
+        Path snapshot = folder.getRoot().toPath().resolve("store.snapshot");
+        Path wal = folder.getRoot().toPath().resolve("store.wal");
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(snapshot, wal, 0)) {
+            createTable(store, CST);
+            for (int i = 0; i < 100; i++) {
+                put(store, i, 1);
+            }
+            long size = Files.size(wal);
+            store.checkpoint(snapshot);
+            Assert.assertTrue(Files.size(wal) < size);
+            put(store, 100, 1);
+            store.inMemoryTableInstanceManager.deleteRow(new DeleteRowRequest(new RowDeleteChange(CST, primaryKey(0))));
+        }
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(snapshot, wal, 0)) {
+            Assert.assertEquals(100, store.getInMemoryTableInstance(CST).getDataInstance().size());
+            Assert.assertNull(get(store, 0));
+            Assert.assertNotNull(get(store, 100));
+            Assert.assertEquals(3, store.getInMemoryTableInstance(CST).tableOptions.getMaxVersions());
+        }
+    }
+
+    @Test
+    public void testStaleWriteAheadLogIsDiscarded() throws IOException {
+        Path snapshot = folder.getRoot().toPath().resolve("store.snapshot");
+        Path wal = folder.getRoot().toPath().resolve("store.wal");
+        Path staleWal = folder.getRoot().toPath().resolve("stale.wal");
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(snapshot, wal, 0)) {
+            createTable(store, CST);
+            put(store, 1, 1);
+            put(store, 1, 2);
+            Files.copy(wal, staleWal);
+            store.checkpoint(snapshot);
+        }
+        // 快照落盘之后, 清空日志之前崩溃: 日志中的记录已经包含在快照中, 不能再回放一次
+        Files.copy(staleWal, wal, StandardCopyOption.REPLACE_EXISTING);
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(snapshot, wal, 0)) {
+            Assert.assertEquals(2, get(store, 1).getColumn("co1").size());
+            put(store, 2, 1);
+        }
+        // 快照丢失时不能只回放快照之后的日志
+        Files.delete(snapshot);
+        try {
+            new SimpleInMemoryTableStore(snapshot, wal, 0).close();
+            Assert.fail("the write ahead log is newer than the snapshot");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testCrashBeforeSnapshotReplaysArchivedLog() throws IOException {
+        Path snapshot = folder.getRoot().toPath().resolve("store.snapshot");
+        Path wal = folder.getRoot().toPath().resolve("store.wal");
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(snapshot, wal, 0)) {
+            createTable(store, CST);
+            put(store, 1, 1);
+            store.checkpoint(snapshot);
+            put(store, 2, 1);
+            // 轮转之后, 快照写完之前崩溃: 旧快照加上归档和新日志
+            store.inMemoryTableInstanceManager.writeAheadLog.rotate();
+            put(store, 3, 1);
+            put(store, 2, 2);
+        }
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(snapshot, wal, 0)) {
+            Assert.assertNotNull(get(store, 1));
+            Assert.assertNotNull(get(store, 3));
+            Assert.assertEquals(2, get(store, 2).getColumn("co1").size());
+            store.checkpoint(snapshot);
+            put(store, 4, 1);
+        }
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(snapshot, wal, 0)) {
+            Assert.assertEquals(4, store.getInMemoryTableInstance(CST).getDataInstance().size());
+            Assert.assertEquals(2, get(store, 2).getColumn("co1").size());
+        }
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+            Assert.assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    public void testWritesDuringCheckpointAreRecovered() throws Exception {
+        Path snapshot = folder.getRoot().toPath().resolve("store.snapshot");
+        Path wal = folder.getRoot().toPath().resolve("store.wal");
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(snapshot, wal, 0)) {
+            createTable(store, CST);
+            for (int i = 0; i < 1000; i++) {
+                put(store, i, 1);
+            }
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    put(store, i, 2);
+                    put(store, 1000 + i, 1);
+                }
+            });
+            writer.start();
+            store.checkpoint(snapshot);
+            writer.join();
+        }
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(snapshot, wal, 0)) {
+            Assert.assertEquals(2000, store.getInMemoryTableInstance(CST).getDataInstance().size());
+            for (int i = 0; i < 1000; i++) {
+                Assert.assertEquals(2, get(store, i).getColumn("co1").size());
+            }
+        }
+    }
+
+    @Test
+    public void testAutoTimestampedWritesDuringCheckpointKeepOneVersion() throws Exception {
+        Path snapshot = folder.getRoot().toPath().resolve("store.snapshot");
+        Path wal = folder.getRoot().toPath().resolve("store.wal");
+        long[] timestamps = new long[2000];
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(snapshot, wal, 0)) {
+            createTable(store, CST);
+            for (int i = 0; i < 1000; i++) {
+                put(store, i, 1);
+            }
+            // 不带时间戳的写入由存储分配时间戳, 回放时不能再分配一次
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    RowUpdateChange update = new RowUpdateChange(CST, primaryKey(i));
+                    update.put("co1", ColumnValue.fromLong(-i));
+                    store.inMemoryTableInstanceManager.updateRow(new UpdateRowRequest(update));
+                    RowPutChange put = new RowPutChange(CST, primaryKey(1000 + i));
+                    put.addColumn("co1", ColumnValue.fromLong(i));
+                    store.inMemoryTableInstanceManager.putRow(new PutRowRequest(put));
+                }
+            });
+            writer.start();
+            store.checkpoint(snapshot);
+            writer.join();
+            for (int i = 0; i < timestamps.length; i++) {
+                timestamps[i] = get(store, i).getLatestColumn("co1").getTimestamp();
+            }
+        }
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(snapshot, wal, 0)) {
+            Assert.assertEquals(2000, store.getInMemoryTableInstance(CST).getDataInstance().size());
+            for (int i = 0; i < timestamps.length; i++) {
+                RowVersion row = get(store, i);
+                Assert.assertEquals(1, row.getColumn("co1").size());
+                Assert.assertEquals(timestamps[i], row.getLatestColumn("co1").getTimestamp());
+                if (i < 1000) {
+                    Assert.assertEquals(1, row.getColumn("co2").size());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.PrimaryKeyBuilder;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyValue;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+public class TestSortedRows {
+
+    private static EncodedPrimaryKey primaryKey(long value) {
+        return EncodedPrimaryKey.of(PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromLong(value)).build());
+    }
+
+    /**
+     * 偶数主键0..2*(count-1), 每段的长度依次取lengths, 包括空段
+     */
+    private static List<RowVersion[]> chunks(int... lengths) {
+        List<RowVersion[]> chunks = new ArrayList<>();
+        long next = 0;
+        for (int length : lengths) {
+            RowVersion[] rows = new RowVersion[length];
+            for (int i = 0; i < length; i++) {
+                rows[i] = new RowVersion.Builder(primaryKey(next)).build();
+                next += 2;
+            }
+            chunks.add(rows);
+        }
+        return chunks;
+    }
+
+    @Test
+    public void testSortedMapViews() {
+        SortedRows rows = new SortedRows(chunks(0, 3, 0, 2, 4));
+        TreeMap<EncodedPrimaryKey, RowVersion> expected = new TreeMap<>();
+        expected.putAll(rows);
+        Assert.assertEquals(9, rows.size());
+        Assert.assertEquals(9, expected.size());
+        Assert.assertEquals(primaryKey(0), rows.firstKey());
+        Assert.assertEquals(primaryKey(16), rows.lastKey());
+        Assert.assertNotNull(rows.get(primaryKey(6)));
+        Assert.assertNull(rows.get(primaryKey(7)));
+
+        for (long from = -1; from <= 18; from++) {
+            Assert.assertEquals(expected.tailMap(primaryKey(from)).keySet(),
+                    rows.tailMap(primaryKey(from)).keySet());
+            Assert.assertEquals(expected.headMap(primaryKey(from)).keySet(),
+                    rows.headMap(primaryKey(from)).keySet());
+            for (long to = from; to <= 18; to++) {
+                SortedMap<EncodedPrimaryKey, RowVersion> sub = rows.subMap(primaryKey(from), primaryKey(to));
+                Assert.assertEquals(new ArrayList<>(expected.subMap(primaryKey(from), primaryKey(to)).keySet()),
+                        new ArrayList<>(sub.keySet()));
+                Assert.assertEquals(expected.subMap(primaryKey(from), primaryKey(to)).size(), sub.size());
+            }
+        }
+        SortedMap<EncodedPrimaryKey, RowVersion> middle = rows.subMap(primaryKey(3), primaryKey(12));
+        Assert.assertEquals(primaryKey(4), middle.firstKey());
+        Assert.assertEquals(primaryKey(10), middle.lastKey());
+        Assert.assertEquals(Arrays.asList(primaryKey(6), primaryKey(8)),
+                new ArrayList<>(middle.tailMap(primaryKey(5)).headMap(primaryKey(10)).keySet()));
+        try {
+            rows.subMap(primaryKey(5), primaryKey(3)).firstKey();
+            Assert.fail();
+        } catch (IllegalArgumentException expectedException) {
+        }
+        try {
+            rows.headMap(primaryKey(0)).firstKey();
+            Assert.fail();
+        } catch (NoSuchElementException expectedException) {
+        }
+        Assert.assertEquals(expected.keySet(), new ConcurrentSkipListMap<>(rows).keySet());
+    }
+}
@@ -0,0 +1,104 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.TableStoreException;
+import com.alicloud.openservices.tablestore.model.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+public class TestStoreMetrics {
+
+    private static final String CST = "metrics_table";
+
+    private final SimpleInMemoryTableStore store = new SimpleInMemoryTableStore();
+
+    private final InMemoryTableInstanceManager manager = store.inMemoryTableInstanceManager;
+
+    public TestStoreMetrics() {
+        TableMeta meta = new TableMeta(CST);
+        meta.addPrimaryKeyColumn(new PrimaryKeySchema("pk1", PrimaryKeyType.INTEGER));
+        store.createTable(new CreateTableRequest(meta, new TableOptions()));
+    }
+
+    private static PrimaryKey primaryKey(long value) {
+        return PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromLong(value)).build();
+    }
+
+    @Test
+    public void testOperationsAndTables() {
+        store.metrics().setSampleInterval(1);
+        for (int i = 0; i < 10; i++) {
+            RowPutChange put = new RowPutChange(CST, primaryKey(i));
+            put.addColumn(new Column("co1", ColumnValue.fromString("value"), 1));
+            manager.putRow(new PutRowRequest(put));
+        }
+        RowPutChange conditional = new RowPutChange(CST, primaryKey(100));
+        conditional.setCondition(new Condition(RowExistenceExpectation.EXPECT_EXIST));
+        try {
+            manager.putRow(new PutRowRequest(conditional));
+            Assert.fail();
+        } catch (TableStoreException e) {
+            Assert.assertEquals("OTSConditionCheckFail", e.getErrorCode());
+        }
+        RowUpdateChange update = new RowUpdateChange(CST, primaryKey(1));
+        update.put(new Column("co2", ColumnValue.fromLong(1), 1));
+        manager.updateRow(new UpdateRowRequest(update));
+        manager.deleteRow(new DeleteRowRequest(new RowDeleteChange(CST, primaryKey(2))));
+
+        StoreMetrics.Snapshot snapshot = store.metrics().snapshot();
+        StoreMetrics.OperationStats putRow = snapshot.operation("putRow");
+        Assert.assertEquals(11, putRow.getCount());
+        Assert.assertEquals(1, putRow.getErrors());
+        Assert.assertEquals(11, putRow.latency().getCount());
+        Assert.assertTrue(putRow.getP50Nanos() <= putRow.getMaxNanos());
+        Assert.assertEquals(1, snapshot.operation("updateRow").getCount());
+        Assert.assertEquals(0, snapshot.operation("getRange").getCount());
+
+        // 每行: "pk1" + 8字节整数主键, "co1" + "value", 第1行多一个"co2" + 8字节整数
+        StoreMetrics.TableStats table = snapshot.getTables().get(CST);
+        Assert.assertEquals(9, table.getRowCount());
+        Assert.assertEquals(9 * (11 + 8) + 11, table.getDataBytes());
+
+        store.metrics().reset();
+        Assert.assertEquals(0, store.metrics().snapshot().operation("putRow").getCount());
+        Assert.assertEquals(9, store.metrics().snapshot().getTables().get(CST).getRowCount());
+    }
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            first.record(i * 1000L);
+            second.record(i * 1000L + 1_000_000L);
+        }
+        LatencyHistogram.Snapshot merged = first.snapshot().merge(second.snapshot());
+        Assert.assertEquals(2000, merged.getCount());
+        Assert.assertEquals(2_000_000L, merged.getMax());
+        // 每个桶的宽度不超过下界的1/8
+        long median = merged.getValueAtQuantile(0.5);
+        Assert.assertTrue(String.valueOf(median), median >= 1_000_000L && median <= 1_125_000L);
+        long p99 = merged.getValueAtQuantile(0.99);
+        Assert.assertTrue(String.valueOf(p99), p99 >= 1_980_000L && p99 <= 2_000_000L);
+        Assert.assertEquals(0, LatencyHistogram.Snapshot.EMPTY.getValueAtQuantile(0.99));
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        manager.noConditionGetRow(new GetRowRequest(new SingleRowQueryCriteria(CST, primaryKey(1))));
+        ObjectName name = store.metrics().register("test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            Assert.assertTrue(server.isRegistered(name));
+            Assert.assertNotNull(server.getAttribute(name, "Operations"));
+            Assert.assertNotNull(server.getAttribute(name, "Tables"));
+        } finally {
+            store.close();
+        }
+        Assert.assertFalse(server.isRegistered(name));
+    }
+}
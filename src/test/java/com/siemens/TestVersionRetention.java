@@ -0,0 +1,143 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.TableStoreException;
+import com.alicloud.openservices.tablestore.model.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.function.UnaryOperator;
+
+public class TestVersionRetention {
+
+    private static final String CST = "retention_table";
+
+    private final SimpleInMemoryTableStore store = new SimpleInMemoryTableStore();
+
+    private final InMemoryTableInstanceManager manager = store.inMemoryTableInstanceManager;
+
+    public TestVersionRetention() {
+        TableMeta meta = new TableMeta(CST);
+        meta.addPrimaryKeyColumn(new PrimaryKeySchema("pk1", PrimaryKeyType.INTEGER));
+        store.createTable(new CreateTableRequest(meta, new TableOptions(3600, 2)));
+        // 停掉后台线程, 由测试直接调用sweep
+        manager.compactor.close();
+    }
+
+    private static PrimaryKey primaryKey(long value) {
+        return PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromLong(value)).build();
+    }
+
+    private Row getRow(long key) {
+        SingleRowQueryCriteria criteria = new SingleRowQueryCriteria(CST, primaryKey(key));
+        criteria.setMaxVersions(Integer.MAX_VALUE);
+        return manager.noConditionGetRow(new GetRowRequest(criteria)).getRow();
+    }
+
+    @Test
+    public void testMaxVersionsAndAutoTimestamps() {
+        for (int i = 0; i < 5; i++) {
+            RowPutChange put = new RowPutChange(CST, primaryKey(1));
+            put.addColumn(new Column("co1", ColumnValue.fromLong(i)));
+            manager.putRow(new PutRowRequest(put));
+        }
+        // 同一毫秒内的写入时间戳依次加1, 不会互相覆盖, 只保留最新的2个版本
+        List<Column> versions = getRow(1).getColumn("co1");
+        Assert.assertEquals(2, versions.size());
+        Assert.assertEquals(4, versions.get(0).getValue().asLong());
+        Assert.assertEquals(3, versions.get(1).getValue().asLong());
+        Assert.assertTrue(versions.get(0).getTimestamp() > versions.get(1).getTimestamp());
+        Assert.assertTrue(Math.abs(versions.get(0).getTimestamp() - System.currentTimeMillis()) < 60_000);
+        Assert.assertEquals(2, store.getInMemoryTableInstance(CST).get(primaryKey(1)).versionsOf("co1").length);
+    }
+
+    @Test
+    public void testExpiredVersionsAreHiddenAndReclaimed() {
+        long now = System.currentTimeMillis();
+        long expired = now - 7200_000;
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            // 偶数行只有过期的版本, 奇数行有一个过期的列和一个5个版本的列
+            List<Column> columns = new ArrayList<>();
+            columns.add(new Column("co1", ColumnValue.fromLong(i), expired));
+            if (i % 2 == 1) {
+                for (int version = 0; version < 5; version++) {
+                    columns.add(new Column("co2", ColumnValue.fromLong(version), now - version));
+                }
+            }
+            rows.add(new Row(primaryKey(i), columns.toArray(new Column[0])));
+        }
+        store.bulkLoad(CST, rows.iterator(), rows.size());
+        InMemoryTableInstance instance = store.getInMemoryTableInstance(CST);
+        long loadedBytes = instance.dataBytes();
+
+        Assert.assertNull(getRow(0));
+        Row row = getRow(1);
+        Assert.assertNull(row.getLatestColumn("co1"));
+        Assert.assertEquals(2, row.getColumn("co2").size());
+        Assert.assertEquals(now, row.getLatestColumn("co2").getTimestamp());
+
+        RangeRowQueryCriteria criteria = new RangeRowQueryCriteria(CST);
+        criteria.setInclusiveStartPrimaryKey(primaryKey(0));
+        criteria.setExclusiveEndPrimaryKey(primaryKey(10));
+        criteria.setMaxVersions(1);
+        Assert.assertEquals(5, manager.getRange(new GetRangeRequest(criteria)).getRows().size());
+
+        RowUpdateChange update = new RowUpdateChange(CST, primaryKey(2));
+        update.put("co3", ColumnValue.fromLong(1));
+        update.setCondition(new Condition(RowExistenceExpectation.EXPECT_EXIST));
+        try {
+            manager.updateRow(new UpdateRowRequest(update));
+            Assert.fail();
+        } catch (TableStoreException e) {
+            Assert.assertEquals("OTSConditionCheckFail", e.getErrorCode());
+        }
+
+        Assert.assertEquals(1000, instance.rowCount());
+        // 每次sweep有时间上限, 没扫完时下一次从停下的位置继续
+        for (int i = 0; i < 100 && instance.rowCount() > 500; i++) {
+            manager.compactor.sweep();
+        }
+        Assert.assertEquals(500, instance.rowCount());
+        Assert.assertEquals(500, instance.getDataInstance().size());
+        Assert.assertTrue(instance.dataBytes() < loadedBytes / 2);
+        Assert.assertEquals(2, instance.get(primaryKey(999)).versionsOf("co2").length);
+        Assert.assertNull(instance.get(primaryKey(999)).versionsOf("co1"));
+    }
+
+    @Test
+    public void testFailedRowIsCountedAndSkipped() {
+        long expired = System.currentTimeMillis() - 7200_000;
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            rows.add(new Row(primaryKey(i), new Column[]{new Column("co1", ColumnValue.fromLong(i), expired)}));
+        }
+        store.bulkLoad(CST, rows.iterator(), rows.size());
+        // 与表共用同一份数据, 回收第一行时失败
+        InMemoryTableInstance failing = new InMemoryTableInstance(
+                (ConcurrentNavigableMap<EncodedPrimaryKey, RowVersion>) store.getInMemoryTableInstance(CST).getRows()) {
+            @Override
+            RowVersion compute(EncodedPrimaryKey primaryKey, UnaryOperator<RowVersion> mutation) {
+                if (primaryKey.equals(EncodedPrimaryKey.of(primaryKey(0)))) {
+                    throw new IllegalStateException();
+                }
+                return super.compute(primaryKey, mutation);
+            }
+        };
+        failing.retention = store.getInMemoryTableInstance(CST).retention;
+        StoreMetrics metrics = new StoreMetrics(Collections.emptyMap());
+        RetentionCompactor compactor = new RetentionCompactor(Collections.singletonMap(CST, failing),
+                metrics.operation(RetentionCompactor.OPERATION));
+        compactor.sweep();
+
+        Assert.assertEquals(1, failing.getDataInstance().size());
+        Assert.assertNotNull(failing.getDataInstance().get(primaryKey(0)));
+        StoreMetrics.OperationStats stats = metrics.snapshot().getOperations().get(RetentionCompactor.OPERATION);
+        Assert.assertEquals(10, stats.getCount());
+        Assert.assertEquals(1, stats.getErrors());
+    }
+}
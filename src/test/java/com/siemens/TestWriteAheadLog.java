@@ -0,0 +1,162 @@
+package com.siemens;
+
+import com.alicloud.openservices.tablestore.model.*;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestWriteAheadLog {
+
+    private static final String CST = "wal_table";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static PrimaryKey primaryKey(long value) {
+        return PrimaryKeyBuilder.createPrimaryKeyBuilder()
+                .addPrimaryKeyColumn("pk1", PrimaryKeyValue.fromLong(value)).build();
+    }
+
+    private static void createTable(SimpleInMemoryTableStore store, String tableName) {
+        TableMeta meta = new TableMeta(tableName);
+        meta.addPrimaryKeyColumn(new PrimaryKeySchema("pk1", PrimaryKeyType.INTEGER));
+        store.createTable(new CreateTableRequest(meta, new TableOptions()));
+    }
+
+    private static RowVersion get(SimpleInMemoryTableStore store, long key) {
+        return store.getInMemoryTableInstance(CST).get(primaryKey(key));
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("store.wal");
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(file)) {
+            createTable(store, CST);
+            createTable(store, "dropped");
+            InMemoryTableInstanceManager manager = store.inMemoryTableInstanceManager;
+            for (int i = 0; i < 10; i++) {
+                RowPutChange change = new RowPutChange(CST, primaryKey(i));
+                change.addColumn(new Column("co1", ColumnValue.fromLong(i)));
+                change.addColumn(new Column("co2", ColumnValue.fromString("v" + i), 100));
+                manager.putRow(new PutRowRequest(change));
+            }
+            RowUpdateChange update = new RowUpdateChange(CST, primaryKey(1));
+            update.put("co1", ColumnValue.fromDouble(1.5));
+            update.deleteColumns("co2");
+            manager.updateRow(new UpdateRowRequest(update));
+            // 条件不满足的写入不记录
+            RowPutChange failed = new RowPutChange(CST, primaryKey(2));
+            failed.addColumn(new Column("co1", ColumnValue.fromLong(-1)));
+            failed.setCondition(new Condition(RowExistenceExpectation.EXPECT_NOT_EXIST));
+            try {
+                manager.putRow(new PutRowRequest(failed));
+                Assert.fail("condition check should fail");
+            } catch (RuntimeException expected) {
+            }
+            BatchWriteRowRequest batch = new BatchWriteRowRequest();
+            batch.addRowChange(new RowDeleteChange(CST, primaryKey(3)));
+            RowPutChange binary = new RowPutChange(CST, primaryKey(4));
+            binary.addColumn(new Column("co3", ColumnValue.fromBinary(new byte[]{1, 2, 3}), 7));
+            binary.addColumn(new Column("co4", ColumnValue.fromBoolean(true), 7));
+            batch.addRowChange(binary);
+            manager.batchWriteRow(batch);
+            store.deleteTable(new DeleteTableRequest("dropped"));
+        }
+
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(file)) {
+            Assert.assertNull(store.getTableMeta("dropped"));
+            Assert.assertEquals(9, store.getInMemoryTableInstance(CST).getDataInstance().size());
+            Assert.assertEquals(0, get(store, 0).getLatestColumn("co1").getValue().asLong());
+            Assert.assertEquals("v0", get(store, 0).getColumn("co2", 100).getValue().asString());
+            Assert.assertEquals(1.5, get(store, 1).getLatestColumn("co1").getValue().asDouble(), 0);
+            Assert.assertNull(get(store, 1).versionsOf("co2"));
+            Assert.assertEquals(2, get(store, 2).getLatestColumn("co1").getValue().asLong());
+            Assert.assertNull(get(store, 3));
+            Assert.assertArrayEquals(new byte[]{1, 2, 3}, get(store, 4).getColumn("co3", 7).getValue().asBinary());
+            Assert.assertTrue(get(store, 4).getColumn("co4", 7).getValue().asBoolean());
+        }
+    }
+
+    @Test
+    public void testTornTailIsTruncated() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("store.wal");
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(file)) {
+            createTable(store, CST);
+            for (int i = 0; i < 2; i++) {
+                RowPutChange change = new RowPutChange(CST, primaryKey(i));
+                change.addColumn(new Column("co1", ColumnValue.fromLong(i)));
+                store.inMemoryTableInstanceManager.putRow(new PutRowRequest(change));
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(file)) {
+            Assert.assertEquals(1, store.getInMemoryTableInstance(CST).getDataInstance().size());
+            RowPutChange change = new RowPutChange(CST, primaryKey(5));
+            change.addColumn(new Column("co1", ColumnValue.fromLong(5)));
+            store.inMemoryTableInstanceManager.putRow(new PutRowRequest(change));
+        }
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(file)) {
+            Assert.assertNotNull(get(store, 0));
+            Assert.assertNotNull(get(store, 5));
+        }
+    }
+
+    @Test
+    public void testConcurrentWritersAreGroupCommitted() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("store.wal");
+        int threads = 8;
+        int rowsPerThread = 200;
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(file, 0)) {
+            createTable(store, CST);
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int offset = t * rowsPerThread;
+                writers.add(new Thread(() -> {
+                    for (int i = offset; i < offset + rowsPerThread; i++) {
+                        RowPutChange change = new RowPutChange(CST, primaryKey(i));
+                        change.addColumn(new Column("co1", ColumnValue.fromLong(i)));
+                        store.inMemoryTableInstanceManager.putRow(new PutRowRequest(change));
+                    }
+                }));
+            }
+            for (Thread writer : writers) {
+                writer.start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            // leader等其他写者赶上同一批, 多个写入共用一次fsync; 具体的比例取决于调度, 只检查确实合并了
+            long flushes = store.inMemoryTableInstanceManager.writeAheadLog.flushes();
+            Assert.assertTrue(flushes + " flushes", flushes < threads * rowsPerThread);
+        }
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(file)) {
+            Assert.assertEquals(threads * rowsPerThread, store.getInMemoryTableInstance(CST).getDataInstance().size());
+            Assert.assertEquals(777, get(store, 777).getLatestColumn("co1").getValue().asLong());
+        }
+    }
+
+    @Test
+    public void testIntervalSync() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("store.wal");
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(file, 10)) {
+            createTable(store, CST);
+            RowPutChange change = new RowPutChange(CST, primaryKey(1));
+            change.addColumn(new Column("co1", ColumnValue.fromLong(1)));
+            store.inMemoryTableInstanceManager.putRow(new PutRowRequest(change));
+            // 关闭时把还没有刷盘的记录写完
+        }
+        try (SimpleInMemoryTableStore store = new SimpleInMemoryTableStore(file)) {
+            Assert.assertEquals(1, get(store, 1).getLatestColumn("co1").getValue().asLong());
+        }
+    }
+}